@@ -1,47 +1,103 @@
 import java.io.Serializable;
-import java.util.Arrays;
 
 
 /**
- * A custom hash table data structure for <code>Ticket</code> objects. The
- * size of the hash table is determined by the arbitrary limit of a maximum of
- * 800 expected Tickets in the data structure. Thus, for the sake of efficiency
- * calling <code>size</code> should never return more than 800, or the
- * expected number of probes per <code>add</code> and <code>getTicket</code>
- * methods will exceed and average of 2.5.
+ * A custom hash table data structure for <code>Ticket</code> objects, indexed
+ * by the customer number of the tickets, so a customer has one ticket at most.
  * <p>
- * In general, the methods are expected O(1).
+ * The customer numbers are kept in an <code>int</code> array beside the array
+ * of tickets, and collisions are resolved by open addressing with linear
+ * probing, so a lookup probes a primitive array and only touches the ticket it
+ * finds. Every method hashes the customer number with the same function,
+ * <code>hash</code>. The capacity is always a power of two, and the table
+ * doubles when it is more than <code>MAX_LOAD</code> full, which keeps the
+ * expected number of probes per <code>add</code>, <code>getTicketFor</code>
+ * and <code>remove</code> below 2.5, however many tickets are added. Removal
+ * shifts the rest of the probe run back into the freed cell, so no tombstones
+ * are left behind.
  * <p>
- * Note that this data structure does not offer methods for removing elements
- * from the table, since such actions should not be needed in the project.
+ * In general, the methods are expected O(1). This class is not thread-safe.
  * <p>
  * @author Andreas Stensig Jensen, on Dec 2, 2014
  * Contributors:
  */
 public class TicketHashTable implements Serializable {
 
+    private static final long serialVersionUID = 1L;
+
     /**
-     * Prime number closest to 1,067 which gives a load factor of approx. 0.75
-     * with 800 tickets in the table, as arbitrarily chosen to be the limit of
-     * passengers per vehicle computer.
+     * Largest share of the cells that may be occupied before the table grows.
      */
-    private final int TABLE_SIZE = 1069;
+    private static final double MAX_LOAD = 0.5;
+
+    /**
+     * Number of tickets the default table holds before it has to grow; the
+     * arbitrarily chosen limit of passengers per vehicle computer.
+     */
+    private static final int DEFAULT_EXPECTED_SIZE = 800;
+
+    private static final int MIN_CAPACITY = 16;
 
-    private final Ticket[] table = new Ticket[TABLE_SIZE];
+    /**Customer number of a free cell; customer numbers are positive*/
+    private static final int FREE = 0;
+
+    private int[] keys;
+    private Ticket[] table;
+    private int mask;
     private int tableSize = 0;
 
 
+    /**
+     * Constructor of a table sized for 800 tickets.
+     */
+    public TicketHashTable() {
+        this(DEFAULT_EXPECTED_SIZE);
+    }
+
+    /**
+     * Constructor.
+     * <p>
+     * @param expectedSize number of tickets the table should hold before it
+     *                     has to grow.
+     */
+    public TicketHashTable(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * MAX_LOAD < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
     /**
      * Add a <code>Ticket</code> to the hash table.
      * <p>
      * @param t the ticket that is to be added.
      * <p>
-     * @return true if and only if the ticket was successfully added, or false
-     *         if it could not be added.
+     * @return true if and only if the ticket was added, or false if the table
+     *         already holds a ticket for the same customer, which is kept.
+     * <p>
+     * @throws IllegalArgumentException if the customer number of the ticket
+     *                                  is not positive.
      */
-    public boolean add(Ticket t) {
-        int key = t.customerHashCode() % TABLE_SIZE;
-        return insert(key, t);
+    public boolean add(Ticket t) throws IllegalArgumentException {
+        int customer = t.getCustomerNumber();
+        if (customer <= 0) {
+            throw new IllegalArgumentException(
+                    "Customer number must be greater than 0.");
+        }
+        int index = hash(customer) & mask;
+        while (keys[index] != FREE) {
+            if (keys[index] == customer) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = customer;
+        table[index] = t;
+        if (++tableSize > keys.length * MAX_LOAD) {
+            resize(keys.length * 2);
+        }
+        return true;
     }
 
     /**
@@ -50,13 +106,13 @@ public class TicketHashTable implements Serializable {
      * @param other hash table to merge into the current one.
      * <p>
      * @return true if and only if all tickets from the other table was
-     *         inserted successfully in the current one, or false if there were any
-     *         tickets that could not be inserted.
+     *         inserted successfully in the current one, or false if there were
+     *         tickets of customers that already had one in this table, which
+     *         are skipped.
      */
     public boolean mergeWith(TicketHashTable other) {
         boolean noneSkipped = true;
-        Ticket[] otherTable = other.getRawTable();
-        for (Ticket t : otherTable) {
+        for (Ticket t : other.table) {
             if (t != null) {
                 if (!add(t)) {
                     noneSkipped = false;
@@ -67,22 +123,48 @@ public class TicketHashTable implements Serializable {
     }
 
     /**
-     * Retrieve a <code>Ticket</code> with the given customer number. This will
-     * copy over the ticket in a new object which is returned, and will not
-     * remove it from the data structure.
+     * Retrieve the <code>Ticket</code> with the given customer number. The
+     * ticket is not removed from the data structure.
      * <p>
      * @param customerNumber of the ticket wished found.
      * <p>
      * @return the found ticket, or NULL if it is not in the table.
      */
     public Ticket getTicketFor(int customerNumber) {
-        int searchKey = customerNumber * 31 % TABLE_SIZE;
-        int properKey = find(searchKey, customerNumber);
-        if (properKey != -1) {
-            return table[properKey];
-        } else {
+        int index = find(customerNumber);
+        return (index != -1) ? table[index] : null;
+    }
+
+    /**
+     * Remove the <code>Ticket</code> with the given customer number.
+     * <p>
+     * @param customerNumber of the ticket to remove.
+     * <p>
+     * @return the removed ticket, or NULL if it was not in the table.
+     */
+    public Ticket remove(int customerNumber) {
+        int index = find(customerNumber);
+        if (index == -1) {
             return null;
         }
+        Ticket removed = table[index];
+
+        /*Move later tickets of the run into the hole, if it is on their path*/
+        int hole = index;
+        int next = (hole + 1) & mask;
+        while (keys[next] != FREE) {
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                table[hole] = table[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[hole] = FREE;
+        table[hole] = null;
+        --tableSize;
+        return removed;
     }
 
     /**
@@ -95,10 +177,28 @@ public class TicketHashTable implements Serializable {
         return tableSize;
     }
 
+    /**
+     * Test if the table holds no tickets.
+     * <p>
+     * @return true if the table is empty; false otherwise.
+     */
+    public boolean isEmpty() {
+        return tableSize == 0;
+    }
+
+    /**
+     * Get the number of cells of the table, which is a power of two.
+     * <p>
+     * @return the capacity.
+     */
+    public int capacity() {
+        return keys.length;
+    }
+
     /**
      * Get the raw array of <code>Ticket</code> objects that constitutes the
      * table of this Hash table data structure. NOTE that the returned array
-     * will have NULL values.
+     * will have NULL values, and is replaced when the table grows.
      * <p>
      * @return the array.
      */
@@ -107,74 +207,95 @@ public class TicketHashTable implements Serializable {
     }
 
     /**
-     * Insert a <code>Ticket</code> into the table, first trying with the
-     * generated key/index. If that index is already occupied open address
-     * probing is used until no more collisions are found.
+     * Spread the bits of a customer number over the whole <code>int</code>,
+     * so that consecutive customer numbers do not form long runs in the
+     * table. This is the only hash function of the table.
      * <p>
-     * @param key   generated index the ticket should be inserted with.
-     * @param value the ticket to be inserted
+     * @param customerNumber the customer number to hash.
      * <p>
-     * @return true if the ticket was successfully inserted (in any position),
-     *         or false if it could not be inserted into the table.
+     * @return the hash of the customer number.
      */
-    private boolean insert(int key, Ticket value) {
-        int originalKey = key;
-        /*Look for first empty cell, but avoid infinite loop if none exists*/
-        while (table[key] != null && (key + 1) != originalKey) {
-            /*Wrap table at max index*/
-            key = (key != TABLE_SIZE - 1) ? ++key : 0;
+    static int hash(int customerNumber) {
+        int h = customerNumber * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Find the cell of the <code>Ticket</code> with a customer number.
+     * <p>
+     * @param customerNumber the customer number of the targeted ticket.
+     * <p>
+     * @return the index of the target, if it was found in the table, or -1 if
+     *         it was not found.
+     */
+    private int find(int customerNumber) {
+        if (customerNumber <= 0) {
+            return -1;
         }
-        if (table[key] == null) {
-            table[key] = value;
-            ++tableSize;
-            return true;
-        } else {
-            return false;
+        int index = hash(customerNumber) & mask;
+        /*The table is never full, so the run always ends in a free cell*/
+        while (keys[index] != FREE) {
+            if (keys[index] == customerNumber) {
+                return index;
+            }
+            index = (index + 1) & mask;
         }
+        return -1;
     }
 
     /**
-     * Find a <code>Ticket</code> based on its customer number and return the
-     * index of the Ticket in the table, or -1 if the target was not found.
+     * Create empty arrays of the given capacity.
      * <p>
-     * @param key            the generated index where the target SHOULD be.
-     * @param targetCustomer the customer number of the targeted ticket.
+     * @param capacity the capacity; a power of two.
+     */
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        table = new Ticket[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Move all tickets into new arrays.
      * <p>
-     * @return the true index of the target, if it was found in the table, or -1
-     *         if it was not found.
+     * @param capacity the new capacity; a power of two.
      */
-    private int find(int key, int targetCustomer) {
-        int originalKey = key;
-        /*Look for first empty cell, but avoid infinite loop if none exists*/
-        while (table[key] != null && (key + 1) != originalKey) {
-            if (table[key].getCustomerNumber() == targetCustomer) {
-                return key;
-            } else {
-                /*Wrap table at max index*/
-                key = (key != TABLE_SIZE - 1) ? ++key : 0;
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Ticket[] oldTable = table;
+        allocate(capacity);
+        for (int i = 0; i != oldKeys.length; ++i) {
+            if (oldKeys[i] != FREE) {
+                int index = hash(oldKeys[i]) & mask;
+                while (keys[index] != FREE) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                table[index] = oldTable[i];
             }
         }
-        /*Ticket not found. Return invalid index*/
-        return -1;
     }
 
     /**
-     * Auto-generated hash code method.
+     * Hash code of the tickets in the table, regardless of where in the table
+     * they are placed.
      * <p>
      * @return the generated hash code.
      */
     @Override
     public int hashCode() {
         int hash = 3;
-        hash = 59 * hash + this.TABLE_SIZE;
-        hash = 59 * hash + Arrays.deepHashCode(this.table);
-        hash = 59 * hash + this.tableSize;
-        return hash;
+        for (Ticket t : table) {
+            if (t != null) {
+                hash += t.hashCode();
+            }
+        }
+        return 59 * hash + this.tableSize;
     }
 
     /**
      * Test for equality with another object. Two <code>TicketHashTable</code>
-     * objects are equal if and only if all their fields are equal.
+     * objects are equal if and only if they hold equal tickets, regardless of
+     * their capacity.
      * <p>
      * @param obj object to test with for equality.
      * <p>
@@ -189,15 +310,15 @@ public class TicketHashTable implements Serializable {
             return false;
         }
         final TicketHashTable other = (TicketHashTable) obj;
-        if (this.TABLE_SIZE != other.TABLE_SIZE) {
-            return false;
-        }
-        if (!Arrays.deepEquals(this.table, other.table)) {
-            return false;
-        }
         if (this.tableSize != other.tableSize) {
             return false;
         }
+        for (Ticket t : this.table) {
+            if (t != null
+                    && !t.equals(other.getTicketFor(t.getCustomerNumber()))) {
+                return false;
+            }
+        }
         return true;
     }
 }
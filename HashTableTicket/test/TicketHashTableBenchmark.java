@@ -0,0 +1,115 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+
+/**
+ * Benchmark of ticket lookups by customer number in a
+ * <code>TicketHashTable</code>, a <code>TicketList</code> and a
+ * <code>HashMap&lt;Integer, Ticket&gt;</code>, with 800 and 10,000 tickets.
+ * Half of the customers looked up have a ticket. Each structure is warmed up
+ * for a few iterations before the measured ones, and the mean time per lookup
+ * of the measured iterations is reported, with the time to build the
+ * structure from the tickets.
+ * <p>
+ * Usage: <code>TicketHashTableBenchmark [lookups] [iterations]</code>
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 17, 2014
+ * Contributors:
+ */
+public class TicketHashTableBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 5;
+
+    /**Keeps the results of the lookups alive*/
+    private static long found = 0;
+
+
+    public static void main(String[] args) {
+        int lookups = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+        int iterations = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+        System.out.println(String.format("%6s %-16s %12s %12s", "tickets",
+                "structure", "build (us)", "lookup (ns)"));
+        for (int count : new int[]{800, 10000}) {
+            Random random = new Random(count);
+            ArrayList<Ticket> tickets = new ArrayList<>(count);
+            for (int i = 0; i != count; ++i) {
+                Ticket t = new Ticket();
+                t.createTicket(i + 1, "2014-12-17 10:00:00", 24, 1, 2,
+                               245000 + 2 * i);
+                tickets.add(t);
+            }
+            int[] customers = new int[lookups];
+            for (int i = 0; i != lookups; ++i) {
+                customers[i] = 245000 + random.nextInt(4 * count);
+            }
+            /*The list scans up to every ticket; fewer lookups suffice*/
+            int listLookups = Math.max(1, lookups / (count / 10));
+
+            for (String name : new String[]{"TicketHashTable", "HashMap",
+                                            "TicketList"}) {
+                double build = 0;
+                double lookup = 0;
+                for (int it = 0; it != WARMUP_ITERATIONS + iterations; ++it) {
+                    long start = System.nanoTime();
+                    Object structure = build(name, tickets);
+                    long built = System.nanoTime();
+                    int n = name.equals("TicketList") ? listLookups : lookups;
+                    lookUp(structure, customers, n);
+                    long done = System.nanoTime();
+                    if (it >= WARMUP_ITERATIONS) {
+                        build += (built - start) / 1000.0;
+                        lookup += (done - built) / (double) n;
+                    }
+                }
+                System.out.println(String.format("%6d %-16s %12.1f %12.1f",
+                        count, name, build / iterations, lookup / iterations));
+            }
+        }
+        if (found == 0) {
+            System.out.println("No tickets found.");
+        }
+    }
+
+    private static Object build(String name, ArrayList<Ticket> tickets) {
+        switch (name) {
+            case "TicketHashTable":
+                TicketHashTable table = new TicketHashTable(tickets.size());
+                for (Ticket t : tickets) {
+                    table.add(t);
+                }
+                return table;
+            case "HashMap":
+                HashMap<Integer, Ticket> map = new HashMap<>(
+                        tickets.size() * 2);
+                for (Ticket t : tickets) {
+                    map.put(t.getCustomerNumber(), t);
+                }
+                return map;
+            default:
+                TicketList list = new TicketList();
+                list.setAllTickets(new ArrayList<>(tickets));
+                return list;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void lookUp(Object structure, int[] customers, int n) {
+        if (structure instanceof TicketHashTable) {
+            TicketHashTable table = (TicketHashTable) structure;
+            for (int i = 0; i != n; ++i) {
+                found += (table.getTicketFor(customers[i]) != null) ? 1 : 0;
+            }
+        } else if (structure instanceof HashMap) {
+            HashMap<Integer, Ticket> map = (HashMap<Integer, Ticket>) structure;
+            for (int i = 0; i != n; ++i) {
+                found += (map.get(customers[i]) != null) ? 1 : 0;
+            }
+        } else {
+            TicketList list = (TicketList) structure;
+            for (int i = 0; i != n; ++i) {
+                found += (list.getTicket(customers[i]) != null) ? 1 : 0;
+            }
+        }
+    }
+}
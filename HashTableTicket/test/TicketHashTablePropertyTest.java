@@ -0,0 +1,134 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+
+/**
+ * Property test of <code>TicketHashTable</code>. Random sequences of adds,
+ * removals and lookups are applied both to the table and to a
+ * <code>HashMap</code> of the same tickets, and after every operation the two
+ * must agree on the result and the size. The customer numbers are drawn from
+ * a small range, so customers are added and removed again many times and long
+ * probe runs form, and from multiples of the capacity, which all hash to
+ * nearby cells if the hash does not spread them. After each sequence every
+ * ticket of the map must be found in the table, the table must not be more
+ * than half full, it must reject a customer number that is not positive,
+ * and it must survive serialization and a merge.
+ * <p>
+ * Usage: <code>TicketHashTablePropertyTest [sequences] [seed]</code>
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 17, 2014
+ * Contributors:
+ */
+public class TicketHashTablePropertyTest {
+
+    private static final int OPERATIONS = 20000;
+
+
+    public static void main(String[] args) throws IOException,
+            ClassNotFoundException {
+        int sequences = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+        long seed = (args.length > 1) ? Long.parseLong(args[1]) : 1;
+        Random random = new Random(seed);
+        long checked = 0;
+        for (int s = 0; s != sequences; ++s) {
+            int range = 16 << random.nextInt(10);
+            boolean strided = random.nextBoolean();
+            TicketHashTable table = new TicketHashTable(random.nextInt(100));
+            HashMap<Integer, Ticket> model = new HashMap<>();
+            for (int op = 0; op != OPERATIONS; ++op) {
+                int customer = 1 + random.nextInt(range);
+                if (strided) {
+                    customer *= 1024;
+                }
+                int choice = random.nextInt(10);
+                if (choice < 4) {
+                    Ticket t = ticket(op + 1, customer);
+                    boolean added = !model.containsKey(customer);
+                    if (added) {
+                        model.put(customer, t);
+                    }
+                    expect(table.add(t) == added, "add", seed, s, op);
+                } else if (choice < 7) {
+                    expect(table.remove(customer) == model.remove(customer),
+                           "remove", seed, s, op);
+                } else {
+                    expect(table.getTicketFor(customer) == model.get(customer),
+                           "lookup", seed, s, op);
+                }
+                expect(table.size() == model.size(), "size", seed, s, op);
+                ++checked;
+            }
+            checkContents(table, model, seed, s);
+        }
+        System.out.println("OK: " + sequences + " sequences, " + checked
+                + " operations agreed with HashMap.");
+    }
+
+    /**
+     * Check the whole table against the model, and a copy of it through
+     * serialization and merging.
+     */
+    private static void checkContents(TicketHashTable table,
+                                      Map<Integer, Ticket> model, long seed,
+                                      int sequence) throws IOException,
+            ClassNotFoundException {
+        for (Map.Entry<Integer, Ticket> entry : model.entrySet()) {
+            expect(table.getTicketFor(entry.getKey()) == entry.getValue(),
+                   "contents", seed, sequence, -1);
+        }
+        expect(table.size() <= table.capacity() / 2, "load", seed, sequence,
+               -1);
+        expect(table.getTicketFor(0) == null
+                && table.getTicketFor(-1) == null, "invalid customer", seed,
+               sequence, -1);
+        try {
+            /*A ticket not yet created has customer number 0*/
+            table.add(new Ticket());
+            expect(false, "add invalid customer", seed, sequence, -1);
+        } catch (IllegalArgumentException ex) {
+            /*Rejected, as expected*/
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(table);
+        oos.close();
+        TicketHashTable copy = (TicketHashTable) new ObjectInputStream(
+                new ByteArrayInputStream(bos.toByteArray())).readObject();
+        expect(copy.equals(table) && copy.hashCode() == table.hashCode(),
+               "serialization", seed, sequence, -1);
+
+        TicketHashTable merged = new TicketHashTable(0);
+        expect(merged.mergeWith(table) && merged.equals(table)
+                && !merged.mergeWith(table), "merge", seed, sequence, -1);
+
+        ArrayList<Integer> customers = new ArrayList<>(model.keySet());
+        for (Integer customer : customers) {
+            expect(merged.remove(customer) == model.get(customer),
+                   "remove all", seed, sequence, -1);
+        }
+        expect(merged.isEmpty(), "empty", seed, sequence, -1);
+    }
+
+    private static Ticket ticket(int number, int customer) {
+        Ticket t = new Ticket();
+        t.createTicket(number, "2014-12-17 10:00:00", 24, 1, 2, customer);
+        return t;
+    }
+
+    private static void expect(boolean property, String name, long seed,
+                               int sequence, int operation) {
+        if (!property) {
+            throw new AssertionError("Property '" + name + "' failed; seed "
+                    + seed + ", sequence " + sequence + ", operation "
+                    + operation);
+        }
+    }
+}
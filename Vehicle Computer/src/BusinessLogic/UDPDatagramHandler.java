@@ -2,6 +2,10 @@ package BusinessLogic;
 
 import ModelClasses.PassengerList;
 import ModelClasses.TicketList;
+import Protocol.ChunkFrame;
+import Protocol.ChunkReassembler;
+import Protocol.PassengerDelta;
+import Protocol.WireCodec;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.ByteArrayInputStream;
@@ -13,9 +17,12 @@ import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import javax.swing.Timer;
 
 
@@ -42,6 +49,15 @@ public class UDPDatagramHandler extends Thread {
     private final InetAddress destAddr;
     private byte[] bufferIn;
     private byte[] bufferOut;
+    /**Binary payload of the current datagram, or NULL if serialized*/
+    private ByteBuffer frameIn;
+    /**Datagrams of the reply when the request was chunked, else NULL*/
+    private byte[][] chunksOut;
+    /**Later chunks of the request, passed on by the UDPTrafficManager*/
+    private final LinkedBlockingQueue<byte[]> chunksIn =
+            new LinkedBlockingQueue<>();
+    private volatile boolean collecting;
+    private int messageId = -1;
     private Timer timer;
     private final DatagramSocket socket;
     private DatagramPacket packetIn;
@@ -78,6 +94,7 @@ public class UDPDatagramHandler extends Thread {
         this.packetIn = packet;
         destPort = packet.getPort();
         destAddr = packet.getAddress();
+        collecting = isChunk(packet.getData(), packet.getLength());
         journeyManager = new JourneyManager(rmiHost, rmiPort, rmiJourneyManName);
         socket = new DatagramSocket(socketPort);
         expSeqNum = 1;
@@ -101,6 +118,7 @@ public class UDPDatagramHandler extends Thread {
         this.packetIn = packet;
         destPort = packet.getPort();
         destAddr = packet.getAddress();
+        collecting = isChunk(packet.getData(), packet.getLength());
         socket = new DatagramSocket(socketPort);
     }
 
@@ -113,6 +131,13 @@ public class UDPDatagramHandler extends Thread {
     public void run() {
         /*Initial processing of datagram set in constructor.*/
         try {
+            if (collecting && !collectRequest()) {
+                System.err.println("-- UDPPacketHandler --");
+                System.err.println("Chunks of request missing.");
+                System.err.println("Killing thread.");
+                killThread();
+                return;
+            }
             processDatagram();
         } catch (IOException ex) {
             /*
@@ -138,6 +163,90 @@ public class UDPDatagramHandler extends Thread {
         System.out.println("PacketHandler killed.");
     }
 
+    /**
+     * Pass on a later chunk of the request to this handler.
+     * <p>
+     * @param packet the chunk, as received by the
+     *               <code>UDPTrafficManager</code>.
+     * <p>
+     * @return true if the chunk was taken; false if the handler is no longer
+     *         collecting its request.
+     */
+    boolean offerChunk(DatagramPacket packet) {
+        if (!collecting) {
+            return false;
+        }
+        return chunksIn.offer(Arrays.copyOf(packet.getData(),
+                                            packet.getLength()));
+    }
+
+    /**
+     * Test if the handler is still collecting the chunks of its request.
+     * <p>
+     * @return true if collecting; false otherwise.
+     */
+    boolean isCollecting() {
+        return collecting;
+    }
+
+    /**
+     * Collect the chunks of a request, starting with the one in
+     * <code>packetIn</code>, and replace <code>packetIn</code> with the
+     * whole request, as if it had arrived in one datagram. Invalid chunks are
+     * dropped. If the request is not complete within
+     * <code>RESEND_TIMEOUT_MS</code> of the last chunk, the client will have
+     * to resend it.
+     * <p>
+     * @return true if the request was completed; false otherwise.
+     */
+    private boolean collectRequest() {
+        ChunkReassembler request = new ChunkReassembler();
+        byte[] datagram = Arrays.copyOf(packetIn.getData(),
+                                        packetIn.getLength());
+        byte seqNum = datagram[SEQ_NUM_INDEX];
+        try {
+            while (true) {
+                try {
+                    if (request.offer(ByteBuffer.wrap(datagram,
+                            (SEQ_NUM_INDEX + 1), datagram.length - 1))) {
+                        break;
+                    }
+                } catch (IllegalArgumentException ex) {
+                    System.err.println("Invalid chunk; dropped.");
+                }
+                datagram = chunksIn.poll(RESEND_TIMEOUT_MS,
+                                         TimeUnit.MILLISECONDS);
+                if (datagram == null) {
+                    return false;
+                }
+            }
+        } catch (InterruptedException ex) {
+            return false;
+        } finally {
+            collecting = false;
+        }
+
+        messageId = request.getMessageId();
+        byte[] message = request.getMessage();
+        System.out.println("PacketHandler: request of " + message.length
+                + " bytes in " + request.getReceived() + " chunks.");
+        byte[] whole = new byte[message.length + 1];
+        whole[SEQ_NUM_INDEX] = seqNum;
+        System.arraycopy(message, 0, whole, (SEQ_NUM_INDEX + 1),
+                         message.length);
+        packetIn = new DatagramPacket(whole, whole.length);
+        return true;
+    }
+
+    /**
+     * Test if a datagram carries a <code>ChunkFrame</code> after its
+     * sequence number.
+     */
+    private boolean isChunk(byte[] data, int length) {
+        return length > 1 && ChunkFrame.isChunk(data, (SEQ_NUM_INDEX + 1),
+                                                length - 1);
+    }
+
     /**
      * Kill the thread, making it stop execution. If the thread is
      * currently processing a Datagram the thread will not stop execution until
@@ -172,7 +281,8 @@ public class UDPDatagramHandler extends Thread {
 
                 PassengerList passengers;
                 try {
-                    passengers = (PassengerList) ois.readObject();
+                    passengers = (frameIn != null) ? decodeFrame()
+                            : (PassengerList) ois.readObject();
                     TicketList tickets = journeyManager.generateTickets(
                             passengers);
 
@@ -183,9 +293,13 @@ public class UDPDatagramHandler extends Thread {
 
                     // Send reply
                     prepBufferOut(++currSeqNum, dataOut);
+                    if (messageId != -1) {
+                        prepChunksOut(currSeqNum, dataOut);
+                    }
                     sendReply();
 
-                } catch (IOException | ClassNotFoundException ex) {
+                } catch (IOException | ClassNotFoundException
+                        | IllegalArgumentException ex) {
                     System.err.println("Could not process data in datagram.");
                     ex.printStackTrace();
                     System.err.println("Dropping datagram.");
@@ -210,12 +324,24 @@ public class UDPDatagramHandler extends Thread {
      * storing the sequence number in the <code>currSeqNum</code> field, and 
      * return an <code>ObjectInputStream</code> with the data payload.
      * <p>
-     * @return the data payload in an <code>ObjectInputStream</code>.
+     * A payload that is a binary <code>WireCodec</code> frame, i.e. a
+     * passenger list sent as a bitmap, is instead left in
+     * <code>frameIn</code>.
+     * <p>
+     * @return the data payload in an <code>ObjectInputStream</code>, or NULL
+     *         if it is a binary frame.
      */
     private ObjectInputStream extractData() {
         bufferIn = packetIn.getData();
         currSeqNum = bufferIn[SEQ_NUM_INDEX];
 
+        frameIn = ByteBuffer.wrap(bufferIn, (SEQ_NUM_INDEX + 1),
+                                  packetIn.getLength() - 1).slice();
+        if (WireCodec.typeOf(frameIn) != -1) {
+            return null;
+        }
+        frameIn = null;
+
         byte[] dataIn = Arrays.copyOfRange(bufferIn, (SEQ_NUM_INDEX + 1),
                                            bufferIn.length);
 
@@ -231,6 +357,27 @@ public class UDPDatagramHandler extends Thread {
         }
     }
 
+    /**
+     * Decode the passengers to get tickets for from the binary frame in
+     * <code>frameIn</code>. Of a <code>PassengerDelta</code> only the boarded
+     * passengers need tickets; the vehicle keeps those of the others.
+     * <p>
+     * @return the passengers to get tickets for.
+     * <p>
+     * @throws IllegalArgumentException if the frame is not a valid passenger
+     *                                  list or delta.
+     */
+    private PassengerList decodeFrame() throws IllegalArgumentException {
+        if (WireCodec.typeOf(frameIn) != WireCodec.TYPE_PASSENGER_DELTA) {
+            return WireCodec.decodePassengers(frameIn);
+        }
+        PassengerDelta delta = PassengerDelta.decode(frameIn);
+        System.out.println("PacketHandler: delta of "
+                + delta.getBoarded().cardinality() + " boarded, "
+                + delta.getAlighted().cardinality() + " alighted.");
+        return delta.getBoardedList();
+    }
+
     /**
      * Fill the output buffer with the supplied sequence number and data.
      * <p>
@@ -248,23 +395,61 @@ public class UDPDatagramHandler extends Thread {
     }
 
     /**
-     * Prepare the <code>DatagramPacket</code> field and send the reply to the
-     * client specified by the <code>destPort</code> and <code>destAddr</code> 
-     * fields. Also starts the timeout <code>Timer</code> for getting a reply.
+     * Split the reply to a chunked request into <code>ChunkFrame</code>s of
+     * the request's message id, each after the sequence number, in
+     * <code>chunksOut</code>.
+     * <p>
+     * @param seqNum sequence number to be placed in each datagram.
+     * @param data   the reply.
+     */
+    private void prepChunksOut(byte seqNum, byte[] data) {
+        chunksOut = ChunkFrame.split(data, messageId,
+                                     UDPTrafficManager.CHUNK_SIZE - 1);
+        for (int i = 0; i != chunksOut.length; ++i) {
+            prepBufferOut(seqNum, chunksOut[i]);
+            chunksOut[i] = bufferOut;
+        }
+    }
+
+    /**
+     * Send the reply, or all of its chunks, to the client specified by the
+     * <code>destPort</code> and <code>destAddr</code> fields. Also starts the
+     * timeout <code>Timer</code> for getting a reply.
      * <p>
-     * If the reply cannot be send the thread sleeps for 10 milliseconds before
-     * trying to resend. If resend is unsuccessful it repeats with a 10 ms sleep
-     * before trying a second resend. If that too is unsuccessful the handler 
-     * is deemed useless and is killed, since the client won't know the address
-     * of the handler and will thus contact <code>UDPTrafficManager</code>
-     * again, spawning a new handler. 
+     * If a datagram cannot be send the handler is deemed useless and is
+     * killed, since the client won't know the address of the handler and will
+     * thus contact <code>UDPTrafficManager</code> again, spawning a new
+     * handler.
      */
     private void sendReply() {
-        packetOut = new DatagramPacket(bufferOut, bufferOut.length, destAddr,
-                                       destPort);
+        byte[][] datagrams = (chunksOut != null) ? chunksOut
+                : new byte[][]{bufferOut};
+        System.out.println("Sending " + datagrams.length + " datagram(s) to "
+                + destAddr + ":" + destPort);
+        for (byte[] datagram : datagrams) {
+            packetOut = new DatagramPacket(datagram, datagram.length, destAddr,
+                                           destPort);
+            if (!send()) {
+                return;
+            }
+        }
+        System.out.println("Send successful.");
+        expSeqNum += 2;
+        timer.start();
+    }
+
+    /**
+     * Send the <code>DatagramPacket</code> field.
+     * <p>
+     * If the datagram cannot be send the thread sleeps for 10 milliseconds
+     * before trying to resend. If resend is unsuccessful it repeats with a 10
+     * ms sleep before trying a second resend. If that too is unsuccessful the
+     * handler is killed.
+     * <p>
+     * @return true if the datagram was sent; false otherwise.
+     */
+    private boolean send() {
         try {
-            System.out.println(
-                    "Sending data to " + packetOut.getSocketAddress());
             socket.send(packetOut);
         } catch (IOException ex) {
             System.err.println("I/O exception in sending reply. ");
@@ -291,13 +476,11 @@ public class UDPDatagramHandler extends Thread {
                     System.err.println("PacketHandler unusable. "
                             + "Killing thread.");
                     killThread();
-                    return;
+                    return false;
                 }
             }
         }
-        System.out.println("Send successful.");
-        expSeqNum += 2;
-        timer.start();
+        return true;
     }
 
 
@@ -1,11 +1,15 @@
 package BusinessLogic;
 
+import Protocol.ChunkFrame;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
+import java.util.HashMap;
+import java.util.Iterator;
 
 
 /**
@@ -27,24 +31,37 @@ import java.rmi.RemoteException;
 public class UDPTrafficManager {
 
     /**
-     * Size for a <code>byte</code> buffer tested to hold 800 passengers in a
-     * serialized <code>PassengerList</code>. Test showed a size of 8207 bytes.
-     * Actual size is 8,300 for good measure.
+     * Size for a <code>byte</code> buffer receiving a request. A serialized
+     * <code>PassengerList</code> of 800 passengers was tested to be 8207
+     * bytes; larger requests should be chunked. Property:
+     * <code>tm.datagram.size</code>, default 65,507, the largest UDP payload.
      */
-    public static final int BUFFER_IN_SIZE = 8300;
+    public static final int BUFFER_IN_SIZE = Integer.getInteger(
+            "tm.datagram.size", 65507);
 
     /**
-     * Size for a <code>byte</code> buffer tested to hold 800 tickets in a
-     * serialized <code>TicketList</code>. Test showed a size of 21,833 bytes.
-     * Actual size is 21,900 for good measure.
+     * Size for a <code>byte</code> buffer receiving a reply. A serialized
+     * <code>TicketList</code> of 800 tickets was tested to be 21,833 bytes,
+     * and an unchunked reply may be up to the largest UDP payload.
      */
-    public static final int BUFFER_OUT_SIZE = 22000;
+    public static final int BUFFER_OUT_SIZE = 65507;
+
+    /**
+     * Largest datagram of a reply to a chunked request, in bytes. Property:
+     * <code>tm.chunk.size</code>, default 1400, which keeps every datagram
+     * within one Wi-Fi MTU.
+     */
+    public static final int CHUNK_SIZE = Integer.getInteger("tm.chunk.size",
+                                                            1400);
 
     private DatagramSocket socket;
     private String rmiHost, rmiJournayManagerName;
     private int rmiPort;
     private final int localPort = 2408;
     private int udpHandlerPort = 2409;
+    /**Handlers still collecting the chunks of a request, by client and id*/
+    private final HashMap<String, UDPDatagramHandler> collecting =
+            new HashMap<>();
 
     /**
      * Open the UDP <code>DatagramSocket</code> on a specified port.
@@ -85,6 +102,10 @@ public class UDPTrafficManager {
      * The new handler will then take over communication with the client through
      * its own <code>DatagramSocker</code>.
      * <p>
+     * A request that is split into <code>ChunkFrame</code>s is sent to this
+     * port as a whole, so each later chunk of it is passed on to the handler
+     * of its first chunk instead, while that handler is still collecting.
+     * <p>
      * The <code>setRMIPropperties</code> method MUST be called prior to this
      * method.
      * <p>
@@ -92,6 +113,32 @@ public class UDPTrafficManager {
      *               wishes to be serviced.
      */
     private void distributeDatagram(DatagramPacket packet) {
+        String chunkKey = null;
+        if (packet.getLength() > 1 && ChunkFrame.isChunk(packet.getData(), 1,
+                packet.getLength() - 1)) {
+            try {
+                ChunkFrame chunk = ChunkFrame.decode(ByteBuffer.wrap(
+                        packet.getData(), 1, packet.getLength() - 1));
+                chunkKey = packet.getSocketAddress() + "#"
+                        + chunk.getMessageId();
+            } catch (IllegalArgumentException ex) {
+                System.err.println("-- UDPTRafficManager --");
+                System.err.println("Invalid chunk; datagram dropped.");
+                return;
+            }
+            UDPDatagramHandler handler = collecting.get(chunkKey);
+            if (handler != null && handler.offerChunk(packet)) {
+                return;
+            }
+            /*Forget handlers that are done collecting*/
+            Iterator<UDPDatagramHandler> it = collecting.values().iterator();
+            while (it.hasNext()) {
+                if (!it.next().isCollecting()) {
+                    it.remove();
+                }
+            }
+        }
+
         /*
          Do not offer port numbers greater than 2,409 + 2,000. With an arbitrary
          restiction of no more than 1,000 vehicle computers per TrafficManager, 
@@ -110,6 +157,9 @@ public class UDPTrafficManager {
             UDPDatagramHandler handler = 
                    new UDPDatagramHandler(packet, udpHandlerPort, rmiHost,
                                            rmiPort, rmiJournayManagerName);
+            if (chunkKey != null) {
+                collecting.put(chunkKey, handler);
+            }
             handler.start();
             ++udpHandlerPort;
         } catch (SocketException | NotBoundException |RemoteException ex) {
@@ -1,6 +1,7 @@
 package FrontEnd;
 
 import ModelClasses.Ticket;
+import Protocol.WireCodec;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -13,6 +14,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 
@@ -47,6 +49,13 @@ public class PDAApplication extends JFrame {
      */
     protected InetAddress VCHostAddr;
 
+    /**
+     * Set when the application is pinged, if the vehicle speaks the binary
+     * <code>WireCodec</code> format. Tickets are then requested in that
+     * format, and as serialized objects otherwise.
+     */
+    protected volatile boolean VCBinaryWire;
+
     private final int localPort = 2220;
     protected DatagramSocket socket;
     protected String customerNumber;
@@ -153,6 +162,9 @@ public class PDAApplication extends JFrame {
                     "No ping as been recieved yet. Cannot request ticket.");
             return null;
         }
+        if (VCBinaryWire) {
+            return getBinaryTicket();
+        }
 
         /*Serialize the customer number and send request-for-ticket*/
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
@@ -188,6 +200,35 @@ public class PDAApplication extends JFrame {
         return ticket;
     }
 
+    /**
+     * Get the <code>Ticket</code> from the <code>VehicleComputer</code> with
+     * binary <code>WireCodec</code> frames.
+     * <p>
+     * @return the ticket, or NULL if no valid ticket was found.
+     * <p>
+     * @throws IOException if the reply could not be read as a ticket frame.
+     */
+    private Ticket getBinaryTicket() throws IOException {
+        byte[] buffOut = new byte[WireCodec.CUSTOMER_FRAME_SIZE];
+        WireCodec.encodeCustomer(ByteBuffer.wrap(buffOut),
+                                 WireCodec.TYPE_TICKET_REQUEST,
+                                 Integer.parseInt(customerNumber.trim()));
+        DatagramPacket packetOut = new DatagramPacket(buffOut, buffOut.length,
+                                                      VCHostAddr,
+                                                      VCTicketRequestPort);
+        socket.send(packetOut);
+
+        int arrLen = WireCodec.TICKET_FRAME_SIZE;
+        DatagramPacket packetIn = new DatagramPacket(new byte[arrLen], arrLen);
+        socket.receive(packetIn);
+        try {
+            return WireCodec.decodeTicket(ByteBuffer.wrap(packetIn.getData(), 
+                    packetIn.getOffset(), packetIn.getLength()));
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Reply was not a valid ticket frame.", ex);
+        }
+    }
+
 
     /**
      * Main method for running the application.
@@ -1,5 +1,7 @@
 package FrontEnd;
 
+import Protocol.AckFrame;
+import Protocol.WireCodec;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.ByteArrayInputStream;
@@ -10,6 +12,7 @@ import java.io.ObjectOutputStream;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.MulticastSocket;
+import java.nio.ByteBuffer;
 import javax.swing.JOptionPane;
 import javax.swing.Timer;
 
@@ -35,8 +38,9 @@ class PingHandler extends Thread {
     private final String multicastAddr = "239.0.1.139";
     private MulticastSocket multiSocket;
     private int missedPings;
-    private final DatagramPacket packetIn = new DatagramPacket(new byte[128],
-                                                               128);
+    /**Large enough for both serialized pings and a full AckFrame*/
+    private final DatagramPacket packetIn = new DatagramPacket(
+            new byte[AckFrame.MAX_SIZE], AckFrame.MAX_SIZE);
     private final PDAApplication parent;
     private final Timer pingTimer;
 
@@ -74,28 +78,24 @@ class PingHandler extends Thread {
                 System.out.println("PingHandler: waiting for ping . . .");
                 multiSocket.receive(packetIn);
                 System.out.println("PingHandler: datagram recieved.");
+                int type = WireCodec.typeOf(packetIn.getData(), 
+                        packetIn.getOffset(), packetIn.getLength());
+                if (type != -1) {
+                    handleFrame(type);
+                    continue;
+                }
                 String payload = getData(packetIn);
 
                 switch (payload) {
                     case "ping":
-                        /*Set host reply address in parent*/
-                        parent.VCHostAddr = packetIn.getAddress();
-                        /*Send pong with customer number*/
-                        byte[] reply = generateReplyBuffer();
-                        InetAddress replyAddr = packetIn.getAddress();
-                        DatagramPacket packetOut = 
-                                new DatagramPacket(reply, reply.length, 
-                                        replyAddr, singlecastReplyPort);
-                        System.out.println("PingHandler: Sending pong");
-                        multiSocket.send(packetOut);
+                        /*Reply in the legacy format of the ping*/
+                        parent.VCBinaryWire = false;
+                        sendPong(generateReplyBuffer());
                         break;
 
                     case "ack":
                         System.out.println("PingHandler: Ack received");
-                        missedPings = 0;
-                        /*Show ping in GUI and start timer for receiving next*/
-                        parent.gui.enablePingLabel(true);
-                        pingTimer.restart();
+                        acknowledged();
                         break;
 
                     default:
@@ -118,6 +118,93 @@ class PingHandler extends Thread {
         }
     }
 
+    /**
+     * Handle a binary <code>WireCodec</code> frame from the vehicle.
+     * <p>
+     * @param type the type of the frame in <code>packetIn</code>.
+     * <p>
+     * @throws IOException if a pong could not be sent.
+     */
+    private void handleFrame(int type) throws IOException {
+        switch (type) {
+            case WireCodec.TYPE_PING:
+                int round = WireCodec.decodePingRound(ByteBuffer.wrap(
+                        packetIn.getData(), packetIn.getOffset(),
+                        packetIn.getLength()));
+                if (round == -1) {
+                    System.err.println("Ping truncated. \nDropping ping.");
+                    break;
+                }
+                /*Reply, and request tickets, in the binary format*/
+                parent.VCBinaryWire = true;
+                sendPong(generateBinaryReplyBuffer(round));
+                break;
+
+            case WireCodec.TYPE_ACK:
+                System.out.println("PingHandler: Ack received");
+                acknowledged();
+                break;
+
+            case WireCodec.TYPE_ACK_FRAME:
+                /*Aggregated ack; only for this PDA if it is listed*/
+                if (AckFrame.contains(packetIn.getData(), packetIn.getOffset(),
+                                      packetIn.getLength(), 
+                                      getCustomerNumber())) {
+                    System.out.println("PingHandler: Ack frame received");
+                    acknowledged();
+                }
+                break;
+
+            default:
+                System.err.println("Frame type not recognized. "
+                        + "\nDropping frame.");
+                break;
+        }
+    }
+
+    /**
+     * Send a pong to the vehicle that sent the ping in <code>packetIn</code>,
+     * and set it as the host to request tickets from.
+     * <p>
+     * @param reply the encoded pong.
+     * <p>
+     * @throws IOException if the pong could not be sent.
+     */
+    private void sendPong(byte[] reply) throws IOException {
+        /*Set host reply address in parent*/
+        parent.VCHostAddr = packetIn.getAddress();
+        InetAddress replyAddr = packetIn.getAddress();
+        DatagramPacket packetOut = new DatagramPacket(reply, reply.length,
+                                                      replyAddr,
+                                                      singlecastReplyPort);
+        System.out.println("PingHandler: Sending pong");
+        multiSocket.send(packetOut);
+    }
+
+    /**
+     * Register that the vehicle has acknowledged a pong from this PDA.
+     */
+    private void acknowledged() {
+        missedPings = 0;
+        /*Show ping in GUI and start timer for receiving next*/
+        parent.gui.enablePingLabel(true);
+        pingTimer.restart();
+    }
+
+    /**
+     * Get the customer number of the <code>PDAApplication</code> as a number,
+     * for looking it up in an aggregated ack.
+     * <p>
+     * @return the customer number, or -1 if it is not a valid number.
+     */
+    private int getCustomerNumber() {
+        try {
+            return Integer.parseInt(parent.customerNumber.trim());
+        } catch (NullPointerException | NumberFormatException ex) {
+            return -1;
+        }
+    }
+
     /**
      * Get the data from the <code>DatagramPacket</code> ping.
      * <p>
@@ -161,6 +248,21 @@ class PingHandler extends Thread {
         return reply;
     }
 
+    /**
+     * Generates a binary <code>WireCodec</code> pong with the customer number
+     * from the <code>PDAApplication</code>, echoing the round of the ping so
+     * the vehicle records it in the round it answers.
+     * <p>
+     * @param round the round of the ping.
+     * <p>
+     * @return the encoded pong.
+     */
+    private byte[] generateBinaryReplyBuffer(int round) {
+        byte[] reply = new byte[WireCodec.PONG_FRAME_SIZE];
+        WireCodec.encodePong(ByteBuffer.wrap(reply), getCustomerNumber(), round);
+        return reply;
+    }
+
 
     /**
      * <code>Timer ActionListener</code> that is triggered when a timeout for
@@ -0,0 +1,183 @@
+package Protocol;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Compact, aggregated acknowledgement of the pongs a
+ * <code>VehicleComputer</code> heard in one ping interval. Instead of a
+ * unicast "ack" to every PDA, the vehicle multicasts one or more frames
+ * listing the customer numbers, and each PDA looks for its own number.
+ * <p>
+ * A frame has the layout
+ * <pre>
+ *   56 01 01      <code>WireCodec</code> header, of TYPE_ACK_FRAME
+ *   xx xx         number of customers in the frame
+ *   ...           the customer numbers in ascending order, as varints; the
+ *                 first one absolute, each following one as the difference
+ *                 to the one before it
+ * </pre>
+ * A frame never exceeds <code>MAX_SIZE</code>, so it is not fragmented on
+ * the vehicle Wi-Fi; a round with more passengers is sent as several
+ * self-contained frames.
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 14, 2014
+ * Contributors:
+ */
+public final class AckFrame {
+
+    /**
+     * Maximum size of a frame in bytes, chosen to fit within one Wi-Fi
+     * MTU together with the IP and UDP headers.
+     */
+    public static final int MAX_SIZE = 1400;
+
+    private static final int HEADER_SIZE = WireCodec.HEADER_SIZE + 2;
+    /**Maximum size of a varint encoding a positive int*/
+    private static final int MAX_VARINT_SIZE = 5;
+
+
+    /**
+     * Not to be instantiated.
+     */
+    private AckFrame() {
+    }
+
+    /**
+     * Encode as many customers as fit into one frame, starting at index
+     * <code>from</code>. The frame is written at the position of the buffer,
+     * which must have at least <code>MAX_SIZE</code> bytes remaining.
+     * <p>
+     * @param sorted customer numbers in strictly ascending order, all
+     *               positive.
+     * @param from   index of the first customer to encode.
+     * @param out    buffer the frame is written into.
+     * <p>
+     * @return the number of customers encoded in the frame.
+     */
+    public static int encode(int[] sorted, int from, ByteBuffer out) {
+        int start = out.position();
+        int end = start + MAX_SIZE;
+        WireCodec.putHeader(out, WireCodec.TYPE_ACK_FRAME);
+        out.putShort((short) 0);
+
+        int count = 0;
+        int previous = 0;
+        for (int i = from; i != sorted.length && count != 0xFFFF
+                && out.position() + MAX_VARINT_SIZE <= end; ++i) {
+            putVarint(out, sorted[i] - previous);
+            previous = sorted[i];
+            ++count;
+        }
+        out.putShort(start + 3, (short) count);
+        return count;
+    }
+
+    /**
+     * Test if a datagram is an ack frame that this version understands.
+     * <p>
+     * @param data   datagram buffer.
+     * @param offset offset of the datagram in the buffer.
+     * @param length length of the datagram.
+     * <p>
+     * @return true if the datagram is an ack frame; false otherwise.
+     */
+    public static boolean isAckFrame(byte[] data, int offset, int length) {
+        return length >= HEADER_SIZE && WireCodec.typeOf(data, offset, length)
+                == WireCodec.TYPE_ACK_FRAME;
+    }
+
+    /**
+     * Test if an ack frame lists a customer. The frame is scanned only up to
+     * the customer's place in the ascending order.
+     * <p>
+     * @param data     datagram buffer.
+     * @param offset   offset of the frame in the buffer.
+     * @param length   length of the frame.
+     * @param customer the customer number to look for.
+     * <p>
+     * @return true if the customer is acknowledged; false otherwise, also if
+     *         the frame is malformed.
+     */
+    public static boolean contains(byte[] data, int offset, int length,
+                                   int customer) {
+        if (!isAckFrame(data, offset, length)) {
+            return false;
+        }
+        int count = ((data[offset + 3] & 0xFF) << 8) | (data[offset + 4] & 0xFF);
+        int end = offset + length;
+        int pos = offset + HEADER_SIZE;
+        int value = 0;
+        for (int i = 0; i != count; ++i) {
+            /*Read one varint*/
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (pos == end || shift > 28) {
+                    return false;
+                }
+                b = data[pos++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+
+            value += delta;
+            if (value >= customer) {
+                return value == customer;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decode all customer numbers of an ack frame.
+     * <p>
+     * @param data   datagram buffer.
+     * @param offset offset of the frame in the buffer.
+     * @param length length of the frame.
+     * <p>
+     * @return the customer numbers in ascending order.
+     * <p>
+     * @throws IllegalArgumentException if the datagram is not a valid frame.
+     */
+    public static int[] decode(byte[] data, int offset, int length) {
+        if (!isAckFrame(data, offset, length)) {
+            throw new IllegalArgumentException("Not an ack frame.");
+        }
+        int count = ((data[offset + 3] & 0xFF) << 8) | (data[offset + 4] & 0xFF);
+        int[] customers = new int[count];
+        int end = offset + length;
+        int pos = offset + HEADER_SIZE;
+        int value = 0;
+        for (int i = 0; i != count; ++i) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (pos == end || shift > 28) {
+                    throw new IllegalArgumentException("Truncated ack frame.");
+                }
+                b = data[pos++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            value += delta;
+            customers[i] = value;
+        }
+        return customers;
+    }
+
+    /**
+     * Write a non-negative int as a varint of seven bits per byte, the
+     * lowest bits first.
+     */
+    private static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+}
@@ -0,0 +1,154 @@
+package Protocol;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+
+/**
+ * One datagram of a message too large to be sent in a single datagram, e.g.
+ * the passenger list or ticket list of a train set. The message is split into
+ * chunks of at most a configured datagram size, and each chunk carries the id
+ * of its message and its own sequence number, so the receiver can put the
+ * message back together with a <code>ChunkReassembler</code> regardless of
+ * the order the chunks arrive in.
+ * <p>
+ * A frame has the layout
+ * <pre>
+ *   56 01 0A      <code>WireCodec</code> header, of TYPE_CHUNK
+ *   xx xx         id of the message
+ *   xx xx         index of the chunk in the message, from 0
+ *   xx xx         number of chunks in the message
+ *   ...           the bytes of the chunk, to the end of the datagram
+ * </pre>
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 16, 2014
+ * Contributors:
+ */
+public final class ChunkFrame {
+
+    public static final int HEADER_SIZE = WireCodec.HEADER_SIZE + 6;
+    /**Maximum number of chunks in one message*/
+    public static final int MAX_CHUNKS = 0xFFFF;
+
+    private final int messageId;
+    private final int index;
+    private final int count;
+    private final ByteBuffer data;
+
+
+    private ChunkFrame(int messageId, int index, int count, ByteBuffer data) {
+        this.messageId = messageId;
+        this.index = index;
+        this.count = count;
+        this.data = data;
+    }
+
+    /**
+     * Split a message into chunk frames.
+     * <p>
+     * @param message   the message.
+     * @param messageId id of the message, of which only the lower 16 bits are
+     *                  sent.
+     * @param maxSize   maximum size of a frame in bytes.
+     * <p>
+     * @return the frames, in order.
+     * <p>
+     * @throws IllegalArgumentException if a frame would not hold any of the
+     *                                  message, or the message needs more than
+     *                                  <code>MAX_CHUNKS</code> frames.
+     */
+    public static byte[][] split(byte[] message, int messageId, int maxSize)
+            throws IllegalArgumentException {
+        int chunkSize = maxSize - HEADER_SIZE;
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size too small: "
+                    + maxSize);
+        }
+        int count = Math.max(1, (message.length + chunkSize - 1) / chunkSize);
+        if (count > MAX_CHUNKS) {
+            throw new IllegalArgumentException("Message too large: "
+                    + message.length + " bytes");
+        }
+
+        byte[][] frames = new byte[count][];
+        for (int i = 0; i != count; ++i) {
+            int from = i * chunkSize;
+            int length = Math.min(chunkSize, message.length - from);
+            ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + length);
+            WireCodec.putHeader(frame, WireCodec.TYPE_CHUNK);
+            frame.putShort((short) messageId);
+            frame.putShort((short) i);
+            frame.putShort((short) count);
+            frame.put(message, from, length);
+            frames[i] = frame.array();
+        }
+        return frames;
+    }
+
+    /**
+     * Decode a chunk frame. The data of the chunk is not copied.
+     * <p>
+     * @param in the frame, ready for reading; it is consumed to its limit.
+     * <p>
+     * @return the chunk.
+     * <p>
+     * @throws IllegalArgumentException if the frame is not a valid chunk.
+     */
+    public static ChunkFrame decode(ByteBuffer in) throws
+            IllegalArgumentException {
+        if (WireCodec.typeOf(in) != WireCodec.TYPE_CHUNK) {
+            throw new IllegalArgumentException("Not a chunk frame.");
+        }
+        in.position(in.position() + WireCodec.HEADER_SIZE);
+        int messageId, index, count;
+        try {
+            messageId = in.getShort() & 0xFFFF;
+            index = in.getShort() & 0xFFFF;
+            count = in.getShort() & 0xFFFF;
+        } catch (BufferUnderflowException ex) {
+            throw new IllegalArgumentException("Frame is truncated.");
+        }
+        if (count == 0 || index >= count) {
+            throw new IllegalArgumentException("Invalid chunk " + index
+                    + " of " + count);
+        }
+        ByteBuffer data = in.slice();
+        in.position(in.limit());
+        return new ChunkFrame(messageId, index, count, data);
+    }
+
+    /**
+     * Test if a datagram is a chunk frame.
+     * <p>
+     * @param data   datagram buffer.
+     * @param offset offset of the datagram in the buffer.
+     * @param length length of the datagram.
+     * <p>
+     * @return true if the datagram is a chunk frame; false otherwise.
+     */
+    public static boolean isChunk(byte[] data, int offset, int length) {
+        return WireCodec.typeOf(data, offset, length) == WireCodec.TYPE_CHUNK;
+    }
+
+    public int getMessageId() {
+        return messageId;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Get the bytes of the chunk.
+     * <p>
+     * @return a buffer of the bytes, ready for reading.
+     */
+    public ByteBuffer getData() {
+        return data.duplicate();
+    }
+
+}
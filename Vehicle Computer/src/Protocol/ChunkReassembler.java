@@ -0,0 +1,118 @@
+package Protocol;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Receiving end of a message split into <code>ChunkFrame</code>s. Chunks may
+ * be offered in any order and more than once; each is kept the first time,
+ * and the message is complete once every chunk has been offered. A lost
+ * chunk is recovered by the sender sending the message again.
+ * <p>
+ * A reassembler collects one message at a time: the first chunk offered
+ * decides the message, and chunks of any other message are ignored until
+ * <code>reset()</code>.
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 16, 2014
+ * Contributors:
+ */
+public class ChunkReassembler {
+
+    private int messageId = -1;
+    private byte[][] chunks;
+    private int received;
+    private int length;
+
+
+    /**
+     * Offer a chunk frame.
+     * <p>
+     * @param frame the frame, ready for reading; it is consumed to its limit.
+     * <p>
+     * @return true if the message is complete; false otherwise.
+     * <p>
+     * @throws IllegalArgumentException if the frame is not a valid chunk, or
+     *                                  disagrees with the earlier chunks of
+     *                                  its message about their number.
+     */
+    public boolean offer(ByteBuffer frame) throws IllegalArgumentException {
+        ChunkFrame chunk = ChunkFrame.decode(frame);
+        if (chunks == null) {
+            messageId = chunk.getMessageId();
+            chunks = new byte[chunk.getCount()][];
+        } else if (chunk.getMessageId() != messageId) {
+            return isComplete();
+        } else if (chunk.getCount() != chunks.length) {
+            throw new IllegalArgumentException("Chunk count changed from "
+                    + chunks.length + " to " + chunk.getCount());
+        }
+
+        if (chunks[chunk.getIndex()] == null) {
+            ByteBuffer data = chunk.getData();
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            chunks[chunk.getIndex()] = bytes;
+            length += bytes.length;
+            ++received;
+        }
+        return isComplete();
+    }
+
+    /**
+     * Test if every chunk of the message has been offered.
+     * <p>
+     * @return true if the message is complete; false otherwise.
+     */
+    public boolean isComplete() {
+        return chunks != null && received == chunks.length;
+    }
+
+    /**
+     * Get the id of the message collected.
+     * <p>
+     * @return the id, or -1 if no chunk has been offered.
+     */
+    public int getMessageId() {
+        return messageId;
+    }
+
+    /**
+     * Get the number of chunks offered so far, not counting duplicates.
+     * <p>
+     * @return the number of chunks.
+     */
+    public int getReceived() {
+        return received;
+    }
+
+    /**
+     * Get the complete message.
+     * <p>
+     * @return the bytes of the message.
+     * <p>
+     * @throws IllegalStateException if the message is not complete.
+     */
+    public byte[] getMessage() throws IllegalStateException {
+        if (!isComplete()) {
+            throw new IllegalStateException("Message is not complete.");
+        }
+        byte[] message = new byte[length];
+        int position = 0;
+        for (byte[] chunk : chunks) {
+            System.arraycopy(chunk, 0, message, position, chunk.length);
+            position += chunk.length;
+        }
+        return message;
+    }
+
+    /**
+     * Discard the message, to collect the next one.
+     */
+    public void reset() {
+        messageId = -1;
+        chunks = null;
+        received = 0;
+        length = 0;
+    }
+
+}
@@ -0,0 +1,802 @@
+package Protocol;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+/**
+ * Compressed bitmap of positive <code>int</code> values, such as customer
+ * numbers, in the manner of a Roaring bitmap. The values are split by their
+ * upper 16 bits into containers, kept sorted by that key; a container holds
+ * the lower 16 bits either as a sorted <code>char</code> array, while it has
+ * at most <code>ARRAY_MAX</code> values, or as a bitmap of 1024 words.
+ * <p>
+ * Intersection, and the difference of <code>andNot</code>, work container
+ * by container: two bitmaps are combined a word at a time with
+ * <code>&amp;</code>, an array is probed against a bitmap, and two arrays are
+ * merged. Dense customer numbers end up in few containers, so
+ * intersecting the passengers of two ping rounds touches a few kilobytes.
+ * <p>
+ * The serialized form is
+ * <pre>
+ *   xx xx         number of containers
+ *   per container, in ascending order of the key:
+ *   xx xx         the key, i.e. the upper 16 bits of its values
+ *   xx xx         the number of values in the container, less one
+ *   ...           up to ARRAY_MAX values: the lower 16 bits of each value,
+ *                 in ascending order (2 bytes each); else the bitmap as
+ *                 1024 longs, lowest values first
+ * </pre>
+ * in network byte order, so the kind of a container follows from its number
+ * of values.
+ * <p>
+ * This class is not thread-safe.
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 16, 2014
+ * Contributors:
+ */
+public final class PassengerBitmap {
+
+    /**Largest number of values kept in an array container*/
+    static final int ARRAY_MAX = 4096;
+
+    private static final int BITMAP_WORDS = 1024;
+    private static final int INITIAL_CONTAINERS = 4;
+
+    private char[] keys = new char[INITIAL_CONTAINERS];
+    private Container[] containers = new Container[INITIAL_CONTAINERS];
+    private int size = 0;
+    private int cardinality = 0;
+
+
+    /**
+     * Constructor for an empty bitmap.
+     */
+    public PassengerBitmap() {
+    }
+
+    /**
+     * Create a bitmap of the given values.
+     * <p>
+     * @param values the values, in any order; all positive.
+     * <p>
+     * @return the new bitmap.
+     * <p>
+     * @throws IllegalArgumentException if a value is zero or negative.
+     */
+    public static PassengerBitmap of(int[] values) throws
+            IllegalArgumentException {
+        int[] sorted = values.clone();
+        Arrays.sort(sorted);
+        if (sorted.length != 0 && sorted[0] <= 0) {
+            throw new IllegalArgumentException(
+                    "Customer number must be greater than 0.");
+        }
+
+        /*Build each container from its run of values in one go*/
+        PassengerBitmap bitmap = new PassengerBitmap();
+        int start = 0;
+        while (start != sorted.length) {
+            int key = sorted[start] >>> 16;
+            int end = start + 1;
+            while (end != sorted.length && (sorted[end] >>> 16) == key) {
+                ++end;
+            }
+            char[] run = new char[end - start];
+            int count = 0;
+            for (int i = start; i != end; ++i) {
+                if (i == start || sorted[i] != sorted[i - 1]) {
+                    run[count++] = (char) sorted[i];
+                }
+            }
+            Container container = new ArrayContainer(run, count);
+            if (count > ARRAY_MAX) {
+                container = ((ArrayContainer) container).toBitmap();
+            }
+            bitmap.insert(bitmap.size, (char) key, container);
+            bitmap.cardinality += count;
+            start = end;
+        }
+        return bitmap;
+    }
+
+    /**
+     * Add a value to the bitmap.
+     * <p>
+     * @param value the value to add; must be positive.
+     * <p>
+     * @return true if the value was added, or false if it was already in the
+     *         bitmap.
+     * <p>
+     * @throws IllegalArgumentException if the value is zero or negative.
+     */
+    public boolean add(int value) throws IllegalArgumentException {
+        if (value <= 0) {
+            throw new IllegalArgumentException(
+                    "Customer number must be greater than 0.");
+        }
+        char key = (char) (value >>> 16);
+        int index = indexOf(key);
+        if (index < 0) {
+            index = -index - 1;
+            insert(index, key, new ArrayContainer());
+        }
+        Container container = containers[index];
+        int before = container.cardinality();
+        containers[index] = container.add((char) value);
+        if (containers[index].cardinality() == before) {
+            return false;
+        }
+        ++cardinality;
+        return true;
+    }
+
+    /**
+     * Remove a value from the bitmap.
+     * <p>
+     * @param value the value to remove.
+     * <p>
+     * @return true if the value was removed, or false if it was not in the
+     *         bitmap.
+     */
+    public boolean remove(int value) {
+        if (value <= 0) {
+            return false;
+        }
+        int index = indexOf((char) (value >>> 16));
+        if (index < 0) {
+            return false;
+        }
+        Container container = containers[index];
+        int before = container.cardinality();
+        container = container.remove((char) value);
+        if (container.cardinality() == before) {
+            return false;
+        }
+        --cardinality;
+        if (container.cardinality() == 0) {
+            System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+            System.arraycopy(containers, index + 1, containers, index,
+                             size - index - 1);
+            containers[--size] = null;
+        } else {
+            containers[index] = container;
+        }
+        return true;
+    }
+
+    /**
+     * Test if a value is in the bitmap.
+     * <p>
+     * @param value the value.
+     * <p>
+     * @return true if the value is in the bitmap; false otherwise.
+     */
+    public boolean contains(int value) {
+        if (value <= 0) {
+            return false;
+        }
+        int index = indexOf((char) (value >>> 16));
+        return index >= 0 && containers[index].contains((char) value);
+    }
+
+    /**
+     * Get the number of values in the bitmap.
+     * <p>
+     * @return the cardinality.
+     */
+    public int cardinality() {
+        return cardinality;
+    }
+
+    /**
+     * Test if the bitmap holds no values.
+     * <p>
+     * @return true if the bitmap is empty; false otherwise.
+     */
+    public boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    /**
+     * Get the values that are in both this and another bitmap. Neither bitmap
+     * is changed.
+     * <p>
+     * @param other the bitmap to intersect with.
+     * <p>
+     * @return a new bitmap with the common values.
+     */
+    public PassengerBitmap and(PassengerBitmap other) {
+        PassengerBitmap result = new PassengerBitmap();
+        int i = 0;
+        int j = 0;
+        while (i != size && j != other.size) {
+            if (keys[i] < other.keys[j]) {
+                ++i;
+            } else if (keys[i] > other.keys[j]) {
+                ++j;
+            } else {
+                Container common = containers[i].and(other.containers[j]);
+                if (common.cardinality() != 0) {
+                    result.insert(result.size, keys[i], common);
+                    result.cardinality += common.cardinality();
+                }
+                ++i;
+                ++j;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the values that are in this bitmap but not in another. Neither
+     * bitmap is changed.
+     * <p>
+     * @param other the bitmap of values to leave out.
+     * <p>
+     * @return a new bitmap with the remaining values.
+     */
+    public PassengerBitmap andNot(PassengerBitmap other) {
+        PassengerBitmap result = new PassengerBitmap();
+        int j = 0;
+        for (int i = 0; i != size; ++i) {
+            while (j != other.size && other.keys[j] < keys[i]) {
+                ++j;
+            }
+            Container rest = (j != other.size && other.keys[j] == keys[i])
+                    ? containers[i].andNot(other.containers[j])
+                    : containers[i].copy();
+            if (rest.cardinality() != 0) {
+                result.insert(result.size, keys[i], rest);
+                result.cardinality += rest.cardinality();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the values in ascending order.
+     * <p>
+     * @return a new array with the values.
+     */
+    public int[] toArray() {
+        int[] values = new int[cardinality];
+        int position = 0;
+        for (int i = 0; i != size; ++i) {
+            position = containers[i].fill(values, position, keys[i] << 16);
+        }
+        return values;
+    }
+
+    /**
+     * Get a cursor over the values in ascending order. The bitmap must not
+     * be changed while the cursor is used.
+     * <p>
+     * @return the cursor.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Get the number of bytes written by <code>writeTo</code>.
+     * <p>
+     * @return the size of the serialized bitmap.
+     */
+    public int serializedSize() {
+        int bytes = 2;
+        for (int i = 0; i != size; ++i) {
+            bytes += 4 + containers[i].serializedSize();
+        }
+        return bytes;
+    }
+
+    /**
+     * Write the serialized bitmap at the position of the buffer.
+     * <p>
+     * @param out buffer with at least <code>serializedSize()</code> bytes
+     *            remaining.
+     */
+    public void writeTo(ByteBuffer out) {
+        out.putChar((char) size);
+        for (int i = 0; i != size; ++i) {
+            out.putChar(keys[i]);
+            out.putChar((char) (containers[i].cardinality() - 1));
+            containers[i].writeTo(out);
+        }
+    }
+
+    /**
+     * Read a serialized bitmap from the position of the buffer.
+     * <p>
+     * @param in the serialized bitmap, ready for reading.
+     * <p>
+     * @return the bitmap.
+     * <p>
+     * @throws IllegalArgumentException if the data is not a valid bitmap of
+     *                                  positive values.
+     */
+    public static PassengerBitmap readFrom(ByteBuffer in) throws
+            IllegalArgumentException {
+        try {
+            PassengerBitmap bitmap = new PassengerBitmap();
+            int count = in.getChar();
+            int previousKey = -1;
+            for (int i = 0; i != count; ++i) {
+                int key = in.getChar();
+                int values = in.getChar() + 1;
+                if (key <= previousKey || key > (Integer.MAX_VALUE >>> 16)) {
+                    throw new IllegalArgumentException("Invalid bitmap key.");
+                }
+                Container container = (values <= ARRAY_MAX)
+                        ? ArrayContainer.readFrom(in, values)
+                        : BitmapContainer.readFrom(in, values);
+                if (key == 0 && container.contains((char) 0)) {
+                    throw new IllegalArgumentException(
+                            "Customer number must be greater than 0.");
+                }
+                bitmap.insert(bitmap.size, (char) key, container);
+                bitmap.cardinality += values;
+                previousKey = key;
+            }
+            return bitmap;
+        } catch (BufferUnderflowException ex) {
+            throw new IllegalArgumentException("Bitmap is truncated.");
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof PassengerBitmap)) {
+            return false;
+        }
+        PassengerBitmap other = (PassengerBitmap) obj;
+        return cardinality == other.cardinality
+                && Arrays.equals(toArray(), other.toArray());
+    }
+
+    /**
+     * Find the container of a key.
+     * <p>
+     * @param key upper 16 bits of a value.
+     * <p>
+     * @return the index of the container, or, if there is none,
+     *         <code>-(insertion point) - 1</code>.
+     */
+    private int indexOf(char key) {
+        /*Values are mostly added in ascending order*/
+        if (size != 0 && keys[size - 1] == key) {
+            return size - 1;
+        }
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void insert(int index, char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1,
+                         size - index);
+        keys[index] = key;
+        containers[index] = container;
+        ++size;
+    }
+
+
+    /**
+     * Cursor over the values of the bitmap in ascending order, without
+     * boxing.
+     */
+    public final class Cursor {
+
+        private int container = 0;
+        private int low = 0;
+        private int next = -1;
+
+
+        private Cursor() {
+            advance();
+        }
+
+        /**
+         * Test if there are more values.
+         * <p>
+         * @return true if <code>next()</code> returns a value.
+         */
+        public boolean hasNext() {
+            return next != -1;
+        }
+
+        /**
+         * Get the next value.
+         * <p>
+         * @return the value, or -1 if there are no more values.
+         */
+        public int next() {
+            int value = next;
+            advance();
+            return value;
+        }
+
+        private void advance() {
+            next = -1;
+            while (container != size) {
+                int found = (low > 0xFFFF) ? -1
+                        : containers[container].nextFrom(low);
+                if (found != -1) {
+                    next = (keys[container] << 16) | found;
+                    low = found + 1;
+                    return;
+                }
+                ++container;
+                low = 0;
+            }
+        }
+    }
+
+
+    /**
+     * The lower 16 bits of the values sharing a key.
+     */
+    private abstract static class Container {
+
+        abstract int cardinality();
+
+        /**@return this or a container replacing it*/
+        abstract Container add(char low);
+
+        /**@return this or a container replacing it*/
+        abstract Container remove(char low);
+
+        abstract boolean contains(char low);
+
+        /**@return the smallest value at or above low, or -1 if there is none*/
+        abstract int nextFrom(int low);
+
+        /**@return a new container with the common values*/
+        abstract Container and(Container other);
+
+        /**@return a new container with the values not in other*/
+        abstract Container andNot(Container other);
+
+        abstract Container copy();
+
+        /**@return the position after the values written*/
+        abstract int fill(int[] out, int position, int high);
+
+        abstract int serializedSize();
+
+        abstract void writeTo(ByteBuffer out);
+    }
+
+
+    /**
+     * Container of at most <code>ARRAY_MAX</code> values in a sorted array.
+     */
+    private static final class ArrayContainer extends Container {
+
+        private char[] values;
+        private int cardinality;
+
+
+        ArrayContainer() {
+            this(new char[8], 0);
+        }
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        static ArrayContainer readFrom(ByteBuffer in, int count) {
+            char[] values = new char[count];
+            for (int i = 0; i != count; ++i) {
+                values[i] = in.getChar();
+                if (i != 0 && values[i] <= values[i - 1]) {
+                    throw new IllegalArgumentException(
+                            "Bitmap values are not ascending.");
+                }
+            }
+            return new ArrayContainer(values, count);
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Container add(char low) {
+            int index = Arrays.binarySearch(values, 0, cardinality, low);
+            if (index >= 0) {
+                return this;
+            }
+            if (cardinality == ARRAY_MAX) {
+                return toBitmap().add(low);
+            }
+            index = -index - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX,
+                        Math.max(8, cardinality * 2)));
+            }
+            System.arraycopy(values, index, values, index + 1,
+                             cardinality - index);
+            values[index] = low;
+            ++cardinality;
+            return this;
+        }
+
+        @Override
+        Container remove(char low) {
+            int index = Arrays.binarySearch(values, 0, cardinality, low);
+            if (index >= 0) {
+                System.arraycopy(values, index + 1, values, index,
+                                 cardinality - index - 1);
+                --cardinality;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return Arrays.binarySearch(values, 0, cardinality, low) >= 0;
+        }
+
+        @Override
+        int nextFrom(int low) {
+            int index = Arrays.binarySearch(values, 0, cardinality,
+                                            (char) low);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return (index == cardinality) ? -1 : values[index];
+        }
+
+        @Override
+        Container and(Container other) {
+            char[] common = new char[Math.min(cardinality,
+                                              other.cardinality())];
+            int count = 0;
+            if (other instanceof ArrayContainer) {
+                /*Merge the two sorted arrays*/
+                ArrayContainer array = (ArrayContainer) other;
+                int i = 0;
+                int j = 0;
+                while (i != cardinality && j != array.cardinality) {
+                    if (values[i] < array.values[j]) {
+                        ++i;
+                    } else if (values[i] > array.values[j]) {
+                        ++j;
+                    } else {
+                        common[count++] = values[i];
+                        ++i;
+                        ++j;
+                    }
+                }
+            } else {
+                for (int i = 0; i != cardinality; ++i) {
+                    if (other.contains(values[i])) {
+                        common[count++] = values[i];
+                    }
+                }
+            }
+            return new ArrayContainer(common, count);
+        }
+
+        @Override
+        Container andNot(Container other) {
+            char[] rest = new char[cardinality];
+            int count = 0;
+            for (int i = 0; i != cardinality; ++i) {
+                if (!other.contains(values[i])) {
+                    rest[count++] = values[i];
+                }
+            }
+            return new ArrayContainer(rest, count);
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, cardinality),
+                                      cardinality);
+        }
+
+        @Override
+        int fill(int[] out, int position, int high) {
+            for (int i = 0; i != cardinality; ++i) {
+                out[position++] = high | values[i];
+            }
+            return position;
+        }
+
+        @Override
+        int serializedSize() {
+            return cardinality * 2;
+        }
+
+        @Override
+        void writeTo(ByteBuffer out) {
+            for (int i = 0; i != cardinality; ++i) {
+                out.putChar(values[i]);
+            }
+        }
+
+        private BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer(
+                    new long[BITMAP_WORDS], 0);
+            for (int i = 0; i != cardinality; ++i) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+
+    /**
+     * Container of more than <code>ARRAY_MAX</code> values as one bit per
+     * possible value.
+     */
+    private static final class BitmapContainer extends Container {
+
+        private final long[] words;
+        private int cardinality;
+
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        static BitmapContainer readFrom(ByteBuffer in, int count) {
+            long[] words = new long[BITMAP_WORDS];
+            int bits = 0;
+            for (int i = 0; i != BITMAP_WORDS; ++i) {
+                words[i] = in.getLong();
+                bits += Long.bitCount(words[i]);
+            }
+            if (bits != count) {
+                throw new IllegalArgumentException(
+                        "Bitmap cardinality does not match.");
+            }
+            return new BitmapContainer(words, count);
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Container add(char low) {
+            long bit = 1L << low;
+            if ((words[low >>> 6] & bit) == 0) {
+                words[low >>> 6] |= bit;
+                ++cardinality;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(char low) {
+            long bit = 1L << low;
+            if ((words[low >>> 6] & bit) != 0) {
+                words[low >>> 6] &= ~bit;
+                if (--cardinality == ARRAY_MAX) {
+                    return toArray();
+                }
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        int nextFrom(int low) {
+            int index = low >>> 6;
+            long word = words[index] & (-1L << low);
+            while (word == 0) {
+                if (++index == BITMAP_WORDS) {
+                    return -1;
+                }
+                word = words[index];
+            }
+            return (index << 6) + Long.numberOfTrailingZeros(word);
+        }
+
+        @Override
+        Container and(Container other) {
+            if (!(other instanceof BitmapContainer)) {
+                return other.and(this);
+            }
+            long[] otherWords = ((BitmapContainer) other).words;
+            long[] common = new long[BITMAP_WORDS];
+            int count = 0;
+            for (int i = 0; i != BITMAP_WORDS; ++i) {
+                common[i] = words[i] & otherWords[i];
+                count += Long.bitCount(common[i]);
+            }
+            BitmapContainer result = new BitmapContainer(common, count);
+            return (count <= ARRAY_MAX) ? result.toArray() : result;
+        }
+
+        @Override
+        Container andNot(Container other) {
+            long[] rest = words.clone();
+            int count = cardinality;
+            if (other instanceof BitmapContainer) {
+                long[] otherWords = ((BitmapContainer) other).words;
+                count = 0;
+                for (int i = 0; i != BITMAP_WORDS; ++i) {
+                    rest[i] &= ~otherWords[i];
+                    count += Long.bitCount(rest[i]);
+                }
+            } else {
+                ArrayContainer array = (ArrayContainer) other;
+                for (int i = 0; i != array.cardinality; ++i) {
+                    char low = array.values[i];
+                    if ((rest[low >>> 6] & (1L << low)) != 0) {
+                        rest[low >>> 6] &= ~(1L << low);
+                        --count;
+                    }
+                }
+            }
+            BitmapContainer result = new BitmapContainer(rest, count);
+            return (count <= ARRAY_MAX) ? result.toArray() : result;
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+        @Override
+        int fill(int[] out, int position, int high) {
+            for (int i = 0; i != BITMAP_WORDS; ++i) {
+                long word = words[i];
+                while (word != 0) {
+                    out[position++] = high | (i << 6)
+                            | Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+            }
+            return position;
+        }
+
+        @Override
+        int serializedSize() {
+            return BITMAP_WORDS * 8;
+        }
+
+        @Override
+        void writeTo(ByteBuffer out) {
+            for (long word : words) {
+                out.putLong(word);
+            }
+        }
+
+        private ArrayContainer toArray() {
+            char[] values = new char[cardinality];
+            int count = 0;
+            for (int i = 0; i != BITMAP_WORDS; ++i) {
+                long word = words[i];
+                while (word != 0) {
+                    values[count++] = (char) ((i << 6)
+                            + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, count);
+        }
+    }
+}
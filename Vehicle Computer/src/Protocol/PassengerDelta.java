@@ -0,0 +1,149 @@
+package Protocol;
+
+import ModelClasses.PassengerList;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+
+/**
+ * Change in the passengers of a vehicle since its last successful ticket
+ * request: who boarded and who alighted. A vehicle that already has the
+ * tickets of its other passengers sends this instead of the whole passenger
+ * list, and is replied the tickets of the boarded passengers only.
+ * <p>
+ * A frame has the layout
+ * <pre>
+ *   56 01 09      <code>WireCodec</code> header, of TYPE_PASSENGER_DELTA
+ *   xx xx         zone of the vehicle
+ *   ...           the boarded passengers, as a serialized PassengerBitmap
+ *   ...           the alighted passengers, as a serialized PassengerBitmap
+ * </pre>
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 16, 2014
+ * Contributors:
+ */
+public final class PassengerDelta {
+
+    private final int zone;
+    private final PassengerBitmap boarded;
+    private final PassengerBitmap alighted;
+
+
+    /**
+     * Constructor.
+     * <p>
+     * @param zone     the zone of the vehicle.
+     * @param boarded  passengers on-board now, but not at the last request.
+     * @param alighted passengers on-board at the last request, but not now.
+     */
+    public PassengerDelta(int zone, PassengerBitmap boarded,
+                          PassengerBitmap alighted) {
+        this.zone = zone;
+        this.boarded = boarded;
+        this.alighted = alighted;
+    }
+
+    /**
+     * Get the delta between the passengers of the last request and now.
+     * <p>
+     * @param zone     the zone of the vehicle.
+     * @param previous passengers on-board at the last request.
+     * @param current  passengers on-board now.
+     * <p>
+     * @return the delta.
+     */
+    public static PassengerDelta between(int zone, PassengerBitmap previous,
+                                         PassengerBitmap current) {
+        return new PassengerDelta(zone, current.andNot(previous),
+                                  previous.andNot(current));
+    }
+
+    public int getZone() {
+        return zone;
+    }
+
+    public PassengerBitmap getBoarded() {
+        return boarded;
+    }
+
+    public PassengerBitmap getAlighted() {
+        return alighted;
+    }
+
+    /**
+     * Get the boarded passengers as a <code>PassengerList</code> in the zone
+     * of the delta, e.g. to request their tickets.
+     * <p>
+     * @return the boarded passengers, in ascending order.
+     */
+    public PassengerList getBoardedList() {
+        int[] customers = boarded.toArray();
+        ArrayList<Integer> list = new ArrayList<>(customers.length);
+        for (int customer : customers) {
+            list.add(customer);
+        }
+        PassengerList passengers = new PassengerList(zone);
+        passengers.setAllPassengers(list);
+        return passengers;
+    }
+
+    /**
+     * Test if no passenger boarded or alighted.
+     * <p>
+     * @return true if the delta is empty; false otherwise.
+     */
+    public boolean isEmpty() {
+        return boarded.isEmpty() && alighted.isEmpty();
+    }
+
+    /**
+     * Get the size of the encoded frame.
+     * <p>
+     * @return the size in bytes.
+     */
+    public int frameSize() {
+        return WireCodec.HEADER_SIZE + 2 + boarded.serializedSize()
+                + alighted.serializedSize();
+    }
+
+    /**
+     * Encode the delta at the position of the buffer.
+     * <p>
+     * @param out buffer with at least <code>frameSize()</code> bytes
+     *            remaining.
+     */
+    public void encode(ByteBuffer out) {
+        WireCodec.putHeader(out, WireCodec.TYPE_PASSENGER_DELTA);
+        out.putShort((short) zone);
+        boarded.writeTo(out);
+        alighted.writeTo(out);
+    }
+
+    /**
+     * Decode a delta frame.
+     * <p>
+     * @param in the frame, ready for reading.
+     * <p>
+     * @return the delta.
+     * <p>
+     * @throws IllegalArgumentException if the frame is not a valid delta.
+     */
+    public static PassengerDelta decode(ByteBuffer in) throws
+            IllegalArgumentException {
+        if (WireCodec.typeOf(in) != WireCodec.TYPE_PASSENGER_DELTA) {
+            throw new IllegalArgumentException("Not a passenger delta frame.");
+        }
+        in.position(in.position() + WireCodec.HEADER_SIZE);
+        int zone;
+        try {
+            zone = in.getShort();
+        } catch (BufferUnderflowException ex) {
+            throw new IllegalArgumentException("Frame is truncated.");
+        }
+        PassengerBitmap boarded = PassengerBitmap.readFrom(in);
+        PassengerBitmap alighted = PassengerBitmap.readFrom(in);
+        return new PassengerDelta(zone, boarded, alighted);
+    }
+
+}
@@ -0,0 +1,76 @@
+package Protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Pre-encoded ping, sent in every round of a ping session without encoding
+ * it again. A binary ping is a <code>WireCodec.TYPE_PING</code> frame, of
+ * which only the round is rewritten before each send; a legacy ping is the
+ * serialized string "ping", encoded once and sent as is.
+ * <p>
+ * The frame is held in one direct buffer, so sending it through a
+ * <code>DatagramChannel</code> neither allocates nor copies. A
+ * <code>PingFrame</code> is not thread-safe; it belongs to the sender.
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 16, 2014
+ * Contributors:
+ */
+public final class PingFrame {
+
+    private final boolean binary;
+    private final ByteBuffer frame;
+
+
+    /**
+     * Constructor.
+     * <p>
+     * @param binary true for a binary ping carrying its round; false for the
+     *               legacy serialized ping.
+     * <p>
+     * @throws IOException if the legacy ping could not be serialized.
+     */
+    public PingFrame(boolean binary) throws IOException {
+        this.binary = binary;
+        if (binary) {
+            frame = ByteBuffer.allocateDirect(WireCodec.PING_FRAME_SIZE);
+            WireCodec.encodePing(frame, 0);
+        } else {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+            oos.writeObject("ping");
+            oos.flush();
+            frame = ByteBuffer.allocateDirect(bos.size());
+            frame.put(bos.toByteArray());
+        }
+    }
+
+    /**
+     * Get the ping of a round, ready to be sent. The buffer is the same on
+     * every call, and is only valid until the next.
+     * <p>
+     * @param round the ping round; ignored by a legacy ping.
+     * <p>
+     * @return the frame, from its start to its end.
+     */
+    public ByteBuffer forRound(int round) {
+        if (binary) {
+            frame.putInt(WireCodec.HEADER_SIZE, round & Integer.MAX_VALUE);
+        }
+        frame.clear();
+        return frame;
+    }
+
+    /**
+     * Test if the ping is a binary frame.
+     * <p>
+     * @return true if binary; false if the legacy serialized ping.
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+}
@@ -0,0 +1,388 @@
+package Protocol;
+
+import ModelClasses.PassengerList;
+import ModelClasses.Ticket;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+
+/**
+ * Versioned, fixed-layout binary encoding of the datagrams exchanged between
+ * a <code>VehicleComputer</code> and the PDAs on-board, replacing the
+ * serialized <code>String</code> and <code>Ticket</code> objects. Every frame
+ * starts with the same header
+ * <pre>
+ *   56            MAGIC, never the 0xAC that starts a serialized object
+ *   01            VERSION
+ *   xx            type of the frame
+ * </pre>
+ * so a receiver can tell a binary frame from a legacy serialized one by its
+ * first byte, and keep accepting both during the migration. The bodies are
+ * <pre>
+ *   TYPE_PING            round (int)
+ *   TYPE_PONG            customer number (int), round of the ping
+ *                        answered (int)
+ *   TYPE_ACK             -
+ *   TYPE_TICKET_REQUEST  customer number (int)
+ *   TYPE_TICKET          number, customer number, price (int),
+ *                        start zone, zone count (short),
+ *                        timestamp (6 bytes: year - 2014, month, day,
+ *                        hour, minute, second)
+ *   TYPE_NO_TICKET       -
+ *   TYPE_PASSENGERS      zone (short), serialized PassengerBitmap
+ * </pre>
+ * in network byte order. <code>TYPE_ACK_FRAME</code> is described in
+ * <code>AckFrame</code>, <code>TYPE_PASSENGER_DELTA</code> in
+ * <code>PassengerDelta</code>, and <code>TYPE_CHUNK</code> in
+ * <code>ChunkFrame</code>. <code>TYPE_PASSENGERS</code> and
+ * <code>TYPE_PASSENGER_DELTA</code> are the payloads of ticket list requests
+ * on the uplink to the <code>UDPTrafficManager</code>, and either, as well as
+ * the replied ticket list, may be split into <code>TYPE_CHUNK</code> frames.
+ * <p>
+ * Frames are told apart by their type and version only, never by their
+ * length. If a layout changes, <code>VERSION</code> is bumped, and
+ * <code>typeOf</code> rejects the frames of any other version.
+ * <p>
+ * All methods work on the position of the given buffer and advance it, like
+ * the relative <code>ByteBuffer</code> operations, except for
+ * <code>typeOf</code>, which only peeks.
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 14, 2014
+ * Contributors:
+ */
+public final class WireCodec {
+
+    public static final byte MAGIC = 0x56;
+    public static final byte VERSION = 1;
+
+    public static final byte TYPE_ACK_FRAME = 1;
+    public static final byte TYPE_PING = 2;
+    public static final byte TYPE_PONG = 3;
+    public static final byte TYPE_ACK = 4;
+    public static final byte TYPE_TICKET_REQUEST = 5;
+    public static final byte TYPE_TICKET = 6;
+    public static final byte TYPE_NO_TICKET = 7;
+    public static final byte TYPE_PASSENGERS = 8;
+    public static final byte TYPE_PASSENGER_DELTA = 9;
+    public static final byte TYPE_CHUNK = 10;
+
+    public static final int HEADER_SIZE = 3;
+    public static final int PING_FRAME_SIZE = HEADER_SIZE + 4;
+    /**Size of a ticket request*/
+    public static final int CUSTOMER_FRAME_SIZE = HEADER_SIZE + 4;
+    public static final int PONG_FRAME_SIZE = CUSTOMER_FRAME_SIZE + 4;
+    public static final int TICKET_FRAME_SIZE = HEADER_SIZE + 22;
+
+    private static final int BASE_YEAR = 2014;
+
+
+    /**
+     * Not to be instantiated.
+     */
+    private WireCodec() {
+    }
+
+    /**
+     * Get the type of a frame without consuming it.
+     * <p>
+     * @param in the received datagram, ready for reading.
+     * <p>
+     * @return the type of the frame, or -1 if it is not a binary frame of this
+     *         version, e.g. a legacy serialized object.
+     */
+    public static int typeOf(ByteBuffer in) {
+        int start = in.position();
+        if (in.remaining() < HEADER_SIZE || in.get(start) != MAGIC
+                || in.get(start + 1) != VERSION) {
+            return -1;
+        }
+        return in.get(start + 2);
+    }
+
+    /**
+     * Get the type of a frame held in an array.
+     * <p>
+     * @param data   datagram buffer.
+     * @param offset offset of the datagram in the buffer.
+     * @param length length of the datagram.
+     * <p>
+     * @return the type of the frame, or -1 if it is not a binary frame of this
+     *         version.
+     */
+    public static int typeOf(byte[] data, int offset, int length) {
+        return typeOf(ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * Write the header of a frame.
+     * <p>
+     * @param out  buffer to write to.
+     * @param type type of the frame.
+     */
+    public static void putHeader(ByteBuffer out, byte type) {
+        out.put(MAGIC).put(VERSION).put(type);
+    }
+
+    /**
+     * Encode a frame without a body, i.e. a ping, ack or "no ticket" reply.
+     * <p>
+     * @param type type of the frame.
+     * <p>
+     * @return the encoded frame.
+     */
+    public static byte[] encodeEmpty(byte type) {
+        return new byte[]{MAGIC, VERSION, type};
+    }
+
+    /**
+     * Encode a ping of the given round.
+     * <p>
+     * @param out   buffer to write to, with at least
+     *              <code>PING_FRAME_SIZE</code> bytes remaining.
+     * @param round the ping round, i.e. the epoch its pongs are recorded in;
+     *              sent modulo 2^31.
+     */
+    public static void encodePing(ByteBuffer out, int round) {
+        putHeader(out, TYPE_PING);
+        out.putInt(round & Integer.MAX_VALUE);
+    }
+
+    /**
+     * Decode the round of a ping.
+     * <p>
+     * @param in the frame, ready for reading.
+     * <p>
+     * @return the round, or -1 if the frame is too short.
+     */
+    public static int decodePingRound(ByteBuffer in) {
+        if (in.remaining() < PING_FRAME_SIZE) {
+            return -1;
+        }
+        in.position(in.position() + HEADER_SIZE);
+        return in.getInt() & Integer.MAX_VALUE;
+    }
+
+    /**
+     * Encode a frame starting with a customer number, i.e. a ticket request,
+     * or the start of a pong, which <code>encodePong</code> completes.
+     * <p>
+     * @param out      buffer to write to, with at least
+     *                 <code>CUSTOMER_FRAME_SIZE</code> bytes remaining.
+     * @param type     <code>TYPE_TICKET_REQUEST</code>, or
+     *                 <code>TYPE_PONG</code> from <code>encodePong</code>.
+     * @param customer the customer number.
+     */
+    public static void encodeCustomer(ByteBuffer out, byte type, int customer) {
+        putHeader(out, type);
+        out.putInt(customer);
+    }
+
+    /**
+     * Decode the customer number of a pong or a ticket request.
+     * <p>
+     * @param in the frame, ready for reading.
+     * <p>
+     * @return the customer number, or -1 if the frame is too short or the
+     *         number is not positive.
+     */
+    public static int decodeCustomer(ByteBuffer in) {
+        if (in.remaining() < CUSTOMER_FRAME_SIZE) {
+            return -1;
+        }
+        in.position(in.position() + HEADER_SIZE);
+        int customer = in.getInt();
+        return (customer > 0) ? customer : -1;
+    }
+
+    /**
+     * Encode a pong answering the ping of the given round.
+     * <p>
+     * @param out      buffer to write to, with at least
+     *                 <code>PONG_FRAME_SIZE</code> bytes remaining.
+     * @param customer the customer number.
+     * @param round    the round decoded from the ping.
+     */
+    public static void encodePong(ByteBuffer out, int customer, int round) {
+        encodeCustomer(out, TYPE_PONG, customer);
+        out.putInt(round & Integer.MAX_VALUE);
+    }
+
+    /**
+     * Decode the round of the ping a pong answers.
+     * <p>
+     * @param in the frame, ready for reading.
+     * <p>
+     * @return the round, or -1 if the frame is too short.
+     */
+    public static int decodePongRound(ByteBuffer in) {
+        if (in.remaining() < PONG_FRAME_SIZE) {
+            return -1;
+        }
+        in.position(in.position() + CUSTOMER_FRAME_SIZE);
+        return in.getInt() & Integer.MAX_VALUE;
+    }
+
+    /**
+     * Encode a ticket reply, or a "no ticket" reply if there is no ticket.
+     * <p>
+     * @param out    buffer to write to, with at least
+     *               <code>TICKET_FRAME_SIZE</code> bytes remaining.
+     * @param ticket the ticket, or NULL.
+     */
+    public static void encodeTicket(ByteBuffer out, Ticket ticket) {
+        if (ticket == null) {
+            putHeader(out, TYPE_NO_TICKET);
+            return;
+        }
+        encodeTicket(out, ticket.getNumber(), ticket.getCustomerNumber(),
+                     ticket.getPrice(), ticket.getStartZone(),
+                     ticket.getZoneCount(), ticket.getTimestamp());
+    }
+
+    /**
+     * Encode a ticket reply from the fields of a ticket, for tickets that are
+     * not held as <code>Ticket</code> objects.
+     * <p>
+     * @param out       buffer to write to, with at least
+     *                  <code>TICKET_FRAME_SIZE</code> bytes remaining.
+     * @param number    the ticket number.
+     * @param customer  the customer number.
+     * @param price     the price.
+     * @param startZone the start zone.
+     * @param zoneCount the number of zones.
+     * @param timestamp the timestamp, as "yyyy-MM-dd HH:mm:ss".
+     */
+    public static void encodeTicket(ByteBuffer out, int number, int customer,
+                                    int price, int startZone, int zoneCount,
+                                    CharSequence timestamp) {
+        putHeader(out, TYPE_TICKET);
+        out.putInt(number);
+        out.putInt(customer);
+        out.putInt(price);
+        out.putShort((short) startZone);
+        out.putShort((short) zoneCount);
+
+        /*"yyyy-MM-dd HH:mm:ss"; every field is two digits after the year*/
+        int year = 0;
+        for (int i = 0; i != 4; ++i) {
+            year = year * 10 + timestamp.charAt(i) - '0';
+        }
+        out.put((byte) (year - BASE_YEAR));
+        for (int i = 5; i < 19; i += 3) {
+            out.put((byte) ((timestamp.charAt(i) - '0') * 10
+                    + timestamp.charAt(i + 1) - '0'));
+        }
+    }
+
+    /**
+     * Decode a ticket reply.
+     * <p>
+     * @param in the frame, ready for reading.
+     * <p>
+     * @return the ticket, or NULL if the reply was "no ticket".
+     * <p>
+     * @throws IllegalArgumentException if the frame is not a valid ticket
+     *                                  reply.
+     */
+    public static Ticket decodeTicket(ByteBuffer in) throws
+            IllegalArgumentException {
+        int type = typeOf(in);
+        if (type == TYPE_NO_TICKET) {
+            in.position(in.position() + HEADER_SIZE);
+            return null;
+        }
+        if (type != TYPE_TICKET || in.remaining() < TICKET_FRAME_SIZE) {
+            throw new IllegalArgumentException("Not a ticket frame.");
+        }
+        in.position(in.position() + HEADER_SIZE);
+        int number = in.getInt();
+        int customer = in.getInt();
+        int price = in.getInt();
+        int startZone = in.getShort();
+        int zoneCount = in.getShort();
+
+        char[] time = "0000-00-00 00:00:00".toCharArray();
+        putDigits(time, 0, BASE_YEAR + in.get(), 4);
+        for (int i = 5; i < 19; i += 3) {
+            putDigits(time, i, in.get(), 2);
+        }
+
+        Ticket ticket = new Ticket();
+        ticket.createTicket(number, new String(time), price, startZone,
+                            zoneCount, customer);
+        return ticket;
+    }
+
+    /**
+     * Get the size of a passenger list frame.
+     * <p>
+     * @param passengers the passengers of the frame.
+     * <p>
+     * @return the size in bytes.
+     */
+    public static int passengersFrameSize(PassengerBitmap passengers) {
+        return HEADER_SIZE + 2 + passengers.serializedSize();
+    }
+
+    /**
+     * Encode a passenger list as the request for its tickets.
+     * <p>
+     * @param out        buffer to write to, with at least
+     *                   <code>passengersFrameSize(passengers)</code> bytes
+     *                   remaining.
+     * @param zone       the zone of the passengers.
+     * @param passengers customer numbers of the passengers.
+     */
+    public static void encodePassengers(ByteBuffer out, int zone,
+                                        PassengerBitmap passengers) {
+        putHeader(out, TYPE_PASSENGERS);
+        out.putShort((short) zone);
+        passengers.writeTo(out);
+    }
+
+    /**
+     * Decode a passenger list frame.
+     * <p>
+     * @param in the frame, ready for reading.
+     * <p>
+     * @return the passengers as a <code>PassengerList</code>, in ascending
+     *         order of their customer numbers.
+     * <p>
+     * @throws IllegalArgumentException if the frame is not a valid passenger
+     *                                  list.
+     */
+    public static PassengerList decodePassengers(ByteBuffer in) throws
+            IllegalArgumentException {
+        if (typeOf(in) != TYPE_PASSENGERS) {
+            throw new IllegalArgumentException("Not a passenger list frame.");
+        }
+        in.position(in.position() + HEADER_SIZE);
+        int zone;
+        try {
+            zone = in.getShort();
+        } catch (BufferUnderflowException ex) {
+            throw new IllegalArgumentException("Frame is truncated.");
+        }
+        int[] customers = PassengerBitmap.readFrom(in).toArray();
+        ArrayList<Integer> list = new ArrayList<>(customers.length);
+        for (int customer : customers) {
+            list.add(customer);
+        }
+        PassengerList passengers = new PassengerList(zone);
+        passengers.setAllPassengers(list);
+        return passengers;
+    }
+
+    /**
+     * Write the last <code>count</code> decimal digits of a value into a
+     * character array.
+     */
+    private static void putDigits(char[] dst, int offset, int value, int count) {
+        for (int i = offset + count - 1; i >= offset; --i) {
+            dst[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+}
@@ -0,0 +1,261 @@
+package VehicleServer;
+
+import ModelClasses.PassengerList;
+import Protocol.PassengerBitmap;
+import java.io.ObjectStreamException;
+import java.util.ArrayList;
+
+
+/**
+ * <code>PassengerList</code> that keeps its customer numbers in a
+ * <code>PassengerBitmap</code>. Intersecting two such lists in
+ * <code>getDuplicatePassengers</code> combines their bitmaps a word at a
+ * time, which is what <code>VehicleComputer.filterPassengers()</code> does
+ * every ping round, and the bitmap is sent as it is in a ticket list request,
+ * see <code>Protocol.WireCodec.TYPE_PASSENGERS</code>.
+ * <p>
+ * Unlike the base class the list holds every customer once. The zone is kept
+ * by the base class. The passengers are returned in ascending order.
+ * <p>
+ * On serialization the list is replaced by a plain <code>PassengerList</code>
+ * with the same zone and passengers, so the backend, the backup file and
+ * older vehicles read it exactly as before.
+ * <p>
+ * Copying with the copy constructor of the base class,
+ * <code>new PassengerList(list)</code>, is not supported: it copies the
+ * passengers of the base class, which this list leaves empty, and so
+ * returns an empty list. Copy with <code>BitmapPassengerList(other)</code>,
+ * or into a plain list with <code>setAllPassengers(getAllPassengers())</code>,
+ * as <code>writeReplace</code> does.
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 16, 2014
+ * Contributors:
+ */
+public class BitmapPassengerList extends PassengerList {
+
+    private static final long serialVersionUID = 1L;
+
+    private PassengerBitmap passengers;
+
+
+    /**
+     * Constructor for an empty list.
+     * <p>
+     * @param zone the zone of the passengers.
+     */
+    public BitmapPassengerList(int zone) {
+        this(zone, new PassengerBitmap());
+    }
+
+    /**
+     * Constructor taking over a bitmap of passengers.
+     * <p>
+     * @param zone       the zone of the passengers.
+     * @param passengers the bitmap; not copied.
+     */
+    private BitmapPassengerList(int zone, PassengerBitmap passengers) {
+        super(zone);
+        this.passengers = passengers;
+    }
+
+    /**
+     * Constructor for a list with the given passengers.
+     * <p>
+     * @param zone      the zone of the passengers.
+     * @param customers customer numbers of the passengers, in any order; all
+     *                  positive.
+     * <p>
+     * @throws IllegalArgumentException if a customer number is not positive.
+     */
+    public BitmapPassengerList(int zone, int[] customers) throws
+            IllegalArgumentException {
+        this(zone, PassengerBitmap.of(customers));
+    }
+
+    /**
+     * Copy constructor, taking the zone and passengers of any
+     * <code>PassengerList</code>.
+     * <p>
+     * @param other the list to copy.
+     */
+    public BitmapPassengerList(PassengerList other) {
+        this(other.getZone(), (other instanceof BitmapPassengerList)
+                ? ((BitmapPassengerList) other).toArray()
+                : toArray(other.getAllPassengers()));
+    }
+
+    /**
+     * Get the passengers as a new <code>ArrayList</code>, in ascending order.
+     * Changing the returned list does not change this list.
+     * <p>
+     * @return the customer numbers.
+     */
+    @Override
+    public ArrayList<Integer> getAllPassengers() {
+        ArrayList<Integer> all = new ArrayList<>(passengers.cardinality());
+        for (int customer : passengers.toArray()) {
+            all.add(customer);
+        }
+        return all;
+    }
+
+    /**
+     * Get the passengers as an array, in ascending order.
+     * <p>
+     * @return the customer numbers.
+     */
+    public int[] toArray() {
+        return passengers.toArray();
+    }
+
+    /**
+     * Get the bitmap backing the list, e.g. to encode it. Changing the bitmap
+     * changes the list.
+     * <p>
+     * @return the bitmap.
+     */
+    public PassengerBitmap getBitmap() {
+        return passengers;
+    }
+
+    @Override
+    public int size() {
+        return passengers.cardinality();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return passengers.isEmpty();
+    }
+
+    /**
+     * Replace all passengers of the list.
+     * <p>
+     * @param newPassengers the customer numbers; all positive.
+     * <p>
+     * @throws IllegalArgumentException if the list is NULL or holds a number
+     *                                  that is not positive.
+     */
+    @Override
+    public void setAllPassengers(ArrayList<Integer> newPassengers) throws
+            IllegalArgumentException {
+        if (newPassengers == null) {
+            throw new IllegalArgumentException("Argument cannot be NULL.");
+        }
+        passengers = PassengerBitmap.of(toArray(newPassengers));
+    }
+
+    @Override
+    public void addSinglePassenger(Integer customer) throws
+            IllegalArgumentException {
+        passengers.add(customer);
+    }
+
+    @Override
+    public void removeSinglePassenger(Integer customer) {
+        passengers.remove(customer);
+    }
+
+    /**
+     * Add a passenger without boxing.
+     * <p>
+     * @param customer the customer number; must be positive.
+     * <p>
+     * @return true if the passenger was added; false if already in the list.
+     * <p>
+     * @throws IllegalArgumentException if the number is not positive.
+     */
+    public boolean addPassenger(int customer) throws IllegalArgumentException {
+        return passengers.add(customer);
+    }
+
+    /**
+     * Remove a passenger without boxing.
+     * <p>
+     * @param customer the customer number.
+     * <p>
+     * @return true if the passenger was removed; false if not in the list.
+     */
+    public boolean removePassenger(int customer) {
+        return passengers.remove(customer);
+    }
+
+    /**
+     * Test if a passenger is in the list.
+     * <p>
+     * @param customer the customer number.
+     * <p>
+     * @return true if the passenger is in the list; false otherwise.
+     */
+    public boolean contains(int customer) {
+        return passengers.contains(customer);
+    }
+
+    /**
+     * Get the passengers that are in both this and another list, in the zone
+     * of this list. Another <code>BitmapPassengerList</code> is intersected
+     * directly; any other list is first copied into a bitmap.
+     * <p>
+     * @param other the list to compare with.
+     * <p>
+     * @return a new <code>BitmapPassengerList</code> with the common
+     *         passengers.
+     * <p>
+     * @throws IllegalArgumentException if the other list is NULL.
+     */
+    @Override
+    public PassengerList getDuplicatePassengers(PassengerList other) throws
+            IllegalArgumentException {
+        if (other == null) {
+            throw new IllegalArgumentException("Supplied argument was NULL.");
+        }
+        PassengerBitmap otherBitmap = (other instanceof BitmapPassengerList)
+                ? ((BitmapPassengerList) other).passengers
+                : new BitmapPassengerList(other).passengers;
+        return new BitmapPassengerList(getZone(),
+                                       passengers.and(otherBitmap));
+    }
+
+    @Override
+    public int hashCode() {
+        return passengers.hashCode();
+    }
+
+    /**
+     * Test if another list is a <code>BitmapPassengerList</code> with the
+     * same passengers. Like the base class, the zone is not compared.
+     * <p>
+     * @param obj the object to compare with.
+     * <p>
+     * @return true if the lists are equal; false otherwise.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        return passengers.equals(((BitmapPassengerList) obj).passengers);
+    }
+
+    /**
+     * Serialize the list as a plain <code>PassengerList</code>.
+     * <p>
+     * @return the list to serialize instead of this.
+     * <p>
+     * @throws ObjectStreamException never.
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        PassengerList plain = new PassengerList(getZone());
+        plain.setAllPassengers(getAllPassengers());
+        return plain;
+    }
+
+    private static int[] toArray(ArrayList<Integer> customers) {
+        int[] array = new int[customers.size()];
+        for (int i = 0; i != array.length; ++i) {
+            array[i] = customers.get(i);
+        }
+        return array;
+    }
+
+}
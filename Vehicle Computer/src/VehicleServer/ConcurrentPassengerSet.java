@@ -0,0 +1,180 @@
+package VehicleServer;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Concurrent set of customer numbers that pong handler threads record the
+ * passengers of a ping round into. The set is split in stripes, each an
+ * <code>IntHashSet</code> guarded by its own lock, and a customer number
+ * always goes to the stripe picked by its hash. Threads only wait on each
+ * other when their customers fall in the same stripe, instead of on one lock
+ * for the whole vehicle. Whether that pays off depends on the number of
+ * cores: on a single core, <code>PassengerSetContentionTest</code> measured
+ * 16 stripes slower than one synchronized set, at every number of writers.
+ * Until striping is measured to pay off on the vehicle, the set has a single
+ * stripe by default, see <code>VehicleConfig.PASSENGER_STRIPES</code>, and
+ * works as one set under one lock.
+ * <p>
+ * <code>snapshot()</code> and <code>drain()</code> hold every stripe lock at
+ * once, so they see the set as it was at a single point in time.
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 10, 2014
+ * Contributors:
+ */
+public class ConcurrentPassengerSet {
+
+    private final IntHashSet[] stripes;
+    private final ReentrantLock[] locks;
+    private final int mask;
+    /**Shift that leaves the bits of the stripe in a multiplied hash*/
+    private final int shift;
+
+
+    /**
+     * Constructor.
+     * <p>
+     * @param stripeCount  number of stripes; rounded up to a power of two.
+     * @param expectedSize number of customers the whole set should hold
+     *                     before any stripe has to grow.
+     */
+    public ConcurrentPassengerSet(int stripeCount, int expectedSize) {
+        int count = 1;
+        while (count < stripeCount) {
+            count <<= 1;
+        }
+        stripes = new IntHashSet[count];
+        locks = new ReentrantLock[count];
+        for (int i = 0; i != count; ++i) {
+            stripes[i] = new IntHashSet(expectedSize / count + 1);
+            locks[i] = new ReentrantLock();
+        }
+        mask = count - 1;
+        shift = 32 - Integer.numberOfTrailingZeros(count);
+    }
+
+    /**
+     * Add a customer to the set. Only the stripe of the customer is locked.
+     * <p>
+     * @param customerNumber the customer; must be positive.
+     * <p>
+     * @return true if the customer was added, or false if already present.
+     * <p>
+     * @throws IllegalArgumentException if the customer number is not positive.
+     */
+    public boolean add(int customerNumber) throws IllegalArgumentException {
+        int stripe = stripeOf(customerNumber);
+        ReentrantLock lock = locks[stripe];
+        lock.lock();
+        try {
+            return stripes[stripe].add(customerNumber);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Test if a customer is in the set. Only the stripe of the customer is
+     * locked.
+     * <p>
+     * @param customerNumber the customer to look for.
+     * <p>
+     * @return true if and only if the customer is in the set.
+     */
+    public boolean contains(int customerNumber) {
+        int stripe = stripeOf(customerNumber);
+        ReentrantLock lock = locks[stripe];
+        lock.lock();
+        try {
+            return stripes[stripe].contains(customerNumber);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get all customers in the set at a single point in time.
+     * <p>
+     * @return a new array of the customers, in no particular order.
+     */
+    public int[] snapshot() {
+        return copy(false);
+    }
+
+    /**
+     * Get all customers in the set and empty it, as one atomic operation.
+     * <p>
+     * @return a new array of the customers, in no particular order.
+     */
+    public int[] drain() {
+        return copy(true);
+    }
+
+    /**
+     * Get the number of customers in the set. Stripes are read one by one, so
+     * the result is only exact if no customers are added meanwhile.
+     * <p>
+     * @return the size of the set.
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i != stripes.length; ++i) {
+            locks[i].lock();
+            try {
+                size += stripes[i].size();
+            } finally {
+                locks[i].unlock();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Get the stripe a customer belongs to: the top bits of the customer
+     * number multiplied by the golden ratio, as many as the stripes need. The
+     * table of each stripe indexes by the low bits of
+     * <code>IntHashSet.hash</code>, so the two do not pick the same bits.
+     * <p>
+     * @param customerNumber the customer.
+     * <p>
+     * @return index of the stripe.
+     */
+    private int stripeOf(int customerNumber) {
+        /*With a single stripe the shift is 32, which Java takes as 0*/
+        return ((customerNumber * 0x9E3779B9) >>> shift) & mask;
+    }
+
+    /**
+     * Lock all stripes in order, copy their content and optionally clear
+     * them, and unlock them again.
+     * <p>
+     * @param clear true if the stripes should be emptied.
+     * <p>
+     * @return the customers of all stripes.
+     */
+    private int[] copy(boolean clear) {
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+        try {
+            int size = 0;
+            for (IntHashSet stripe : stripes) {
+                size += stripe.size();
+            }
+            int[] customers = new int[size];
+            int offset = 0;
+            for (IntHashSet stripe : stripes) {
+                offset = stripe.copyInto(customers, offset);
+                if (clear) {
+                    stripe.clear();
+                }
+            }
+            return customers;
+        } finally {
+            for (int i = locks.length - 1; i >= 0; --i) {
+                locks[i].unlock();
+            }
+        }
+    }
+
+}
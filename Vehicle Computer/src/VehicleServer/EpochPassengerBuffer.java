@@ -0,0 +1,157 @@
+package VehicleServer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Double-buffered set of the passengers pinged in the current round. Pongs of
+ * epoch <code>e</code> are recorded in <code>buffers[e &amp; 1]</code>, and
+ * closing the round flips the epoch, so pongs arriving while the previous
+ * round is drained already go to the other buffer.
+ * <p>
+ * A writer announces itself on the buffer of the epoch it read, and then
+ * reads the epoch again; if the epoch has moved on, it withdraws and retries
+ * on the new buffer. <code>flip()</code> changes the epoch first, and only
+ * drains the previous buffer once no writer is announced on it. Since both
+ * sides write before they read, either the writer sees the new epoch, or
+ * the flip sees the writer and waits for it, so no pong is lost or counted in
+ * the wrong round. Writers never wait for the flip; only the flip waits, for
+ * the few writers already inside the buffer.
+ * <p>
+ * A pong tagged with the round of its ping is recorded with
+ * <code>addInRound</code> instead, which only records it if that round is
+ * still the current epoch, and otherwise reports it as stale, so a reply
+ * handled late, after a backlog in the pong executor, is never counted in
+ * the round after the one it answers.
+ * <p>
+ * Each buffer is a <code>ConcurrentPassengerSet</code>, so writers within a
+ * round only contend on the stripe of their customer.
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 16, 2014
+ * Contributors:
+ */
+public class EpochPassengerBuffer {
+
+    /**Result of <code>addInRound</code>: the customer was added*/
+    public static final int ADDED = 1;
+    /**Result of <code>addInRound</code>: already recorded in the round*/
+    public static final int PRESENT = 0;
+    /**Result of <code>addInRound</code>: the round is no longer current*/
+    public static final int STALE = -1;
+
+    private final ConcurrentPassengerSet[] buffers;
+    private final AtomicInteger[] writers;
+    private volatile int epoch = 0;
+
+
+    /**
+     * Constructor.
+     * <p>
+     * @param stripeCount  number of stripes of each buffer.
+     * @param expectedSize number of customers a round should hold before any
+     *                     stripe has to grow.
+     */
+    public EpochPassengerBuffer(int stripeCount, int expectedSize) {
+        buffers = new ConcurrentPassengerSet[]{
+            new ConcurrentPassengerSet(stripeCount, expectedSize),
+            new ConcurrentPassengerSet(stripeCount, expectedSize)};
+        writers = new AtomicInteger[]{new AtomicInteger(),
+                                      new AtomicInteger()};
+    }
+
+    /**
+     * Record a customer in the current round.
+     * <p>
+     * @param customerNumber the customer; must be positive.
+     * <p>
+     * @return true if the customer was added, or false if already recorded in
+     *         the round.
+     * <p>
+     * @throws IllegalArgumentException if the customer number is not positive.
+     */
+    public boolean add(int customerNumber) throws IllegalArgumentException {
+        while (true) {
+            int current = epoch;
+            AtomicInteger announced = writers[current & 1];
+            announced.incrementAndGet();
+            try {
+                if (epoch == current) {
+                    return buffers[current & 1].add(customerNumber);
+                }
+            } finally {
+                announced.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Record a customer in the given round, if it is still the current one.
+     * Like <code>add</code>, this takes no lock; a writer that races with the
+     * flip that closes the round does not retry in the next, but reports the
+     * pong as stale.
+     * <p>
+     * @param customerNumber the customer; must be positive.
+     * @param round          the round of the ping the customer answered, as
+     *                       sent in the ping, i.e. the epoch modulo 2^31.
+     * <p>
+     * @return <code>ADDED</code>, <code>PRESENT</code> if already recorded in
+     *         the round, or <code>STALE</code> if the round has been closed.
+     * <p>
+     * @throws IllegalArgumentException if the customer number is not positive.
+     */
+    public int addInRound(int customerNumber, int round) throws
+            IllegalArgumentException {
+        int current = epoch;
+        if ((current & Integer.MAX_VALUE) != round) {
+            return STALE;
+        }
+        AtomicInteger announced = writers[current & 1];
+        announced.incrementAndGet();
+        try {
+            if (epoch != current) {
+                return STALE;
+            }
+            return buffers[current & 1].add(customerNumber) ? ADDED : PRESENT;
+        } finally {
+            announced.decrementAndGet();
+        }
+    }
+
+    /**
+     * Test if a customer has been recorded in the current round.
+     * <p>
+     * @param customerNumber the customer to look for.
+     * <p>
+     * @return true if and only if the customer is in the current round.
+     */
+    public boolean contains(int customerNumber) {
+        return buffers[epoch & 1].contains(customerNumber);
+    }
+
+    /**
+     * Close the current round: start the next epoch, wait for the writers
+     * still recording in the closed round, and drain it.
+     * <p>
+     * @return the customers of the closed round, in no particular order.
+     */
+    public synchronized int[] flip() {
+        int closed = epoch;
+        epoch = closed + 1;
+        AtomicInteger announced = writers[closed & 1];
+        while (announced.get() != 0) {
+            Thread.yield();
+        }
+        return buffers[closed & 1].drain();
+    }
+
+    /**
+     * Get the current epoch, which is incremented by every
+     * <code>flip()</code>.
+     * <p>
+     * @return the epoch.
+     */
+    public int getEpoch() {
+        return epoch;
+    }
+
+}
@@ -0,0 +1,240 @@
+package VehicleServer;
+
+import java.util.Arrays;
+
+
+/**
+ * Set of positive <code>int</code> values, such as customer numbers, stored
+ * without boxing in a single open-addressing array with linear probing. The
+ * value 0 marks a free cell, which is why only positive values are allowed.
+ * <p>
+ * The capacity is always a power of two, and the table doubles when it is
+ * more than half full, which keeps the expected number of probes per
+ * <code>add</code>, <code>remove</code> and <code>contains</code> below two.
+ * Removal shifts the rest of the probe run back into the freed cell, so no
+ * tombstones are left behind.
+ * <p>
+ * This class is not thread-safe.
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 10, 2014
+ * Contributors:
+ */
+public class IntHashSet {
+
+    private static final int FREE = 0;
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] table;
+    private int mask;
+    private int size = 0;
+
+
+    /**
+     * Constructor.
+     * <p>
+     * @param expectedSize number of values the set should hold before it has
+     *                     to grow.
+     */
+    public IntHashSet(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        table = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Add a value to the set.
+     * <p>
+     * @param value the value to add; must be positive.
+     * <p>
+     * @return true if the value was added, or false if it was already in the
+     *         set.
+     * <p>
+     * @throws IllegalArgumentException if the value is zero or negative.
+     */
+    public boolean add(int value) throws IllegalArgumentException {
+        if (value <= 0) {
+            throw new IllegalArgumentException(
+                    "Customer number must be greater than 0.");
+        }
+        int index = hash(value) & mask;
+        while (table[index] != FREE) {
+            if (table[index] == value) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        table[index] = value;
+        if (++size * 2 > table.length) {
+            resize(table.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * Test whether a value is in the set.
+     * <p>
+     * @param value the value to look for.
+     * <p>
+     * @return true if and only if the value is in the set.
+     */
+    public boolean contains(int value) {
+        if (value <= 0) {
+            return false;
+        }
+        int index = hash(value) & mask;
+        while (table[index] != FREE) {
+            if (table[index] == value) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Remove a value from the set.
+     * <p>
+     * @param value the value to remove.
+     * <p>
+     * @return true if the value was removed, or false if it was not in the
+     *         set.
+     */
+    public boolean remove(int value) {
+        if (value <= 0) {
+            return false;
+        }
+        int index = hash(value) & mask;
+        while (table[index] != value) {
+            if (table[index] == FREE) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+
+        /*Move later values of the run into the hole, if it is on their path*/
+        int hole = index;
+        int next = (hole + 1) & mask;
+        while (table[next] != FREE) {
+            int home = hash(table[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                table[hole] = table[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        table[hole] = FREE;
+        --size;
+        return true;
+    }
+
+    /**
+     * Get the values that are in both this and another set. Runs in time
+     * linear in the size of the smaller set.
+     * <p>
+     * @param other the set to intersect with.
+     * <p>
+     * @return a new set with the common values.
+     */
+    public IntHashSet intersect(IntHashSet other) {
+        IntHashSet smaller = (size <= other.size) ? this : other;
+        IntHashSet larger = (smaller == this) ? other : this;
+        IntHashSet common = new IntHashSet(smaller.size);
+        for (int value : smaller.table) {
+            if (value != FREE && larger.contains(value)) {
+                common.add(value);
+            }
+        }
+        return common;
+    }
+
+    /**
+     * Get the number of values in the set.
+     * <p>
+     * @return the size of the set.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Test if the set holds no values.
+     * <p>
+     * @return true if the set is empty; false otherwise.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Remove all values, keeping the current capacity.
+     */
+    public void clear() {
+        Arrays.fill(table, FREE);
+        size = 0;
+    }
+
+    /**
+     * Copy the values of the set into an array, in no particular order.
+     * <p>
+     * @param dest   array to copy the values into.
+     * @param offset index in the array of the first value.
+     * <p>
+     * @return the index after the last value copied.
+     */
+    public int copyInto(int[] dest, int offset) {
+        for (int value : table) {
+            if (value != FREE) {
+                dest[offset++] = value;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Get the values of the set as an array, in no particular order.
+     * <p>
+     * @return a new array with the values.
+     */
+    public int[] toArray() {
+        int[] values = new int[size];
+        copyInto(values, 0);
+        return values;
+    }
+
+    /**
+     * Spread the bits of a value over the whole <code>int</code>, so that
+     * consecutive customer numbers do not form long runs in the table.
+     * <p>
+     * @param value the value to hash.
+     * <p>
+     * @return the hash of the value.
+     */
+    static int hash(int value) {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Move all values into a new table.
+     * <p>
+     * @param capacity the new capacity; a power of two.
+     */
+    private void resize(int capacity) {
+        int[] old = table;
+        table = new int[capacity];
+        mask = capacity - 1;
+        for (int value : old) {
+            if (value != FREE) {
+                int index = hash(value) & mask;
+                while (table[index] != FREE) {
+                    index = (index + 1) & mask;
+                }
+                table[index] = value;
+            }
+        }
+    }
+
+}
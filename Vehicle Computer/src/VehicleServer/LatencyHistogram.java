@@ -0,0 +1,97 @@
+package VehicleServer;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Lock-free histogram of durations, with one bucket per power of two
+ * microseconds: bucket 0 holds durations below 1 us, bucket <i>n</i> those
+ * from 2^(n-1) up to 2^n us. Recording is a single atomic increment, so it
+ * can be done from every pong handler thread; percentiles are reported as
+ * the upper bound of the bucket they fall in.
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 15, 2014
+ * Contributors:
+ */
+public class LatencyHistogram {
+
+    /**Bucket 31 holds everything from about 18 minutes up*/
+    private static final int BUCKETS = 32;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+
+    /**
+     * Record a duration.
+     * <p>
+     * @param nanos the duration in nanoseconds.
+     */
+    public void record(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = (micros <= 0) ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+        counts.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+    }
+
+    /**
+     * Get the number of recorded durations.
+     * <p>
+     * @return the count.
+     */
+    public long count() {
+        long count = 0;
+        for (int i = 0; i != BUCKETS; ++i) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Get an upper bound of a percentile of the recorded durations.
+     * <p>
+     * @param percentile between 0 and 100.
+     * <p>
+     * @return the upper bound in microseconds of the bucket holding the
+     *         percentile, or 0 if nothing has been recorded.
+     */
+    public long percentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i != BUCKETS; ++i) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i != BUCKETS; ++i) {
+            seen += snapshot[i];
+            if (seen >= rank && snapshot[i] != 0) {
+                return 1L << i;
+            }
+        }
+        return 1L << (BUCKETS - 1);
+    }
+
+    /**
+     * Get the non-empty buckets as text, e.g. <code>"<=64us:12 <=128us:3"</code>.
+     * <p>
+     * @return the histogram.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i != BUCKETS; ++i) {
+            long count = counts.get(i);
+            if (count != 0) {
+                if (sb.length() != 0) {
+                    sb.append(' ');
+                }
+                sb.append("<=").append(1L << i).append("us:").append(count);
+            }
+        }
+        return (sb.length() == 0) ? "empty" : sb.toString();
+    }
+
+}
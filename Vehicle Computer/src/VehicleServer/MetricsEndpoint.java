@@ -0,0 +1,59 @@
+package VehicleServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Local text endpoint for the <code>VehicleMetrics</code>. Listens on the
+ * loopback interface only; every connection is sent the current
+ * <code>report()</code> and closed, so the metrics can be read on the
+ * vehicle box with e.g. <code>nc localhost 2226</code>.
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 15, 2014
+ * Contributors:
+ */
+public class MetricsEndpoint extends Thread {
+
+    private final ServerSocket serverSocket;
+    private final VehicleMetrics metrics;
+
+
+    /**
+     * Constructor. Binds the endpoint to the loopback interface.
+     * <p>
+     * @param port    port number to listen on.
+     * @param metrics the metrics to serve.
+     * <p>
+     * @throws IOException if the port could not be bound.
+     */
+    public MetricsEndpoint(int port, VehicleMetrics metrics) throws
+            IOException {
+        this.metrics = metrics;
+        serverSocket = new ServerSocket(port, 8,
+                                        InetAddress.getLoopbackAddress());
+        setName("MetricsEndpoint");
+        setDaemon(true);
+    }
+
+    /**
+     * Serve connections one at a time until the socket is closed.
+     */
+    @Override
+    public void run() {
+        while (!serverSocket.isClosed()) {
+            try (Socket client = serverSocket.accept()) {
+                OutputStream out = client.getOutputStream();
+                out.write(metrics.report().getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            } catch (IOException ex) {
+                VehicleLog.warn("Could not serve metrics request.");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,236 @@
+package VehicleServer;
+
+import Protocol.PassengerBitmap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+
+/**
+ * Cadence of the pings in a session of the <code>UDPPingSender</code>: how
+ * long to wait for pongs after each ping, and when the session has pinged
+ * enough.
+ * <p>
+ * The pongs of each round are counted in a histogram of their arrival time
+ * after the ping, in buckets of <code>BUCKET_MS</code>. When the round is
+ * closed, the time by which <code>SETTLE_SHARE</code> of them had arrived is
+ * taken as the time the round took to settle, and the next interval is
+ * <code>HEADROOM</code> times the settle time, smoothed over the rounds and
+ * kept within the bounds given. A quiet bus thus gets short intervals. If
+ * pongs were still arriving in the last tenth of the interval, the vehicle
+ * or the Wi-Fi is congested, and the interval is doubled instead.
+ * <p>
+ * A session ends after <code>maxRounds</code> rounds, or earlier once the
+ * passengers found on-board have stayed the same for
+ * <code>stableRounds</code> rounds in a row. A round in which a customer
+ * replied who is not found on-board, e.g. one who just boarded and has not
+ * yet replied in enough rounds of the <code>PresenceTracker</code>, is not
+ * stable, so the session does not end and request tickets without them.
+ * <p>
+ * Pongs may be recorded by any thread; every other method is called by the
+ * thread running the session.
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 16, 2014
+ * Contributors:
+ */
+public class PingCadence {
+
+    static final int BUCKET_MS = 5;
+    static final double SETTLE_SHARE = 0.99;
+    static final double HEADROOM = 2.0;
+
+    private final int minIntervalMs;
+    private final int maxIntervalMs;
+    private final int stableRounds;
+    private final int maxRounds;
+    private final AtomicIntegerArray arrivals;
+    private volatile long roundStart;
+
+    private int intervalMs;
+    private double settleMs = -1;
+    private int lastSettleMs = -1;
+    private int rounds;
+    private int stable;
+    private PassengerBitmap lastOnBoard;
+
+
+    /**
+     * Constructor. The first interval is the maximum.
+     * <p>
+     * @param minIntervalMs shortest interval between pings.
+     * @param maxIntervalMs longest interval between pings.
+     * @param stableRounds  number of rounds in a row without a change in the
+     *                      passengers on-board that ends a session early, or
+     *                      0 to never end early.
+     * @param maxRounds     number of rounds of a session at most.
+     * <p>
+     * @throws IllegalArgumentException if the bounds are not positive and in
+     *                                  order, or there are no rounds.
+     */
+    public PingCadence(int minIntervalMs, int maxIntervalMs, int stableRounds,
+                       int maxRounds) throws IllegalArgumentException {
+        if (minIntervalMs < 1 || maxIntervalMs < minIntervalMs
+                || stableRounds < 0 || maxRounds < 1) {
+            throw new IllegalArgumentException("Invalid ping cadence.");
+        }
+        this.minIntervalMs = minIntervalMs;
+        this.maxIntervalMs = maxIntervalMs;
+        this.stableRounds = stableRounds;
+        this.maxRounds = maxRounds;
+        arrivals = new AtomicIntegerArray(maxIntervalMs / BUCKET_MS + 1);
+        intervalMs = maxIntervalMs;
+    }
+
+    /**
+     * Get a cadence that always pings the given number of times, with the
+     * same interval.
+     * <p>
+     * @param intervalMs interval between pings.
+     * @param rounds     number of pings in a session.
+     * <p>
+     * @return the cadence.
+     */
+    public static PingCadence fixed(int intervalMs, int rounds) {
+        return new PingCadence(intervalMs, intervalMs, 0, rounds);
+    }
+
+    /**
+     * Start counting the rounds of a new session. The interval learned in
+     * earlier sessions is kept.
+     */
+    public void startSession() {
+        rounds = 0;
+        stable = 0;
+        lastOnBoard = null;
+    }
+
+    /**
+     * Start a round; called right before its ping is sent.
+     */
+    public void pingSent() {
+        for (int i = 0; i != arrivals.length(); ++i) {
+            arrivals.set(i, 0);
+        }
+        roundStart = System.nanoTime();
+    }
+
+    /**
+     * Record the arrival of a pong in the current round.
+     */
+    public void pongArrived() {
+        recordArrival(System.nanoTime() - roundStart);
+    }
+
+    /**
+     * Record the arrival of a pong, the given time after the ping.
+     * <p>
+     * @param elapsedNanos time from the ping to the pong.
+     */
+    void recordArrival(long elapsedNanos) {
+        long bucket = elapsedNanos / 1000000 / BUCKET_MS;
+        arrivals.incrementAndGet((int) Math.max(0, Math.min(bucket,
+                arrivals.length() - 1)));
+    }
+
+    /**
+     * Close the current round: adapt the interval to its arrivals, and
+     * compare the passengers on-board with the last round. The round is
+     * stable if they are the same, and every customer who replied in it is
+     * on-board.
+     * <p>
+     * @param onBoard the passengers found on-board after the round, or NULL
+     *                if not known.
+     * @param heard   the customer numbers that replied in the round.
+     * <p>
+     * @return true if the session should ping again; false if it is done.
+     */
+    public boolean closeRound(PassengerBitmap onBoard, int[] heard) {
+        adaptInterval();
+
+        if (onBoard != null && onBoard.equals(lastOnBoard)
+                && containsAll(onBoard, heard)) {
+            ++stable;
+        } else {
+            stable = 0;
+        }
+        lastOnBoard = onBoard;
+        ++rounds;
+        return rounds < maxRounds
+                && (stableRounds == 0 || stable < stableRounds);
+    }
+
+    private static boolean containsAll(PassengerBitmap onBoard, int[] heard) {
+        for (int customer : heard) {
+            if (!onBoard.contains(customer)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Set the next interval from the arrivals of the round. A round without
+     * pongs says nothing about the load, and leaves the interval as is.
+     */
+    private void adaptInterval() {
+        int buckets = Math.min(arrivals.length(), intervalMs / BUCKET_MS + 1);
+        int[] counts = new int[buckets];
+        int total = 0;
+        for (int i = 0; i != buckets; ++i) {
+            counts[i] = arrivals.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            lastSettleMs = -1;
+            return;
+        }
+
+        int settled = 0;
+        int bucket = 0;
+        while (settled < SETTLE_SHARE * total) {
+            settled += counts[bucket++];
+        }
+        lastSettleMs = bucket * BUCKET_MS;
+
+        int tail = 0;
+        for (int i = buckets - Math.max(1, buckets / 10); i != buckets; ++i) {
+            tail += counts[i];
+        }
+        if (tail > (1 - SETTLE_SHARE) * total) {
+            /*Still arriving as the round closed; back off*/
+            settleMs = intervalMs;
+            intervalMs = Math.min(maxIntervalMs, intervalMs * 2);
+            return;
+        }
+        settleMs = (settleMs < 0) ? lastSettleMs
+                : (settleMs + lastSettleMs) / 2;
+        intervalMs = (int) Math.max(minIntervalMs, Math.min(maxIntervalMs,
+                Math.ceil(HEADROOM * settleMs)));
+    }
+
+    /**
+     * Get the time to wait for pongs after the next ping.
+     * <p>
+     * @return the interval in milliseconds.
+     */
+    public int getIntervalMs() {
+        return intervalMs;
+    }
+
+    /**
+     * Get the time the last closed round took to settle.
+     * <p>
+     * @return the settle time in milliseconds, or -1 if it had no pongs.
+     */
+    public int getLastSettleMs() {
+        return lastSettleMs;
+    }
+
+    /**
+     * Get the number of rounds closed in the current session.
+     * <p>
+     * @return the number of rounds.
+     */
+    public int getRounds() {
+        return rounds;
+    }
+
+}
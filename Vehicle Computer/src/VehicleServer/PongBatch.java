@@ -0,0 +1,137 @@
+package VehicleServer;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+
+/**
+ * A reusable group of pong datagrams that the <code>UDPPongReceiver</code> has
+ * drained from its channel in one wakeup. Each slot is a direct
+ * <code>ByteBuffer</code> allocated once for the lifetime of the receiver, so
+ * receiving a pong does not allocate a new packet or array.
+ * <p>
+ * A batch belongs to exactly one thread at a time: the receiver while it is
+ * being filled, and the handler it is given to afterwards. The handler must
+ * call <code>recycle()</code> when it is done, which hands the batch back to
+ * the receiver's pool.
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 8, 2014
+ * Contributors:
+ */
+public class PongBatch {
+
+    private final UDPPongReceiver owner;
+    private final ByteBuffer[] datagrams;
+    private final SocketAddress[] senders;
+    private int count = 0;
+    private long dispatchedAt;
+
+
+    /**
+     * Constructor. Allocates all slots of the batch.
+     * <p>
+     * @param owner    the receiver whose pool this batch is returned to.
+     * @param capacity number of datagrams the batch can hold.
+     * @param slotSize maximum size of a single datagram, in bytes. Larger
+     *                 datagrams are truncated.
+     */
+    PongBatch(UDPPongReceiver owner, int capacity, int slotSize) {
+        this.owner = owner;
+        datagrams = new ByteBuffer[capacity];
+        senders = new SocketAddress[capacity];
+        for (int i = 0; i != capacity; ++i) {
+            datagrams[i] = ByteBuffer.allocateDirect(slotSize);
+        }
+    }
+
+    /**
+     * Get the cleared buffer that the next datagram should be received into.
+     * <p>
+     * @return the next free slot.
+     */
+    ByteBuffer nextSlot() {
+        ByteBuffer slot = datagrams[count];
+        slot.clear();
+        return slot;
+    }
+
+    /**
+     * Commit the datagram just received into <code>nextSlot()</code>. The
+     * slot must have been flipped for reading.
+     * <p>
+     * @param sender address of the PDA that sent the datagram.
+     */
+    void commit(SocketAddress sender) {
+        senders[count] = sender;
+        ++count;
+    }
+
+    /**
+     * Get the payload of a received datagram, ready for reading.
+     * <p>
+     * @param index of the datagram in the batch.
+     * <p>
+     * @return the datagram payload.
+     */
+    public ByteBuffer getDatagram(int index) {
+        return datagrams[index];
+    }
+
+    /**
+     * Get the address that a datagram was received from.
+     * <p>
+     * @param index of the datagram in the batch.
+     * <p>
+     * @return the sender address.
+     */
+    public SocketAddress getSender(int index) {
+        return senders[index];
+    }
+
+    /**
+     * Get the number of datagrams held in the batch.
+     * <p>
+     * @return the number of datagrams.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Test if the batch has no free slots left.
+     * <p>
+     * @return true if the batch is full; false otherwise.
+     */
+    boolean isFull() {
+        return count == datagrams.length;
+    }
+
+    /**
+     * Stamp the batch with the time it is handed off by the receiver.
+     */
+    void markDispatched() {
+        dispatchedAt = System.nanoTime();
+    }
+
+    /**
+     * Get the time the batch was handed off by the receiver.
+     * <p>
+     * @return the <code>System.nanoTime()</code> of the hand-off.
+     */
+    public long getDispatchedAt() {
+        return dispatchedAt;
+    }
+
+    /**
+     * Empty the batch and return it to the pool of its receiver. The batch
+     * must not be used by the caller afterwards.
+     */
+    public void recycle() {
+        for (int i = 0; i != count; ++i) {
+            senders[i] = null;
+        }
+        count = 0;
+        owner.recycle(this);
+    }
+
+}
@@ -0,0 +1,100 @@
+package VehicleServer;
+
+import Protocol.WireCodec;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Reads the customer number straight out of a pong datagram, without going
+ * through an <code>ObjectInputStream</code>. A pong is either a binary
+ * <code>WireCodec</code> frame, or, from a legacy <code>PingHandler</code>,
+ * the customer number as a serialized <code>String</code>, which always has
+ * the layout
+ * <pre>
+ *   AC ED 00 05   stream magic and version
+ *   74            TC_STRING
+ *   xx xx         length of the string, in bytes
+ *   ...           the digits, in modified UTF-8
+ * </pre>
+ * so the digits can be parsed in place. A binary pong also carries the
+ * round of the ping it answers, read by <code>round</code>; a legacy pong
+ * never does. Parsing allocates nothing, so the pong handlers create no
+ * garbage per pong while a vehicle of PDAs answers the same ping.
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 13, 2014
+ * Contributors:
+ */
+final class PongDecoder {
+
+    private static final int STREAM_HEADER = 0xACED0005;
+    private static final byte TC_STRING = 0x74;
+    private static final int DIGITS_INDEX = 7;
+    /**Number of digits of the largest int*/
+    private static final int MAX_DIGITS = 10;
+
+
+    /**
+     * Not to be instantiated.
+     */
+    private PongDecoder() {
+    }
+
+    /**
+     * Parse the customer number of a binary or legacy serialized pong. The
+     * position and limit of the buffer are not changed.
+     * <p>
+     * @param datagram the received pong, ready for reading.
+     * <p>
+     * @return the customer number, or -1 if the datagram is not a valid pong.
+     */
+    static int customerNumber(ByteBuffer datagram) {
+        int start = datagram.position();
+        if (WireCodec.typeOf(datagram) == WireCodec.TYPE_PONG) {
+            if (datagram.remaining() < WireCodec.PONG_FRAME_SIZE) {
+                return -1;
+            }
+            int customer = datagram.getInt(start + WireCodec.HEADER_SIZE);
+            return (customer > 0) ? customer : -1;
+        }
+        if (datagram.remaining() < DIGITS_INDEX + 1
+                || datagram.getInt(start) != STREAM_HEADER
+                || datagram.get(start + 4) != TC_STRING) {
+            return -1;
+        }
+        int length = datagram.getShort(start + 5) & 0xFFFF;
+        if (length == 0 || length > MAX_DIGITS
+                || datagram.remaining() < DIGITS_INDEX + length) {
+            return -1;
+        }
+
+        long customer = 0;
+        for (int i = start + DIGITS_INDEX; i != start + DIGITS_INDEX + length;
+                ++i) {
+            int digit = datagram.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            customer = customer * 10 + digit;
+        }
+        return (customer > 0 && customer <= Integer.MAX_VALUE)
+                ? (int) customer : -1;
+    }
+
+    /**
+     * Parse the round of the ping a pong answers. The position and limit of
+     * the buffer are not changed.
+     * <p>
+     * @param datagram the received pong, ready for reading.
+     * <p>
+     * @return the round, or -1 if the pong is legacy or invalid.
+     */
+    static int round(ByteBuffer datagram) {
+        if (datagram.remaining() < WireCodec.PONG_FRAME_SIZE
+                || WireCodec.typeOf(datagram) != WireCodec.TYPE_PONG) {
+            return -1;
+        }
+        return datagram.getInt(datagram.position()
+                + WireCodec.CUSTOMER_FRAME_SIZE) & Integer.MAX_VALUE;
+    }
+
+}
@@ -0,0 +1,153 @@
+package VehicleServer;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Ingress filter of the <code>UDPPongReceiver</code> that keeps a "seen" set
+ * of the customers that have ponged in the current ping round. A repeated
+ * pong of a customer in the same round is answered straight away with the
+ * pre-encoded ack and never reaches a pong handler, so it costs no
+ * deserialization and no locking.
+ * <p>
+ * The filter runs on the receiving thread only. It notices a new round by
+ * comparing the round number it last saw with the one of the
+ * <code>VehicleComputer</code>, and then empties the set. A pong tagged with
+ * an earlier round is let through without being seen, so it cannot hide a
+ * later pong of the same customer answering the current round; the handler
+ * discards it as stale.
+ * <p>
+ * A customer is seen as soon as its pong passes the filter, before it is
+ * recorded. If the pong is then shed by the <code>PongOverloadPolicy</code>,
+ * the policy calls <code>forget</code>, so the retry of the PDA is let
+ * through and recorded instead of being acked as a duplicate.
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 13, 2014
+ * Contributors:
+ */
+public class PongDeduplicator implements UDPPongReceiver.PongFilter {
+
+    private final VehicleComputer parent;
+    private final UDPReplySender replySender;
+    private final IntHashSet seen;
+    private final byte[] ack;
+    private int round;
+    private final AtomicLong pongs = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+
+
+    /**
+     * Constructor.
+     * <p>
+     * @param parent       the <code>VehicleComputer</code> whose rounds are
+     *                     followed.
+     * @param replySender  the shared sender the cached acks are sent through,
+     *                     or NULL if acks are aggregated.
+     * @param expectedSize number of customers expected per round.
+     */
+    public PongDeduplicator(VehicleComputer parent, UDPReplySender replySender,
+                            int expectedSize) {
+        this.parent = parent;
+        this.replySender = replySender;
+        seen = new IntHashSet(expectedSize);
+        ack = UDPPongHandler.ackFor(parent.isBinaryWire());
+        round = parent.getPingRound();
+    }
+
+    /**
+     * Let a pong through if its customer has not ponged in the current round.
+     * Pongs that cannot be parsed are let through, so the handler reports
+     * them.
+     * <p>
+     * @param datagram the received pong.
+     * @param sender   address of the PDA.
+     * <p>
+     * @return true if the pong should be handled; false if it was a duplicate
+     *         and has been acked, or dropped if acks are aggregated.
+     */
+    @Override
+    public boolean accept(ByteBuffer datagram, SocketAddress sender) {
+        pongs.incrementAndGet();
+        int currentRound = parent.getPingRound();
+        if (currentRound != round) {
+            seen.clear();
+            round = currentRound;
+        }
+
+        int customer = PongDecoder.customerNumber(datagram);
+        if (customer == -1) {
+            return true;
+        }
+        int pongRound = PongDecoder.round(datagram);
+        if ((pongRound != -1 && pongRound != (round & Integer.MAX_VALUE))
+                || seen.add(customer)) {
+            return true;
+        }
+
+        duplicates.incrementAndGet();
+        if (replySender == null) {
+            return false;
+        }
+        try {
+            replySender.send(ack, sender);
+        } catch (IOException ex) {
+            VehicleLog.warn("IO exception in sending ack; dropped.");
+        }
+        return false;
+    }
+
+    /**
+     * Forget that a customer has ponged in the current round, so its next
+     * pong is let through. Must be called on the receiving thread, as the
+     * overload policy is.
+     * <p>
+     * @param customer the customer whose pong was shed.
+     */
+    void forget(int customer) {
+        seen.remove(customer);
+    }
+
+    /**
+     * Get the number of pongs received since startup.
+     * <p>
+     * @return the number of pongs.
+     */
+    public long getPongs() {
+        return pongs.get();
+    }
+
+    /**
+     * Get the number of duplicate pongs answered by the filter since startup.
+     * <p>
+     * @return the number of duplicates.
+     */
+    public long getDuplicates() {
+        return duplicates.get();
+    }
+
+    /**
+     * Get the share of pongs that were duplicates, since startup.
+     * <p>
+     * @return the duplicate hit rate between 0 and 1.
+     */
+    public double getHitRate() {
+        long total = pongs.get();
+        return (total == 0) ? 0 : (double) duplicates.get() / total;
+    }
+
+    /**
+     * Get the counters of the filter as a single line of text.
+     * <p>
+     * @return the counters.
+     */
+    @Override
+    public String toString() {
+        return "Pong deduplication: pongs=" + pongs.get() + ", duplicates="
+                + duplicates.get() + ", hit rate="
+                + String.format("%.1f%%", getHitRate() * 100);
+    }
+
+}
@@ -0,0 +1,96 @@
+package VehicleServer;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Factory for the executors that run <code>UDPPongHandler</code> tasks. Two
+ * modes can be selected at launch:
+ * <ul>
+ * <li><code>pool</code> : a bounded <code>ThreadPoolExecutor</code> whose
+ * saturation is handled by a <code>PongOverloadPolicy</code>.
+ * <li><code>virtual</code> : a new virtual thread per task, so a burst of
+ * pongs never queues behind a fixed number of platform threads. Virtual
+ * threads exist from Java 21; the executor is looked up by reflection so the
+ * system still builds for, and runs on, older platforms.
+ * </ul>
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 12, 2014
+ * Contributors:
+ */
+final class PongExecutors {
+
+    /**
+     * Not to be instantiated.
+     */
+    private PongExecutors() {
+    }
+
+    /**
+     * Create the executor for the given mode.
+     * <p>
+     * @param mode     <code>pool</code> or <code>virtual</code>.
+     * @param coreSize core size of the pool.
+     * @param maxSize  maximum size of the pool.
+     * @param timeout  seconds an excess pool thread may idle before it closes.
+     * @param queue    size of the pool's queue.
+     * @param policy   handler of tasks rejected by the pool.
+     * <p>
+     * @return the executor.
+     * <p>
+     * @throws IllegalArgumentException if the mode is not recognized, or
+     *                                  virtual threads are not supported by
+     *                                  the running platform.
+     */
+    static ExecutorService create(String mode, int coreSize, int maxSize,
+                                  int timeout, int queue,
+                                  RejectedExecutionHandler policy) throws
+            IllegalArgumentException {
+        switch (mode) {
+            case "pool":
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                        coreSize, maxSize, timeout, TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<Runnable>(queue));
+                executor.setRejectedExecutionHandler(policy);
+                executor.prestartAllCoreThreads();
+                return executor;
+
+            case "virtual":
+                ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+                if (virtual == null) {
+                    throw new IllegalArgumentException("Virtual threads "
+                            + "require Java 21 or later.");
+                }
+                return virtual;
+
+            default:
+                throw new IllegalArgumentException(
+                        "Unknown pong executor mode: " + mode);
+        }
+    }
+
+    /**
+     * Get <code>Executors.newVirtualThreadPerTaskExecutor()</code> if the
+     * running platform has it.
+     * <p>
+     * @return the executor, or NULL if virtual threads are not supported.
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod(
+                    "newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException |
+                 InvocationTargetException ex) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,384 @@
+package VehicleServer;
+
+import java.net.SocketAddress;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Base class of the policies for what to do with a batch of pongs when the
+ * pong <code>ThreadPoolExecutor</code> is saturated, i.e. all threads are
+ * busy and the queue is full. The policy is called on the thread of the
+ * <code>UDPPongReceiver</code>, so no policy ever sleeps or retries; each of
+ * them does a bounded amount of work and returns.
+ * <p>
+ * The policy is chosen at startup by name, see <code>forName</code>:
+ * <ul>
+ * <li><code>dropnewest</code> : shed the rejected batch.
+ * <li><code>dropduplicate</code> : shed the pongs of customers already
+ * recorded in the current round, handle the rest on the receiving thread.
+ * <li><code>callerruns</code> : handle the whole batch on the receiving
+ * thread.
+ * <li><code>coalesce</code> : hold the pongs in a bounded buffer, where
+ * repeated pongs of the same customer are merged, until the pool has room.
+ * </ul>
+ * Every policy counts what it did, so operators can see how many pongs were
+ * shed, handled inline, or coalesced during rush hour. A customer whose pong
+ * is shed is forgotten by the <code>PongDeduplicator</code>, if one is set,
+ * so the next pong of the customer is not taken for a duplicate.
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 11, 2014
+ * Contributors:
+ */
+public abstract class PongOverloadPolicy implements RejectedExecutionHandler {
+
+    /**Number of batches rejected by the executor*/
+    protected final AtomicLong rejectedBatches = new AtomicLong();
+    /**Number of pongs dropped without being recorded*/
+    protected final AtomicLong shedPongs = new AtomicLong();
+    /**Number of pongs recorded on the receiving thread*/
+    protected final AtomicLong inlinePongs = new AtomicLong();
+    /**Number of pongs merged with an earlier pong of the same customer*/
+    protected final AtomicLong coalescedPongs = new AtomicLong();
+
+    private final String name;
+    private PongDeduplicator deduplicator;
+
+
+    /**
+     * Constructor.
+     * <p>
+     * @param name the name the policy is selected by.
+     */
+    protected PongOverloadPolicy(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Create the policy with the given name.
+     * <p>
+     * @param name         one of <code>dropnewest</code>,
+     *                     <code>dropduplicate</code>, <code>callerruns</code>
+     *                     or <code>coalesce</code>.
+     * @param parent       the <code>VehicleComputer</code> the pongs are
+     *                     recorded in.
+     * @param coalesceSize maximum number of pongs held by the
+     *                     <code>coalesce</code> policy.
+     * <p>
+     * @return the new policy.
+     * <p>
+     * @throws IllegalArgumentException if the name is not recognized.
+     */
+    public static PongOverloadPolicy forName(String name,
+                                             VehicleComputer parent,
+                                             int coalesceSize) throws
+            IllegalArgumentException {
+        switch (name) {
+            case "dropnewest":
+                return new DropNewest();
+            case "dropduplicate":
+                return new DropDuplicate(parent);
+            case "callerruns":
+                return new CallerRuns();
+            case "coalesce":
+                return new Coalesce(coalesceSize);
+            default:
+                throw new IllegalArgumentException(
+                        "Unknown pong overload policy: " + name);
+        }
+    }
+
+    /**
+     * Set the filter that must forget the customers of shed pongs. Must be
+     * set before the first batch is received.
+     * <p>
+     * @param deduplicator the filter of the pong receiver, or NULL if none.
+     */
+    void setDeduplicator(PongDeduplicator deduplicator) {
+        this.deduplicator = deduplicator;
+    }
+
+    /**
+     * Count a pong as shed, and make the deduplicator forget its customer,
+     * who has not been recorded.
+     * <p>
+     * @param customer the customer of the pong, or -1 if it was invalid.
+     */
+    protected void shed(int customer) {
+        shedPongs.incrementAndGet();
+        if (deduplicator != null && customer != -1) {
+            deduplicator.forget(customer);
+        }
+    }
+
+    /**
+     * Handle a batch of pongs that the executor could not accept.
+     * <p>
+     * @param r        the rejected <code>UDPPongHandler</code>.
+     * @param executor the saturated executor.
+     */
+    @Override
+    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+        rejectedBatches.incrementAndGet();
+        if (r instanceof UDPPongHandler) {
+            rejected((UDPPongHandler) r);
+        } else {
+            r.run();
+        }
+    }
+
+    /**
+     * Handle a rejected batch. The policy must recycle the batch.
+     * <p>
+     * @param handler the handler that could not be executed.
+     */
+    protected abstract void rejected(UDPPongHandler handler);
+
+    /**
+     * Called on the receiving thread before every batch is dispatched. Does
+     * nothing unless the policy holds pongs back.
+     * <p>
+     * @param executor the pong executor.
+     */
+    public void beforeDispatch(ThreadPoolExecutor executor) {
+    }
+
+    /**
+     * Record every pong held back by the policy, on the calling thread. Called
+     * at the end of each ping round. Does nothing unless the policy holds
+     * pongs back.
+     */
+    public void flush() {
+    }
+
+    /**
+     * Get the name of the policy.
+     * <p>
+     * @return the name the policy was selected by.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the number of batches rejected by the executor since startup.
+     * <p>
+     * @return the number of batches.
+     */
+    public long getRejectedBatches() {
+        return rejectedBatches.get();
+    }
+
+    /**
+     * Get the number of pongs dropped without being recorded since startup.
+     * <p>
+     * @return the number of pongs.
+     */
+    public long getShedPongs() {
+        return shedPongs.get();
+    }
+
+    /**
+     * Get the counters of the policy as a single line of text.
+     * <p>
+     * @return the counters.
+     */
+    @Override
+    public String toString() {
+        return "Pong overload policy " + name
+                + ": rejected batches=" + rejectedBatches.get()
+                + ", shed=" + shedPongs.get()
+                + ", inline=" + inlinePongs.get()
+                + ", coalesced=" + coalescedPongs.get();
+    }
+
+
+    /**
+     * Shed every pong of a rejected batch.
+     */
+    static class DropNewest extends PongOverloadPolicy {
+
+        DropNewest() {
+            super("dropnewest");
+        }
+
+        @Override
+        protected void rejected(UDPPongHandler handler) {
+            PongBatch batch = handler.getBatch();
+            for (int i = 0; i != batch.size(); ++i) {
+                shed(PongDecoder.customerNumber(batch.getDatagram(i)));
+            }
+            batch.recycle();
+        }
+
+    }
+
+
+    /**
+     * Shed the pongs of customers that have already been recorded in the
+     * current round, since recording them again changes nothing, and record
+     * the remaining pongs on the receiving thread.
+     */
+    static class DropDuplicate extends PongOverloadPolicy {
+
+        private final VehicleComputer parent;
+
+        DropDuplicate(VehicleComputer parent) {
+            super("dropduplicate");
+            this.parent = parent;
+        }
+
+        @Override
+        protected void rejected(UDPPongHandler handler) {
+            PongBatch batch = handler.getBatch();
+            try {
+                for (int i = 0; i != batch.size(); ++i) {
+                    int customer = handler.readCustomerNumber(i);
+                    if (customer == -1) {
+                        continue;
+                    }
+                    if (parent.hasPonged(customer)) {
+                        shedPongs.incrementAndGet();
+                    } else {
+                        handler.acknowledge(customer, handler.readRound(i),
+                                            batch.getSender(i));
+                        inlinePongs.incrementAndGet();
+                    }
+                }
+            } finally {
+                batch.recycle();
+            }
+        }
+
+    }
+
+
+    /**
+     * Handle the whole rejected batch on the receiving thread.
+     */
+    static class CallerRuns extends PongOverloadPolicy {
+
+        CallerRuns() {
+            super("callerruns");
+        }
+
+        @Override
+        protected void rejected(UDPPongHandler handler) {
+            inlinePongs.addAndGet(handler.getBatch().size());
+            handler.run();
+        }
+
+    }
+
+
+    /**
+     * Decode rejected pongs into a bounded buffer, in which a customer only
+     * occupies one entry however many pongs it sent. The buffer is handed to
+     * the executor as a single task when its queue has room again, or
+     * recorded on the calling thread when the ping round ends. Pongs that
+     * do not fit in the buffer are shed.
+     */
+    static class Coalesce extends PongOverloadPolicy {
+
+        private final int[] customers;
+        private final int[] rounds;
+        private final SocketAddress[] senders;
+        private final IntHashSet held;
+        private int count = 0;
+        private UDPPongHandler acknowledger;
+
+        Coalesce(int capacity) {
+            super("coalesce");
+            customers = new int[capacity];
+            rounds = new int[capacity];
+            senders = new SocketAddress[capacity];
+            held = new IntHashSet(capacity);
+        }
+
+        @Override
+        protected synchronized void rejected(UDPPongHandler handler) {
+            acknowledger = handler;
+            PongBatch batch = handler.getBatch();
+            try {
+                for (int i = 0; i != batch.size(); ++i) {
+                    int customer = handler.readCustomerNumber(i);
+                    if (customer == -1) {
+                        continue;
+                    }
+                    if (held.contains(customer)) {
+                        coalescedPongs.incrementAndGet();
+                    } else if (count == customers.length) {
+                        shed(customer);
+                    } else {
+                        held.add(customer);
+                        customers[count] = customer;
+                        rounds[count] = handler.readRound(i);
+                        senders[count] = batch.getSender(i);
+                        ++count;
+                    }
+                }
+            } finally {
+                batch.recycle();
+            }
+        }
+
+        @Override
+        public void beforeDispatch(ThreadPoolExecutor executor) {
+            Runnable task;
+            synchronized (this) {
+                if (count == 0
+                        || executor.getQueue().remainingCapacity() == 0) {
+                    return;
+                }
+                task = takeHeld();
+            }
+            executor.execute(task);
+        }
+
+        @Override
+        public void flush() {
+            Runnable task;
+            synchronized (this) {
+                if (count == 0) {
+                    return;
+                }
+                inlinePongs.addAndGet(count);
+                task = takeHeld();
+            }
+            task.run();
+        }
+
+        /**
+         * Move the held pongs into a task that records them, and empty the
+         * buffer. Must be called while synchronized on this object.
+         * <p>
+         * @return the task.
+         */
+        private Runnable takeHeld() {
+            final int[] taskCustomers = new int[count];
+            final int[] taskRounds = new int[count];
+            final SocketAddress[] taskSenders = new SocketAddress[count];
+            System.arraycopy(customers, 0, taskCustomers, 0, count);
+            System.arraycopy(rounds, 0, taskRounds, 0, count);
+            System.arraycopy(senders, 0, taskSenders, 0, count);
+            final UDPPongHandler handler = acknowledger;
+            for (int i = 0; i != count; ++i) {
+                senders[i] = null;
+            }
+            count = 0;
+            held.clear();
+
+            return new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i != taskCustomers.length; ++i) {
+                        handler.acknowledge(taskCustomers[i], taskRounds[i],
+                                            taskSenders[i]);
+                    }
+                }
+            };
+        }
+
+    }
+}
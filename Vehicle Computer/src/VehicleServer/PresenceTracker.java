@@ -0,0 +1,221 @@
+package VehicleServer;
+
+import java.util.Arrays;
+
+
+/**
+ * Sliding-window presence detection of the passengers on-board. For every
+ * customer heard within the last <code>window</code> ping rounds the tracker
+ * keeps one <code>int</code> whose bits record the rounds the customer
+ * replied in, newest round in the lowest bit. A customer is on-board while it
+ * replied in at least <code>required</code> of those rounds, so a single lost
+ * pong no longer drops a passenger, as strictly intersecting every round
+ * does.
+ * <p>
+ * Until <code>required</code> rounds have been closed, a customer must have
+ * replied in every one of them; the first round thus counts everyone heard,
+ * like the first passenger filter always did.
+ * <p>
+ * The customers and their rounds are kept in an open-addressing table like
+ * that of <code>IntHashSet</code>. Recording a pong is a single lookup;
+ * closing a round moves the customers still within the window into a second
+ * table of the same size, and customers not heard for a whole window are
+ * forgotten.
+ * <p>
+ * This class is not thread-safe; it is used by the thread filtering the
+ * passengers.
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 16, 2014
+ * Contributors:
+ */
+public class PresenceTracker {
+
+    /**Largest window, as the rounds of a customer are the bits of an int*/
+    public static final int MAX_WINDOW = 32;
+
+    private static final int FREE = 0;
+    private static final int MIN_CAPACITY = 16;
+
+    private final int window;
+    private final int required;
+    private final int windowMask;
+    private int[] customers;
+    private int[] rounds;
+    private int[] spareCustomers;
+    private int[] spareRounds;
+    private int mask;
+    private int size = 0;
+    private int roundsClosed = 0;
+
+
+    /**
+     * Constructor.
+     * <p>
+     * @param window       number of most recent rounds considered, at most
+     *                     <code>MAX_WINDOW</code>.
+     * @param required     number of those rounds a customer must have replied
+     *                     in to be on-board.
+     * @param expectedSize number of customers the tracker should hold before
+     *                     it has to grow.
+     * <p>
+     * @throws IllegalArgumentException if the window or required number of
+     *                                  rounds are out of range.
+     */
+    public PresenceTracker(int window, int required, int expectedSize) throws
+            IllegalArgumentException {
+        if (window < 1 || window > MAX_WINDOW) {
+            throw new IllegalArgumentException(
+                    "Presence window must be 1 to " + MAX_WINDOW + " rounds.");
+        }
+        if (required < 1 || required > window) {
+            throw new IllegalArgumentException(
+                    "Required rounds must be 1 to the window size.");
+        }
+        this.window = window;
+        this.required = required;
+        windowMask = (window == MAX_WINDOW) ? -1 : (1 << window) - 1;
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * Record that a customer replied in the current round.
+     * <p>
+     * @param customer the customer number; must be positive.
+     * <p>
+     * @throws IllegalArgumentException if the number is not positive.
+     */
+    public void record(int customer) throws IllegalArgumentException {
+        if (customer <= 0) {
+            throw new IllegalArgumentException(
+                    "Customer number must be greater than 0.");
+        }
+        int index = IntHashSet.hash(customer) & mask;
+        while (customers[index] != FREE) {
+            if (customers[index] == customer) {
+                rounds[index] |= 1;
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+        customers[index] = customer;
+        rounds[index] = 1;
+        if (++size * 2 > customers.length) {
+            grow();
+        }
+    }
+
+    /**
+     * Close the current round: find the customers on-board, then start a new
+     * round.
+     * <p>
+     * @return the customer numbers of the passengers on-board, in no
+     *         particular order.
+     */
+    public int[] closeRound() {
+        if (roundsClosed != Integer.MAX_VALUE) {
+            ++roundsClosed;
+        }
+        int needed = Math.min(required, roundsClosed);
+
+        int[] onBoard = new int[size];
+        int count = 0;
+        int[] oldCustomers = customers;
+        int[] oldRounds = rounds;
+        customers = spareCustomers;
+        rounds = spareRounds;
+        size = 0;
+        for (int i = 0; i != oldCustomers.length; ++i) {
+            int customer = oldCustomers[i];
+            if (customer == FREE) {
+                continue;
+            }
+            int history = oldRounds[i];
+            if (Integer.bitCount(history) >= needed) {
+                onBoard[count++] = customer;
+            }
+            /*Keep the customer if heard within the next window*/
+            history = (history << 1) & windowMask;
+            if (history != 0) {
+                insert(customer, history);
+            }
+            oldCustomers[i] = FREE;
+        }
+        spareCustomers = oldCustomers;
+        spareRounds = oldRounds;
+        return Arrays.copyOf(onBoard, count);
+    }
+
+    /**
+     * Forget every customer and round, e.g. when the vehicle is restarted.
+     */
+    public void reset() {
+        Arrays.fill(customers, FREE);
+        size = 0;
+        roundsClosed = 0;
+    }
+
+    /**
+     * Get the number of customers heard within the window.
+     * <p>
+     * @return the number of customers tracked.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the number of most recent rounds considered.
+     * <p>
+     * @return the window.
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Get the number of rounds in the window a customer must have replied in.
+     * <p>
+     * @return the required number of rounds.
+     */
+    public int getRequired() {
+        return required;
+    }
+
+    private void insert(int customer, int history) {
+        int index = IntHashSet.hash(customer) & mask;
+        while (customers[index] != FREE) {
+            index = (index + 1) & mask;
+        }
+        customers[index] = customer;
+        rounds[index] = history;
+        ++size;
+    }
+
+    private void allocate(int capacity) {
+        customers = new int[capacity];
+        rounds = new int[capacity];
+        spareCustomers = new int[capacity];
+        spareRounds = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Move all customers into tables of twice the size.
+     */
+    private void grow() {
+        int[] oldCustomers = customers;
+        int[] oldRounds = rounds;
+        allocate(oldCustomers.length * 2);
+        size = 0;
+        for (int i = 0; i != oldCustomers.length; ++i) {
+            if (oldCustomers[i] != FREE) {
+                insert(oldCustomers[i], oldRounds[i]);
+            }
+        }
+    }
+
+}
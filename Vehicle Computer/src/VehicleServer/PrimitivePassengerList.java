@@ -0,0 +1,269 @@
+package VehicleServer;
+
+import ModelClasses.PassengerList;
+import java.io.ObjectStreamException;
+import java.util.ArrayList;
+
+
+/**
+ * <code>PassengerList</code> that keeps its customer numbers in an
+ * <code>IntHashSet</code> instead of an <code>ArrayList&lt;Integer&gt;</code>.
+ * Adding, removing and looking up a passenger take constant time without
+ * boxing, and <code>getDuplicatePassengers</code> takes time linear in the
+ * size of the smaller list, where the <code>ArrayList</code> version
+ * compares every pair.
+ * <p>
+ * Unlike the base class the list holds every customer once. The zone is kept
+ * by the base class.
+ * <p>
+ * On serialization the list is replaced by a plain <code>PassengerList</code>
+ * with the same zone and passengers, so the backend, the backup file and
+ * older vehicles read it exactly as before.
+ * <p>
+ * Copying with the copy constructor of the base class,
+ * <code>new PassengerList(list)</code>, is not supported: it copies the
+ * passengers of the base class, which this list leaves empty, and so
+ * returns an empty list. Copy with <code>PrimitivePassengerList(other)</code>
+ * instead.
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 16, 2014
+ * Contributors:
+ */
+public class PrimitivePassengerList extends PassengerList {
+
+    private static final long serialVersionUID = 1L;
+
+    private final IntHashSet passengers;
+
+
+    /**
+     * Constructor for an empty list.
+     * <p>
+     * @param zone         the zone of the passengers.
+     * @param expectedSize number of passengers the list should hold before it
+     *                     has to grow.
+     */
+    public PrimitivePassengerList(int zone, int expectedSize) {
+        super(zone);
+        passengers = new IntHashSet(expectedSize);
+    }
+
+    /**
+     * Constructor taking over a set of passengers.
+     * <p>
+     * @param zone       the zone of the passengers.
+     * @param passengers the set; not copied.
+     */
+    private PrimitivePassengerList(int zone, IntHashSet passengers) {
+        super(zone);
+        this.passengers = passengers;
+    }
+
+    /**
+     * Constructor for a list with the given passengers.
+     * <p>
+     * @param zone      the zone of the passengers.
+     * @param customers customer numbers of the passengers; all positive.
+     * <p>
+     * @throws IllegalArgumentException if a customer number is not positive.
+     */
+    public PrimitivePassengerList(int zone, int[] customers) throws
+            IllegalArgumentException {
+        this(zone, customers.length);
+        for (int customer : customers) {
+            passengers.add(customer);
+        }
+    }
+
+    /**
+     * Copy constructor, taking the zone and passengers of any
+     * <code>PassengerList</code>.
+     * <p>
+     * @param other the list to copy.
+     */
+    public PrimitivePassengerList(PassengerList other) {
+        this(other.getZone(), other.size());
+        if (other instanceof PrimitivePassengerList) {
+            for (int customer : ((PrimitivePassengerList) other).toArray()) {
+                passengers.add(customer);
+            }
+        } else {
+            for (Integer customer : other.getAllPassengers()) {
+                passengers.add(customer);
+            }
+        }
+    }
+
+    /**
+     * Get the passengers as a new <code>ArrayList</code>, in no particular
+     * order. Changing the returned list does not change this list.
+     * <p>
+     * @return the customer numbers.
+     */
+    @Override
+    public ArrayList<Integer> getAllPassengers() {
+        ArrayList<Integer> all = new ArrayList<>(passengers.size());
+        for (int customer : passengers.toArray()) {
+            all.add(customer);
+        }
+        return all;
+    }
+
+    /**
+     * Get the passengers as an array, in no particular order.
+     * <p>
+     * @return the customer numbers.
+     */
+    public int[] toArray() {
+        return passengers.toArray();
+    }
+
+    @Override
+    public int size() {
+        return passengers.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return passengers.isEmpty();
+    }
+
+    /**
+     * Replace all passengers of the list.
+     * <p>
+     * @param newPassengers the customer numbers; all positive.
+     * <p>
+     * @throws IllegalArgumentException if the list is NULL or holds a number
+     *                                  that is not positive.
+     */
+    @Override
+    public void setAllPassengers(ArrayList<Integer> newPassengers) throws
+            IllegalArgumentException {
+        if (newPassengers == null) {
+            throw new IllegalArgumentException("Argument cannot be NULL.");
+        }
+        passengers.clear();
+        for (Integer customer : newPassengers) {
+            passengers.add(customer);
+        }
+    }
+
+    @Override
+    public void addSinglePassenger(Integer customer) throws
+            IllegalArgumentException {
+        passengers.add(customer);
+    }
+
+    @Override
+    public void removeSinglePassenger(Integer customer) {
+        passengers.remove(customer);
+    }
+
+    /**
+     * Add a passenger without boxing.
+     * <p>
+     * @param customer the customer number; must be positive.
+     * <p>
+     * @return true if the passenger was added; false if already in the list.
+     * <p>
+     * @throws IllegalArgumentException if the number is not positive.
+     */
+    public boolean addPassenger(int customer) throws IllegalArgumentException {
+        return passengers.add(customer);
+    }
+
+    /**
+     * Remove a passenger without boxing.
+     * <p>
+     * @param customer the customer number.
+     * <p>
+     * @return true if the passenger was removed; false if not in the list.
+     */
+    public boolean removePassenger(int customer) {
+        return passengers.remove(customer);
+    }
+
+    /**
+     * Test if a passenger is in the list.
+     * <p>
+     * @param customer the customer number.
+     * <p>
+     * @return true if the passenger is in the list; false otherwise.
+     */
+    public boolean contains(int customer) {
+        return passengers.contains(customer);
+    }
+
+    /**
+     * Get the passengers that are in both this and another list, in the zone
+     * of this list.
+     * <p>
+     * @param other the list to compare with.
+     * <p>
+     * @return a new <code>PrimitivePassengerList</code> with the common
+     *         passengers.
+     * <p>
+     * @throws IllegalArgumentException if the other list is NULL.
+     */
+    @Override
+    public PassengerList getDuplicatePassengers(PassengerList other) throws
+            IllegalArgumentException {
+        if (other == null) {
+            throw new IllegalArgumentException("Supplied argument was NULL.");
+        }
+        IntHashSet otherSet = (other instanceof PrimitivePassengerList)
+                ? ((PrimitivePassengerList) other).passengers
+                : new PrimitivePassengerList(other).passengers;
+        return new PrimitivePassengerList(getZone(),
+                                          passengers.intersect(otherSet));
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 7;
+        for (int customer : passengers.toArray()) {
+            /*Order independent, like the set itself*/
+            hash += IntHashSet.hash(customer);
+        }
+        return hash;
+    }
+
+    /**
+     * Test if another list is a <code>PrimitivePassengerList</code> with the
+     * same passengers. Like the base class, the zone is not compared.
+     * <p>
+     * @param obj the object to compare with.
+     * <p>
+     * @return true if the lists are equal; false otherwise.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        IntHashSet other = ((PrimitivePassengerList) obj).passengers;
+        if (other.size() != passengers.size()) {
+            return false;
+        }
+        for (int customer : passengers.toArray()) {
+            if (!other.contains(customer)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Serialize the list as a plain <code>PassengerList</code>.
+     * <p>
+     * @return the list to serialize instead of this.
+     * <p>
+     * @throws ObjectStreamException never.
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        PassengerList plain = new PassengerList(getZone());
+        plain.setAllPassengers(getAllPassengers());
+        return plain;
+    }
+
+}
@@ -0,0 +1,147 @@
+package VehicleServer;
+
+import Protocol.WireCodec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Immutable cache of the ticket replies of a <code>TicketStore</code>, so a
+ * ticket request costs a lookup and no encoding. Every reply datagram is
+ * encoded once, when the tickets are replaced, into one direct
+ * <code>ByteBuffer</code> slab, outside of the heap:
+ * <pre>
+ *   "no ticket" frame | empty byte | ticket frames | serialized tickets
+ * </pre>
+ * The binary frames have a fixed size, so the frame of a row is found by
+ * multiplication; the serialized tickets vary, and their offsets are kept
+ * in an <code>int</code> array indexed by row, one more than the rows. Rows
+ * are found by customer number in the index of the store.
+ * <p>
+ * A reply is sent as a slice of the slab, selected in a view of it with
+ * <code>select</code>. Views are created with <code>newView</code>; each
+ * thread must use its own, and may reuse it for any number of replies.
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 17, 2014
+ * Contributors:
+ */
+public final class TicketReplies {
+
+    /**Replies of a store without tickets*/
+    static final TicketReplies EMPTY = new TicketReplies(TicketStore.EMPTY);
+
+    private static final int NO_TICKET_OFFSET = 0;
+    private static final int NO_TICKET_SIZE = WireCodec.HEADER_SIZE;
+    private static final int LEGACY_NO_TICKET_OFFSET = NO_TICKET_SIZE;
+    private static final int FRAMES_OFFSET = LEGACY_NO_TICKET_OFFSET + 1;
+
+    private final TicketStore store;
+    private final ByteBuffer slab;
+    /**Offset of the serialized ticket of each row, and the end of the last*/
+    private final int[] legacyOffsets;
+
+
+    /**
+     * Constructor. Encodes the replies of every ticket of the store.
+     * <p>
+     * @param store the tickets to encode the replies of.
+     */
+    public TicketReplies(TicketStore store) {
+        this.store = store;
+        int rows = store.size();
+        TicketStore.View view = store.view();
+
+        /*Serialize first; the size of the slab depends on it*/
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream(
+                rows * 256);
+        legacyOffsets = new int[rows + 1];
+        int legacyStart = FRAMES_OFFSET + rows * WireCodec.TICKET_FRAME_SIZE;
+        try {
+            for (int row = 0; row != rows; ++row) {
+                legacyOffsets[row] = legacyStart + serialized.size();
+                ObjectOutputStream oos = new ObjectOutputStream(serialized);
+                oos.writeObject(view.at(row).toTicket());
+                oos.flush();
+            }
+        } catch (IOException ex) {
+            /*Cannot happen; the stream is in memory*/
+            throw new IllegalStateException(ex);
+        }
+        legacyOffsets[rows] = legacyStart + serialized.size();
+
+        ByteBuffer out = ByteBuffer.allocateDirect(legacyOffsets[rows]);
+        WireCodec.encodeTicket(out, null);
+        out.put((byte) 0);
+        for (int row = 0; row != rows; ++row) {
+            view.at(row).encode(out);
+        }
+        out.put(serialized.toByteArray());
+        out.clear();
+        slab = out.asReadOnlyBuffer();
+    }
+
+    /**
+     * Get the tickets the replies are of.
+     * <p>
+     * @return the store.
+     */
+    public TicketStore getStore() {
+        return store;
+    }
+
+    /**
+     * Get the number of bytes of the slab holding the replies.
+     * <p>
+     * @return the size of the slab.
+     */
+    public int getSlabSize() {
+        return slab.capacity();
+    }
+
+    /**
+     * Create a view of the replies, to select replies in. Only valid for
+     * this object.
+     * <p>
+     * @return a new read-only view of the slab.
+     */
+    public ByteBuffer newView() {
+        return slab.duplicate();
+    }
+
+    /**
+     * Select the reply to a ticket request in a view: a binary ticket frame,
+     * or a "no ticket" frame, or, for legacy requests, the serialized ticket,
+     * or a single empty byte. Only the position and limit of the view are
+     * changed.
+     * <p>
+     * @param view           a view created by <code>newView</code> of this
+     *                       object.
+     * @param customerNumber the customer who requested their ticket.
+     * @param binary         true for a binary <code>WireCodec</code> reply;
+     *                       false for a legacy reply.
+     * <p>
+     * @return true if the customer has a ticket; false otherwise.
+     */
+    public boolean select(ByteBuffer view, int customerNumber,
+                          boolean binary) {
+        int row = store.find(customerNumber);
+        int start;
+        int end;
+        if (row == -1) {
+            start = binary ? NO_TICKET_OFFSET : LEGACY_NO_TICKET_OFFSET;
+            end = start + (binary ? NO_TICKET_SIZE : 1);
+        } else if (binary) {
+            start = FRAMES_OFFSET + row * WireCodec.TICKET_FRAME_SIZE;
+            end = start + WireCodec.TICKET_FRAME_SIZE;
+        } else {
+            start = legacyOffsets[row];
+            end = legacyOffsets[row + 1];
+        }
+        view.clear();
+        view.position(start);
+        view.limit(end);
+        return row != -1;
+    }
+}
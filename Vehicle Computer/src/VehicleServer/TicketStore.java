@@ -0,0 +1,410 @@
+package VehicleServer;
+
+import ModelClasses.Ticket;
+import ModelClasses.TicketList;
+import Protocol.PassengerDelta;
+import Protocol.WireCodec;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+
+
+/**
+ * Immutable, columnar store of the tickets of a <code>VehicleComputer</code>.
+ * Instead of a <code>Ticket</code> object and a timestamp
+ * <code>String</code> per ticket, the fields of the tickets are held in
+ * parallel arrays, one row per ticket: ticket number, customer number,
+ * price, start zone and zone count as <code>int</code>, and the timestamp as
+ * seconds since 1970-01-01 00:00:00 of the same clock, i.e. without a time
+ * zone. A store of 10,000 tickets is thus a dozen arrays, rather than 20,000
+ * objects for the garbage collector to trace.
+ * <p>
+ * The rows are indexed by customer number in an open-addressing
+ * <code>int</code> array with linear probing, hashed as in
+ * <code>IntHashSet</code>, so a lookup is a few probes of primitive arrays.
+ * A customer has one ticket at most; if a list holds more, the first is
+ * kept, as <code>TicketList.getTicket</code> finds it.
+ * <p>
+ * Tickets are read through a <code>View</code>, a flyweight positioned on
+ * one row at a time, which encodes the reply of a ticket without creating a
+ * <code>Ticket</code>. <code>Ticket</code> objects are only created for the
+ * legacy serialized replies, encoded once in <code>TicketReplies</code>, and
+ * the backup.
+ * <p>
+ * A store is never changed once built, so it can be published through a
+ * volatile reference and read by any number of threads without locking; a
+ * reader always sees either the old or the new tickets, never a mix.
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 17, 2014
+ * Contributors:
+ */
+public final class TicketStore {
+
+    /**Store without tickets*/
+    static final TicketStore EMPTY = new TicketStore(new TicketList());
+
+    private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+    private static final int TIMESTAMP_LENGTH = 19;
+
+    private final int[] numbers;
+    private final int[] customers;
+    private final int[] prices;
+    private final int[] startZones;
+    private final int[] zoneCounts;
+    private final long[] timestamps;
+    private final int size;
+    /**Row plus one of each customer, or 0 for a free cell*/
+    private final int[] index;
+    private final int mask;
+
+
+    /**
+     * Constructor.
+     * <p>
+     * @param list the tickets to store; not kept, nor changed.
+     */
+    public TicketStore(TicketList list) {
+        this(null, null, list);
+    }
+
+    /**
+     * Constructor of the tickets of a delta request merged into the tickets
+     * kept: the tickets of alighted passengers are dropped, and those of
+     * boarded passengers replace any kept for them.
+     * <p>
+     * @param current        the tickets kept.
+     * @param delta          the passengers who boarded and alighted.
+     * @param boardedTickets the tickets replied for the boarded passengers.
+     */
+    public TicketStore(TicketStore current, PassengerDelta delta,
+                       TicketList boardedTickets) {
+        ArrayList<Ticket> added = boardedTickets.getAllTickets();
+        int capacity = added.size() + ((current == null) ? 0 : current.size);
+        numbers = new int[capacity];
+        customers = new int[capacity];
+        prices = new int[capacity];
+        startZones = new int[capacity];
+        zoneCounts = new int[capacity];
+        timestamps = new long[capacity];
+        int cells = 16;
+        while (cells < capacity * 2) {
+            cells <<= 1;
+        }
+        index = new int[cells];
+        mask = cells - 1;
+
+        int rows = 0;
+        if (current != null) {
+            for (int row = 0; row != current.size; ++row) {
+                int customer = current.customers[row];
+                if (delta.getAlighted().contains(customer)
+                        || delta.getBoarded().contains(customer)) {
+                    continue;
+                }
+                if (insert(customer, rows)) {
+                    numbers[rows] = current.numbers[row];
+                    customers[rows] = customer;
+                    prices[rows] = current.prices[row];
+                    startZones[rows] = current.startZones[row];
+                    zoneCounts[rows] = current.zoneCounts[row];
+                    timestamps[rows] = current.timestamps[row];
+                    ++rows;
+                }
+            }
+        }
+        for (Ticket ticket : added) {
+            int customer = ticket.getCustomerNumber();
+            if (customer > 0 && insert(customer, rows)) {
+                numbers[rows] = ticket.getNumber();
+                customers[rows] = customer;
+                prices[rows] = ticket.getPrice();
+                startZones[rows] = ticket.getStartZone();
+                zoneCounts[rows] = ticket.getZoneCount();
+                timestamps[rows] = toEpochSeconds(ticket.getTimestamp());
+                ++rows;
+            }
+        }
+        size = rows;
+    }
+
+    /**
+     * Index a row by its customer, unless the customer already has a row.
+     * Only called while the store is built, and the row must be filled in
+     * before the next call.
+     * <p>
+     * @return true if the row was indexed; false if the customer has one.
+     */
+    private boolean insert(int customer, int row) {
+        int cell = IntHashSet.hash(customer) & mask;
+        while (index[cell] != 0) {
+            if (customers[index[cell] - 1] == customer) {
+                return false;
+            }
+            cell = (cell + 1) & mask;
+        }
+        index[cell] = row + 1;
+        return true;
+    }
+
+    /**
+     * Find the row of the ticket of a customer.
+     * <p>
+     * @param customerNumber the customer to look for.
+     * <p>
+     * @return the row, or -1 if the customer has no ticket.
+     */
+    public int find(int customerNumber) {
+        if (customerNumber <= 0) {
+            return -1;
+        }
+        int cell = IntHashSet.hash(customerNumber) & mask;
+        int row;
+        while ((row = index[cell]) != 0) {
+            if (customers[row - 1] == customerNumber) {
+                return row - 1;
+            }
+            cell = (cell + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the number of tickets in the store.
+     * <p>
+     * @return the number of tickets.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Create a view of the tickets, positioned on no row.
+     * <p>
+     * @return the new view.
+     */
+    public View view() {
+        return new View();
+    }
+
+    /**
+     * Create <code>Ticket</code> objects of all tickets, in the order of the
+     * rows.
+     * <p>
+     * @return a new list of the tickets.
+     */
+    public TicketList toTicketList() {
+        ArrayList<Ticket> all = new ArrayList<>(size);
+        View view = view();
+        for (int row = 0; row != size; ++row) {
+            all.add(view.at(row).toTicket());
+        }
+        TicketList list = new TicketList();
+        list.setAllTickets(all);
+        return list;
+    }
+
+    /**
+     * Convert a timestamp of a <code>Ticket</code> into seconds since
+     * 1970-01-01 00:00:00, without regard to time zones.
+     * <p>
+     * @param timestamp the timestamp, as "yyyy-MM-dd HH:mm:ss".
+     * <p>
+     * @return the seconds.
+     */
+    static long toEpochSeconds(String timestamp) {
+        int year = digits(timestamp, 0, 4);
+        int month = digits(timestamp, 5, 2);
+        int day = digits(timestamp, 8, 2);
+        long seconds = digits(timestamp, 11, 2) * 3600
+                + digits(timestamp, 14, 2) * 60 + digits(timestamp, 17, 2);
+        return daysFromCivil(year, month, day) * SECONDS_PER_DAY + seconds;
+    }
+
+    /**
+     * Write the timestamp of the given seconds as "yyyy-MM-dd HH:mm:ss".
+     * <p>
+     * @param epochSeconds seconds since 1970-01-01 00:00:00; not negative,
+     *                     as no ticket is older than 2014.
+     * @param dst          array of at least 19 characters to write to.
+     */
+    static void formatTimestamp(long epochSeconds, char[] dst) {
+        long days = epochSeconds / SECONDS_PER_DAY;
+        int seconds = (int) (epochSeconds - days * SECONDS_PER_DAY);
+
+        /*Civil date of a day number, after Howard Hinnant*/
+        long z = days + 719468;
+        long era = z / 146097;
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524
+                - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4
+                - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = (mp < 10) ? mp + 3 : mp - 9;
+        int year = (int) (yearOfEra + era * 400) + ((month <= 2) ? 1 : 0);
+
+        putDigits(dst, 0, year, 4);
+        dst[4] = '-';
+        putDigits(dst, 5, month, 2);
+        dst[7] = '-';
+        putDigits(dst, 8, day, 2);
+        dst[10] = ' ';
+        putDigits(dst, 11, seconds / 3600, 2);
+        dst[13] = ':';
+        putDigits(dst, 14, seconds / 60 % 60, 2);
+        dst[16] = ':';
+        putDigits(dst, 17, seconds % 60, 2);
+    }
+
+    /**
+     * Get the day number of a civil date, 0 being 1970-01-01, after Howard
+     * Hinnant. The year must not be negative.
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        year -= (month <= 2) ? 1 : 0;
+        long era = year / 400;
+        int yearOfEra = (int) (year - era * 400);
+        int dayOfYear = (153 * (month + ((month > 2) ? -3 : 9)) + 2) / 5
+                + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100
+                + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static int digits(String s, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i != offset + count; ++i) {
+            value = value * 10 + s.charAt(i) - '0';
+        }
+        return value;
+    }
+
+    private static void putDigits(char[] dst, int offset, int value,
+                                  int count) {
+        for (int i = offset + count - 1; i >= offset; --i) {
+            dst[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+
+    /**
+     * Flyweight view of one ticket of the store at a time. A view is cheap
+     * to create, and may be moved between rows any number of times; it is
+     * not thread-safe.
+     */
+    public final class View {
+
+        private final char[] time = new char[TIMESTAMP_LENGTH];
+        private final CharBuffer timeChars = CharBuffer.wrap(time);
+        private int row = -1;
+
+
+        private View() {
+        }
+
+        /**
+         * Position the view on the ticket of a customer.
+         * <p>
+         * @param customerNumber the customer to look for.
+         * <p>
+         * @return true if the customer has a ticket; false if not, in which
+         *         case the view is positioned on no row.
+         */
+        public boolean moveTo(int customerNumber) {
+            row = find(customerNumber);
+            return row != -1;
+        }
+
+        /**
+         * Position the view on a row.
+         * <p>
+         * @param row the row, between 0 and the size of the store.
+         * <p>
+         * @return this view.
+         * <p>
+         * @throws IndexOutOfBoundsException if there is no such row.
+         */
+        public View at(int row) throws IndexOutOfBoundsException {
+            if (row < 0 || row >= size) {
+                throw new IndexOutOfBoundsException("No ticket row " + row);
+            }
+            this.row = row;
+            return this;
+        }
+
+        /**@return the ticket number*/
+        public int getNumber() {
+            return numbers[row];
+        }
+
+        /**@return the customer number of the ticket*/
+        public int getCustomerNumber() {
+            return customers[row];
+        }
+
+        /**@return the price of the ticket*/
+        public int getPrice() {
+            return prices[row];
+        }
+
+        /**@return the zone the ticket starts in*/
+        public int getStartZone() {
+            return startZones[row];
+        }
+
+        /**@return the number of zones the ticket is valid for*/
+        public int getZoneCount() {
+            return zoneCounts[row];
+        }
+
+        /**
+         * Get the timestamp of the ticket.
+         * <p>
+         * @return seconds since 1970-01-01 00:00:00, without a time zone.
+         */
+        public long getEpochSeconds() {
+            return timestamps[row];
+        }
+
+        /**
+         * Get the timestamp of the ticket as a <code>Ticket</code> has it.
+         * <p>
+         * @return the timestamp, as "yyyy-MM-dd HH:mm:ss".
+         */
+        public String getTimestamp() {
+            formatTimestamp(timestamps[row], time);
+            return new String(time);
+        }
+
+        /**
+         * Encode the ticket as a <code>WireCodec.TYPE_TICKET</code> reply,
+         * without creating any object.
+         * <p>
+         * @param out buffer to write to, with at least
+         *            <code>WireCodec.TICKET_FRAME_SIZE</code> bytes remaining.
+         */
+        public void encode(ByteBuffer out) {
+            formatTimestamp(timestamps[row], time);
+            timeChars.clear();
+            WireCodec.encodeTicket(out, numbers[row], customers[row],
+                                   prices[row], startZones[row],
+                                   zoneCounts[row], timeChars);
+        }
+
+        /**
+         * Create a <code>Ticket</code> of the fields of the ticket.
+         * <p>
+         * @return the new ticket.
+         */
+        public Ticket toTicket() {
+            Ticket ticket = new Ticket();
+            ticket.createTicket(numbers[row], getTimestamp(), prices[row],
+                                startZones[row], zoneCounts[row],
+                                customers[row]);
+            return ticket;
+        }
+
+    }
+}
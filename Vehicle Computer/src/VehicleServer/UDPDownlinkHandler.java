@@ -1,105 +1,357 @@
 package VehicleServer;
 
 
-import ModelClasses.Ticket;
+import Protocol.WireCodec;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 
 
 /**
- * Servicing thread class for <code>PDAApplication</code> objects that requests
- * their ticket from the <code>VehicleComputer</code> <code>TicketList</code>
- * field.
+ * Server for <code>PDAApplication</code> objects that request their ticket
+ * from the <code>TicketStore</code> of the <code>VehicleComputer</code>. The
+ * replies are encoded in advance, in <code>TicketReplies</code>, when the
+ * tickets are replaced, and sent as slices of its slab.
+ * <p>
+ * This thread only receives: like the <code>UDPPongReceiver</code>, it waits
+ * on a <code>Selector</code> and, on every wakeup, drains all requests queued
+ * on the non-blocking channel into the reusable slots of a batch. Each batch
+ * is handed to a pool of workers, or a virtual thread per batch, see
+ * <code>PongExecutors</code>, which looks up the replies of the whole batch
+ * and sends them through one borrowed channel of a
+ * <code>UDPReplySender</code>. When an inspector boards and every passenger
+ * opens their ticket at once, the requests are thus answered in parallel
+ * instead of queueing behind one another. The replies are sent from an
+ * ephemeral port, which the PDAs accept, as their socket is not connected.
+ * <p>
+ * If every batch is in flight, the receiver waits for one to be recycled,
+ * leaving further requests in the kernel buffer in the meantime.
  * <p>
  * @author Andreas Stensig Jensen, on Nov 17, 2014
  * Contributors:
  */
 public class UDPDownlinkHandler extends Thread {
 
-    private final int localPort = 2225;
-    private final DatagramSocket socket;
-    private final VehicleComputer parent;
+    /**
+     * Maximum size of a request datagram. Serialized customer numbers are far
+     * smaller.
+     */
+    private final int SLOT_SIZE = 256;
+
+    /**Number of batches per worker that may be in flight at once*/
+    private final int BATCHES_PER_WORKER = 4;
+
+    /**Seconds an excess pool thread may idle; the pool has none*/
+    private final int WORKER_TIMEOUT = 30;
+
+    private final TicketSource tickets;
+    private final VehicleMetrics metrics;
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final UDPReplySender replySender;
+    private final BlockingQueue<RequestBatch> freeBatches;
+    private volatile boolean alive = true;
 
 
     /**
-     * Constructor.
+     * Constructor. Opens and binds the request channel, starts the workers
+     * and allocates all batches.
      * <p>
-     * @param parent the <code>VehicleComputer</code> that owns this object.
+     * @param tickets      source of the replies to the current tickets.
+     * @param metrics      metrics the time of each request is recorded in.
+     * @param port         port number to receive requests on, or 0 for any.
+     * @param rcvBuf       requested size of the channel's receive buffer.
+     * @param executorMode <code>pool</code> or <code>virtual</code>, see
+     *                     <code>PongExecutors</code>.
+     * @param workerCount  number of worker threads of a pool, and of reply
+     *                     channels.
+     * @param batchSize    number of requests per batch.
      * <p>
-     * @throws SocketException if the UDP socket could not be opened.
+     * @throws IOException              if a channel or the selector could not
+     *                                  be opened.
+     * @throws IllegalArgumentException if the executor mode is not
+     *                                  recognized or supported.
      */
-    public UDPDownlinkHandler(VehicleComputer parent) throws SocketException {
-        socket = new DatagramSocket(localPort);
-        this.parent = parent;
+    public UDPDownlinkHandler(TicketSource tickets, VehicleMetrics metrics,
+                              int port, int rcvBuf, String executorMode,
+                              int workerCount, int batchSize)
+            throws IOException, IllegalArgumentException {
+        this.tickets = tickets;
+        this.metrics = metrics;
+        int batchCount = workerCount * BATCHES_PER_WORKER;
+        workers = PongExecutors.create(executorMode, workerCount, workerCount,
+                                       WORKER_TIMEOUT, batchCount,
+                                       new ThreadPoolExecutor.CallerRunsPolicy());
+        replySender = new UDPReplySender(workerCount);
+        freeBatches = new ArrayBlockingQueue<>(batchCount);
+        for (int i = 0; i != batchCount; ++i) {
+            freeBatches.add(new RequestBatch(batchSize));
+        }
+
+        channel = DatagramChannel.open();
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, rcvBuf);
+        channel.bind(new InetSocketAddress(port));
+        channel.configureBlocking(false);
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+        setName("UDPDownlinkHandler");
     }
 
     /**
-     * Always listen for new <code>DatagramPackets</code>. Service them by
-     * getting the requested ticket, if there are any, from the 
-     * <code>parent</code>.
+     * Always listen for new requests, and hand them to the workers in
+     * batches, until <code>shutdown()</code> is called.
      */
     @Override
     public void run() {
-        DatagramPacket packetIn = new DatagramPacket(new byte[256], 256);
-        while (true) {
+        while (alive) {
             try {
-                /*Recieve packet and decode data*/
-                socket.receive(packetIn);
-                ByteArrayInputStream bis = 
-                        new ByteArrayInputStream(packetIn.getData());
-                ObjectInputStream ois = new ObjectInputStream(bis);
-                String customerNum = (String) ois.readObject();
-
-                /*Get ticket, if any*/
-                int cusNum = Integer.parseInt(customerNum);
-                Ticket ticket = findTicket(cusNum);
-
-                /*Create reply and send it*/
-                byte[] bufferOut;
-                if (ticket != null) {
-                    ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                    ObjectOutputStream oos = new ObjectOutputStream(bos);
-                    oos.writeObject(ticket);
-                    bufferOut = bos.toByteArray();
-                } else {
-                    /*Send datagram with only 1, empty byte */
-                    System.out.println("Ticket NOT found.");
-                    bufferOut = new byte[1];
-                }
-                InetAddress replyAddr = packetIn.getAddress();
-                int replyPort = packetIn.getPort();
-                DatagramPacket packetOut = 
-                        new DatagramPacket(bufferOut, bufferOut.length, 
-                                replyAddr, replyPort);
-                socket.send(packetOut);
+                selector.select();
+                selector.selectedKeys().clear();
+                drain();
             } catch (IOException ex) {
-                System.err.println("IO exception; could not recieve datagram."
-                        + "\nDatagram dropped.");
-            } catch (ClassNotFoundException ex) {
-                System.err.println("Class exception; could not convert data."
+                VehicleLog.warn("IO exception; could not recieve datagram."
                         + "\nDatagram dropped.");
+            } catch (InterruptedException ex) {
+                /*Woken up by shutdown(); loop condition decides*/
+            }
+        }
+        try {
+            selector.close();
+            channel.close();
+        } catch (IOException ex) {
+            System.err.println("Could not close downlink channel.");
+        }
+        workers.shutdown();
+        replySender.close();
+    }
+
+    /**
+     * Receive every request currently queued on the channel.
+     * <p>
+     * @throws IOException          if the channel could not be read.
+     * @throws InterruptedException if interrupted while waiting for a batch.
+     */
+    private void drain() throws IOException, InterruptedException {
+        RequestBatch batch = freeBatches.take();
+        while (true) {
+            if (!batch.receive(channel)) {
+                break;
+            }
+            if (batch.isFull()) {
+                workers.execute(batch);
+                batch = freeBatches.take();
             }
         }
+
+        if (batch.size() != 0) {
+            workers.execute(batch);
+        } else {
+            freeBatches.offer(batch);
+        }
     }
 
     /**
-     * Search the <code>parent</code>'s list of tickets for a
-     * <code>Ticket</code> with the supplied customer number.
+     * Get the port the requests are received on.
      * <p>
-     * @param customerNumber to search for on the tickets.
+     * @return the local port.
      * <p>
-     * @return the ticket if such is found, or NULL otherwise.
+     * @throws IOException if the address could not be read.
+     */
+    public int getLocalPort() throws IOException {
+        return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Stop the handler, close its channels and shut its workers down.
      */
-    private Ticket findTicket(int customerNumber) {
-        System.out.println("Request for Ticket received.");
-        return parent.getTickets().getTicket(customerNumber);
+    public void shutdown() {
+        alive = false;
+        selector.wakeup();
+        interrupt();
     }
 
+
+    /**
+     * Source of the replies that requests are answered with.
+     */
+    public interface TicketSource {
+
+        /**
+         * Get the replies to the current tickets. Called once per batch of
+         * requests.
+         * <p>
+         * @return the replies.
+         */
+        TicketReplies getTicketReplies();
+    }
+
+
+    /**
+     * A reusable group of requests drained from the channel in one wakeup,
+     * and the task that answers them. Like a <code>PongBatch</code>, a batch
+     * belongs to the receiver while it is filled and to one worker
+     * afterwards, and returns to the pool when the replies are sent.
+     */
+    private class RequestBatch implements Runnable {
+
+        private final ByteBuffer[] requests;
+        private final SocketAddress[] senders;
+        private final long[] receivedAt;
+        private final ByteBuffer[] replies;
+        /**Views of the slab of <code>viewsOf</code>, one per request*/
+        private final ByteBuffer[] replyViews;
+        private TicketReplies viewsOf;
+        private final byte[] legacyRequest = new byte[SLOT_SIZE];
+        private int count = 0;
+
+
+        RequestBatch(int capacity) {
+            requests = new ByteBuffer[capacity];
+            senders = new SocketAddress[capacity];
+            receivedAt = new long[capacity];
+            replies = new ByteBuffer[capacity];
+            replyViews = new ByteBuffer[capacity];
+            for (int i = 0; i != capacity; ++i) {
+                requests[i] = ByteBuffer.allocateDirect(SLOT_SIZE);
+            }
+        }
+
+        /**
+         * Receive the next request queued on the channel into the batch.
+         * <p>
+         * @return true if a request was received; false if none was queued.
+         * <p>
+         * @throws IOException if the channel could not be read.
+         */
+        boolean receive(DatagramChannel channel) throws IOException {
+            ByteBuffer slot = requests[count];
+            slot.clear();
+            SocketAddress sender = channel.receive(slot);
+            if (sender == null) {
+                return false;
+            }
+            slot.flip();
+            senders[count] = sender;
+            receivedAt[count] = System.nanoTime();
+            ++count;
+            return true;
+        }
+
+        boolean isFull() {
+            return count == requests.length;
+        }
+
+        int size() {
+            return count;
+        }
+
+        /**
+         * Answer every request of the batch from the same tickets, send the
+         * replies, and recycle the batch. The views of the replies are only
+         * created again when the tickets have been replaced.
+         */
+        @Override
+        public void run() {
+            try {
+                TicketReplies current = tickets.getTicketReplies();
+                if (current != viewsOf) {
+                    for (int i = 0; i != replyViews.length; ++i) {
+                        replyViews[i] = current.newView();
+                    }
+                    viewsOf = current;
+                }
+                int replyCount = 0;
+                for (int i = 0; i != count; ++i) {
+                    ByteBuffer reply = reply(requests[i], replyViews[i]);
+                    if (reply != null) {
+                        replies[replyCount] = reply;
+                        senders[replyCount] = senders[i];
+                        receivedAt[replyCount] = receivedAt[i];
+                        ++replyCount;
+                    }
+                }
+                if (replySender.sendAll(replies, senders, replyCount) != 0) {
+                    VehicleLog.warn("IO exception; could not send ticket."
+                            + "\nReply dropped.");
+                }
+                long sent = System.nanoTime();
+                for (int i = 0; i != replyCount; ++i) {
+                    metrics.ticketRequest(sent - receivedAt[i]);
+                }
+            } catch (IOException ex) {
+                VehicleLog.warn("Interrupted; ticket replies dropped.");
+            } finally {
+                for (int i = 0; i != count; ++i) {
+                    senders[i] = null;
+                    replies[i] = null;
+                }
+                count = 0;
+                freeBatches.offer(this);
+            }
+        }
+
+        /**
+         * Select the reply to a request, in the format of the request: a
+         * binary ticket frame, or a "no ticket" frame, to a binary
+         * <code>WireCodec</code> request, and the serialized ticket, or a
+         * single empty byte, to a legacy serialized customer number.
+         * <p>
+         * @param request the request, ready for reading.
+         * @param view    view of the replies to select the reply in.
+         * <p>
+         * @return the view, or NULL if the request was invalid and dropped.
+         */
+        private ByteBuffer reply(ByteBuffer request, ByteBuffer view) {
+            VehicleLog.debug("Request for Ticket received.");
+            boolean binary = WireCodec.typeOf(request)
+                    == WireCodec.TYPE_TICKET_REQUEST;
+            int cusNum = binary ? WireCodec.decodeCustomer(request)
+                    : legacyCustomer(request);
+            if (cusNum == -1) {
+                VehicleLog.warn("Invalid ticket request; dropped.");
+                return null;
+            }
+            if (!viewsOf.select(view, cusNum, binary)) {
+                VehicleLog.debug("Ticket NOT found.");
+            }
+            return view;
+        }
+
+        /**
+         * Decode a legacy request: a serialized customer number.
+         * <p>
+         * @param request the request, ready for reading.
+         * <p>
+         * @return the customer number, or -1 if the request is invalid.
+         */
+        private int legacyCustomer(ByteBuffer request) {
+            try {
+                int length = request.remaining();
+                request.get(legacyRequest, 0, length);
+                ObjectInputStream ois = new ObjectInputStream(
+                        new ByteArrayInputStream(legacyRequest, 0, length));
+                return Integer.parseInt((String) ois.readObject());
+            } catch (IOException | ClassCastException |
+                     NumberFormatException ex) {
+                return -1;
+            } catch (ClassNotFoundException ex) {
+                VehicleLog.warn("Class exception; could not convert data."
+                        + "\nDatagram dropped.");
+                return -1;
+            }
+        }
+
+    }
 }
@@ -1,106 +1,232 @@
 package VehicleServer;
 
-import java.io.ByteArrayOutputStream;
+import Protocol.AckFrame;
+import Protocol.PingFrame;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 
 /**
- * External thread for sending pings on UDP multicast to PDA devices on-board
- * the vehicle.
+ * Long-lived engine sending pings on UDP multicast to PDA devices on-board
+ * the vehicle. It is created once by the <code>VehicleComputer</code>, keeps
+ * its channel open, and runs the ping sessions on a single scheduled thread,
+ * so departing a station neither creates a thread nor binds a socket. The
+ * ping is encoded once, and the multicast group resolved once, so pinging
+ * allocates nothing.
+ * <p>
+ * A session is started with <code>startSession()</code>. Starting a session
+ * while one runs does not start another: the signals are coalesced into the
+ * running session, which then starts over counting its rounds, and requests
+ * tickets once. How long to wait after each ping, and when a session is
+ * done, is decided by the <code>PingCadence</code> of the parent.
  * <p>
  * @author Andreas Stensig Jensen, on Nov 18, 2014
  * Contributors:
  */
-public class UDPPingSender extends Thread {
+public class UDPPingSender {
 
-    private final int INTERVAL_MS = 1000;
-    private final DatagramSocket socket;
+    private final int DROP_LIMIT = 3;
     private final int localPort = 2222;
     private final int targetPort = 2224;
     private final String multicastAddr = "239.0.1.139";
+    private final DatagramChannel channel;
+    private final InetSocketAddress group;
+    private final PingFrame pingFrame;
+    private final ByteBuffer ackFrame = ByteBuffer.allocateDirect(
+            AckFrame.MAX_SIZE);
     private final VehicleComputer parent;
+    private final PingCadence cadence;
+    private final ScheduledExecutorService scheduler;
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            tick();
+        }
+    };
+
+    /*Session state, guarded by this*/
+    private boolean active = false;
+    private boolean restarted;
+
+    /*Used by the scheduler thread only*/
+    private int drops;
+    private boolean pinged;
 
 
     /**
      * Constructor. Sets the reference for the <code>VehicleComputer</code> that
-     * owns this object, and opens its socket.
+     * owns this object, opens its channel, encodes its ping, and creates the
+     * thread the sessions run on.
      * <p>
-     * @param parent
+     * @param parent           the owner of this object.
+     * @param cadence          the cadence of the pings in a session.
+     * @param ttl              time-to-live of the multicast datagrams.
+     * @param networkInterface name of the network interface to multicast on,
+     *                         or NULL or empty for the default of the
+     *                         system.
      * <p>
-     * @throws SocketException
+     * @throws IOException if the channel could not be opened or configured,
+     *                     or the interface does not exist.
      */
-    public UDPPingSender(VehicleComputer parent) throws SocketException {
+    public UDPPingSender(VehicleComputer parent, PingCadence cadence, int ttl,
+                         String networkInterface) throws IOException {
         this.parent = parent;
-        socket = new DatagramSocket(localPort);
+        this.cadence = cadence;
+        group = new InetSocketAddress(InetAddress.getByName(multicastAddr),
+                                      targetPort);
+        pingFrame = new PingFrame(parent.isBinaryWire());
+        channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        channel.bind(new InetSocketAddress(localPort));
+        channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, ttl);
+        if (networkInterface != null && !networkInterface.isEmpty()) {
+            NetworkInterface nif = NetworkInterface.getByName(
+                    networkInterface);
+            if (nif == null) {
+                channel.close();
+                throw new IOException("No network interface "
+                        + networkInterface);
+            }
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, nif);
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    /**
+     * Start a ping session, or, if one is running, have it start over
+     * counting its rounds. Returns immediately.
+     * <p>
+     * @return true if a new session was started; false if the signal was
+     *         coalesced into the running session.
+     */
+    public synchronized boolean startSession() {
+        restarted = true;
+        if (active) {
+            VehicleLog.info("Ping session already running; extended.");
+            return false;
+        }
+        active = true;
+        scheduler.execute(tick);
+        return true;
+    }
+
+    /**
+     * Test if a ping session is running.
+     * <p>
+     * @return true if a session is running; false otherwise.
+     */
+    public synchronized boolean isSessionActive() {
+        return active;
     }
 
     /**
-     * Main flow of the thread. Sends pings on the multicast address specified
-     * in the <code>multicastAddr</code> field, with the interval specified in
-     * the <code>INTERVAL_MS</CODE> field. It will run until either five
-     * successful pings have been transmitted, or three pings have been dropped.
-     * In the case of the latter, it will call the
-     * <code>systemRestartWarning</code> method in the parent.
+     * One interval of a session. The passengers that replied to the ping of
+     * the previous interval are logged in the parent and, if it aggregates
+     * acks, acknowledged with multicast <code>AckFrame</code>s. Then the next
+     * ping is sent, unless the cadence finds the session done, in which case
+     * the parent is used to get tickets for the passengers and the session
+     * ends.
      * <p>
-     * When five pings have passed the parent will be used to getting tickets
-     * for the passengers that have replied to the pings, after which this
-     * thread terminates.
+     * If three pings are dropped in a session, the
+     * <code>systemRestartWarning</code> method in the parent is called.
      */
-    @Override
-    public void run() {
-        int drops = 0;
-        int passes = 0;
-
-        while (passes != 5) {
-            try {
-                ping();
-                ++passes;
-            } catch (IOException ex) {
-                System.err.println("Ping unsuccessful and dropped.");
-                if (++drops == 3) {
-                    parent.systemRestartWarning(ex);
-                    return;
+    private void tick() {
+        boolean more = true;
+        if (pinged) {
+            int[] heard = parent.filterPassengers();
+            if (parent.isAggregatingAcks()) {
+                try {
+                    acknowledge(heard);
+                } catch (IOException ex) {
+                    System.err.println(
+                            "Aggregated ack unsuccessful and dropped.");
+                }
+            }
+            more = cadence.closeRound(parent.getOnBoard(), heard);
+            VehicleLog.debug("Ping round " + cadence.getRounds()
+                    + " settled in " + cadence.getLastSettleMs()
+                    + " ms; next interval " + cadence.getIntervalMs() + " ms");
+        }
+
+        boolean ending;
+        synchronized (this) {
+            if (restarted) {
+                restarted = false;
+                cadence.startSession();
+                if (!pinged) {
+                    drops = 0;
                 }
+                more = true;
             }
-            try {
-                /*
-                 Sleep for an interval, allowing clients to reply, before 
-                 logging the replies in parent. 
-                 */
-                Thread.sleep(INTERVAL_MS);
-                parent.filterPassengers();
-            } catch (InterruptedException ex) {
+            ending = !more;
+            active = more;
+        }
+        if (ending) {
+            pinged = false;
+            System.out.println(cadence.getRounds()
+                    + " pings passed. Requesting tickets");
+            parent.requestTickets();
+            return;
+        }
+
+        try {
+            cadence.pingSent();
+            ping();
+            pinged = true;
+        } catch (IOException ex) {
+            System.err.println("Ping unsuccessful and dropped.");
+            if (++drops == DROP_LIMIT) {
+                synchronized (this) {
+                    active = false;
+                }
+                pinged = false;
+                parent.systemRestartWarning(ex);
+                return;
             }
         }
-        System.out.println("Five pings passed. Requesting tickets");
-        parent.requestTickets();
-        System.out.println(" Sender terminating.");
-        socket.close();
+        /*Allow clients to reply before logging the replies in parent*/
+        scheduler.schedule(tick, cadence.getIntervalMs(),
+                           TimeUnit.MILLISECONDS);
     }
 
     /**
-     * Serialize ping message and send it as multicast on the socket.
+     * Send the pre-encoded ping of the current round as multicast on the
+     * channel. Allocates nothing.
      * <p>
-     * @throws IOException if an I/O error occurred in either the serialization
-     *                     or the sending of the ping.S
+     * @throws IOException if an I/O error occurred in the sending of the ping.
      */
     private void ping() throws IOException {
-        String msg = "ping";
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        ObjectOutputStream oos = new ObjectOutputStream(bos);
-        oos.writeObject(msg);
-
-        byte[] buffer = bos.toByteArray();
-        InetAddress addr = InetAddress.getByName(multicastAddr);
-        DatagramPacket packetOut = new DatagramPacket(buffer, buffer.length,
-                                                      addr, targetPort);
-        System.out.println("Sending ping");
-        socket.send(packetOut);
+        VehicleLog.debug("Sending ping");
+        channel.send(pingFrame.forRound(parent.getPingRound()), group);
+    }
+
+    /**
+     * Multicast the customer numbers heard in a ping interval, in as many
+     * <code>AckFrame</code>s as needed. Nothing is sent if no one was heard.
+     * <p>
+     * @param heard the customer numbers; sorted in place.
+     * <p>
+     * @throws IOException if a frame could not be sent.
+     */
+    private void acknowledge(int[] heard) throws IOException {
+        Arrays.sort(heard);
+        int from = 0;
+        while (from != heard.length) {
+            ackFrame.clear();
+            from += AckFrame.encode(heard, from, ackFrame);
+            ackFrame.flip();
+            channel.send(ackFrame, group);
+        }
+        VehicleLog.debug("Acknowledged " + heard.length + " passengers");
     }
 
 }
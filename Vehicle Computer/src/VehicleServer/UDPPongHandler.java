@@ -1,82 +1,171 @@
 package VehicleServer;
 
-import java.io.ByteArrayInputStream;
+import Protocol.WireCodec;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.SocketException;
+import java.net.SocketAddress;
 
 
 /**
  * Separate thread for handling received replies (pongs) from pings. This is 
- * class is meant for handing a single pong, and exists only in the span of time
- * it takes to process the pong. 
+ * class is meant for handing a single batch of pongs, and exists only in the 
+ * span of time it takes to process the batch. 
  * <p>
- * Unlike the multicast 
- * <code>UDPPingSender</code>, which exists in an entire ping-session of five 
- * successful pings, this class is singlecast and simply handles the packet 
- * given in its constructor. This allows for multithreaded servicing of pongs 
- * when many clients may respond to a multicast ping in rapid succession. 
+ * Unlike the multicast <code>UDPPingSender</code>, which lives as long as the
+ * vehicle computer and runs every ping-session, at the interval set by its
+ * <code>PingCadence</code>, this class is singlecast and simply handles the
+ * pongs in the <code>PongBatch</code> given in its constructor. This allows
+ * for multithreaded servicing of pongs when many clients may respond to a
+ * multicast ping in rapid succession.
  * 
  * @author Andreas Stensig Jensen, on Nov 10, 2014
  * Contributors: 
  */
 public class UDPPongHandler implements Runnable {
     
+    /**
+     * The serialized "ack" reply, encoded once since it never changes.
+     */
+    static final byte[] LEGACY_ACK = serialize("ack");
+    
+    /**
+     * The ack reply in the binary <code>WireCodec</code> format.
+     */
+    static final byte[] BINARY_ACK = WireCodec.encodeEmpty(WireCodec.TYPE_ACK);
+    
     private final VehicleComputer parent;
-    private final DatagramPacket packet;
-    private final DatagramSocket socket;
+    private final UDPReplySender replySender;
+    private final PongBatch batch;
+    private final byte[] ack;
     
     
     /**
-     * Constructor with the pong-packet that needs to be processed.
+     * Constructor with the batch of pongs that needs to be processed.
      * @param parent the <code>VehicleComputer</code> that owns this object. 
-     * @param packet <code>DatagramPacket</code> pong received from a PDA 
-     * device.
-     * @throws SocketException if the respond-socket cannot be opened. 
+     * @param replySender the shared sender that acks are sent through, or 
+     * NULL if acks are aggregated and not sent per pong.
+     * @param batch pongs received from PDA devices.
      */
-    public UDPPongHandler(VehicleComputer parent, DatagramPacket packet) 
-            throws SocketException {
+    public UDPPongHandler(VehicleComputer parent, UDPReplySender replySender,
+            PongBatch batch) {
         this.parent = parent;
-        this.packet = packet;
-        socket = new DatagramSocket();
+        this.replySender = replySender;
+        this.batch = batch;
+        ack = ackFor(parent.isBinaryWire());
+    }
+    
+    /**
+     * Get the ack reply in the format of the pings.
+     * <p>
+     * @param binary true if pings are sent in the binary format.
+     * <p>
+     * @return the encoded ack; must not be modified.
+     */
+    static byte[] ackFor(boolean binary) {
+        return binary ? BINARY_ACK : LEGACY_ACK;
     }
     
     /**
-     * Main flow of the thread. It retrieves the customer number from the pong
-     * datagram, stores it in the <code>parents</code> list of passengers, and 
-     * sends and ack back to the sender of the pong. 
+     * Main flow of the thread. It retrieves the customer number from each pong
+     * datagram in the batch, stores it in the <code>parents</code> list of 
+     * passengers, and sends and ack back to the sender of the pong. 
      * <p>
-     * Lastly, the thread terminates. 
+     * Lastly, the latency of the batch is recorded, the batch is recycled and
+     * the thread terminates. 
      */
     @Override
     public void run() {
         try {
-            ByteArrayInputStream bis = 
-                    new ByteArrayInputStream(packet.getData());
-            ObjectInputStream ois = new ObjectInputStream(bis);
-            String passenger = (String) ois.readObject();
-            parent.addToPassengers(Integer.parseInt(passenger));
-            
-            String ack = "ack";
+            for (int i = 0; i != batch.size(); ++i) {
+                int customer = readCustomerNumber(i);
+                if (customer != -1) {
+                    acknowledge(customer, readRound(i), batch.getSender(i));
+                }
+            }
+            parent.getMetrics().handlerLatency(
+                    System.nanoTime() - batch.getDispatchedAt());
+        } finally {
+            batch.recycle();
+        }
+    }
+    
+    /**
+     * Get the batch of pongs handled by this object.
+     * <p>
+     * @return the batch.
+     */
+    PongBatch getBatch() {
+        return batch;
+    }
+    
+    /**
+     * Decode the customer number of a single pong of the batch, which may be
+     * a binary frame or a legacy serialized string. The number is parsed in
+     * place by <code>PongDecoder</code>, so this allocates nothing.
+     * <p>
+     * @param index index of the pong in the batch.
+     * <p>
+     * @return the customer number, or -1 if the pong was invalid and dropped.
+     */
+    int readCustomerNumber(int index) {
+        int customer = PongDecoder.customerNumber(batch.getDatagram(index));
+        if (customer == -1) {
+            parent.getMetrics().invalidPong();
+            VehicleLog.debug("Invalid payload of pong; dropped.");
+        }
+        return customer;
+    }
+    
+    /**
+     * Decode the round of the ping a single pong of the batch answers.
+     * <p>
+     * @param index index of the pong in the batch.
+     * <p>
+     * @return the round, or -1 if the pong is legacy.
+     */
+    int readRound(int index) {
+        return PongDecoder.round(batch.getDatagram(index));
+    }
+    
+    /**
+     * Record a passenger in the parent, in the round its pong answered, and
+     * send an ack back to its PDA, unless acks are aggregated. A stale pong
+     * is still acked, since the PDA is on-board; it is only not counted.
+     * <p>
+     * @param customer customer number of the passenger.
+     * @param round    round of the ping answered, or -1 if not known.
+     * @param sender   address the pong was received from.
+     */
+    void acknowledge(int customer, int round, SocketAddress sender) {
+        parent.addToPassengers(customer, round);
+        if (replySender == null) {
+            return;
+        }
+        try {
+            replySender.send(ack, sender);
+        } catch (IOException ex) {
+            VehicleLog.warn("IO exception in sending ack; dropped.");
+        }
+    }
+    
+    /**
+     * Serialize a reply message the way the PDA devices expect it.
+     * <p>
+     * @param message the message to serialize.
+     * <p>
+     * @return the serialized message.
+     */
+    private static byte[] serialize(String message) {
+        try {
             ByteArrayOutputStream bos = new ByteArrayOutputStream();
             ObjectOutputStream oos = new ObjectOutputStream(bos);
-            oos.writeObject(ack);
-            
-            byte[] buffer = bos.toByteArray();
-            InetAddress addr = packet.getAddress();
-            int port = packet.getPort();
-            DatagramPacket reply = new DatagramPacket(buffer, buffer.length, 
-                    addr, port);
-            socket.send(reply);
+            oos.writeObject(message);
+            oos.flush();
+            return bos.toByteArray();
         } catch (IOException ex) {
-            System.err.println("IO exception in reading pong; dropped.");
-        } catch (ClassNotFoundException | NumberFormatException ex) {
-            System.err.println("Invalid payload of pong; dropped.");
+            /*Cannot happen when writing to memory*/
+            throw new IllegalStateException(ex);
         }
     }
 
@@ -0,0 +1,207 @@
+package VehicleServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+
+/**
+ * Receive engine for pongs from PDA devices on-board the vehicle. Instead of
+ * blocking on a <code>DatagramSocket</code> for one datagram at a time, this
+ * class waits on a <code>Selector</code> and, on every wakeup, drains all
+ * datagrams queued on the non-blocking channel into the reusable slots of a
+ * <code>PongBatch</code>. Full batches, and the last partial batch of a
+ * wakeup, are handed to a <code>BatchListener</code>.
+ * <p>
+ * This keeps the kernel receive buffer empty while a whole vehicle of PDAs
+ * answers the same multicast ping, which is where pongs used to be lost.
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 8, 2014
+ * Contributors:
+ */
+public class UDPPongReceiver extends Thread {
+
+    /**
+     * Maximum size of a pong datagram. Serialized customer numbers are far
+     * smaller; this is the size of the packets used before batching.
+     */
+    private final int SLOT_SIZE = 256;
+
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final BatchListener listener;
+    private final PongFilter filter;
+    private final BlockingQueue<PongBatch> freeBatches;
+    private volatile boolean alive = true;
+
+
+    /**
+     * Constructor. Opens and binds the pong channel and allocates all batches.
+     * <p>
+     * @param port       port number to receive pongs on.
+     * @param rcvBuf     requested size of the channel's receive buffer, or 0
+     *                   to keep the default of the operating system.
+     * @param batchSize  number of datagrams per batch.
+     * @param batchCount number of batches that may be in flight at once.
+     * @param filter     filter that every datagram must pass before it is
+     *                   added to a batch, or NULL to accept all.
+     * @param listener   receiver of the filled batches.
+     * <p>
+     * @throws IOException if the channel or selector could not be opened.
+     */
+    public UDPPongReceiver(int port, int rcvBuf, int batchSize, int batchCount,
+                           PongFilter filter, BatchListener listener) throws
+            IOException {
+        this.filter = filter;
+        this.listener = listener;
+        freeBatches = new ArrayBlockingQueue<>(batchCount);
+        for (int i = 0; i != batchCount; ++i) {
+            freeBatches.add(new PongBatch(this, batchSize, SLOT_SIZE));
+        }
+
+        channel = DatagramChannel.open();
+        if (rcvBuf != 0) {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, rcvBuf);
+        }
+        channel.bind(new InetSocketAddress(port));
+        channel.configureBlocking(false);
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+        setName("UDPPongReceiver");
+    }
+
+    /**
+     * Main flow of the thread. Waits for the channel to become readable and
+     * drains it, until <code>shutdown()</code> is called.
+     */
+    @Override
+    public void run() {
+        while (alive) {
+            try {
+                selector.select();
+                selector.selectedKeys().clear();
+                drain();
+            } catch (IOException ex) {
+                System.err.println("Could not receive pongs; dropping.");
+                ex.printStackTrace();
+            } catch (InterruptedException ex) {
+                /*Woken up by shutdown(); loop condition decides*/
+            }
+        }
+        try {
+            selector.close();
+            channel.close();
+        } catch (IOException ex) {
+            System.err.println("Could not close pong channel.");
+        }
+    }
+
+    /**
+     * Receive every datagram currently queued on the channel. If all batches
+     * are in flight the thread waits for one to be recycled, leaving further
+     * datagrams in the kernel buffer in the meantime.
+     * <p>
+     * @throws IOException          if the channel could not be read.
+     * @throws InterruptedException if interrupted while waiting for a batch.
+     */
+    private void drain() throws IOException, InterruptedException {
+        PongBatch batch = freeBatches.take();
+        while (true) {
+            ByteBuffer slot = batch.nextSlot();
+            SocketAddress sender = channel.receive(slot);
+            if (sender == null) {
+                break;
+            }
+            slot.flip();
+            if (filter != null && !filter.accept(slot, sender)) {
+                /*Filtered out; the slot is reused for the next datagram*/
+                continue;
+            }
+            batch.commit(sender);
+            if (batch.isFull()) {
+                listener.batchReceived(batch);
+                batch = freeBatches.take();
+            }
+        }
+
+        if (batch.size() != 0) {
+            listener.batchReceived(batch);
+        } else {
+            recycle(batch);
+        }
+    }
+
+    /**
+     * Return a handled batch to the pool. Called through
+     * <code>PongBatch.recycle()</code>.
+     * <p>
+     * @param batch the empty batch.
+     */
+    void recycle(PongBatch batch) {
+        freeBatches.offer(batch);
+    }
+
+    /**
+     * Get the receive buffer size that the operating system granted the
+     * channel, which may be smaller than the one requested.
+     * <p>
+     * @return the receive buffer size in bytes.
+     * <p>
+     * @throws IOException if the option could not be read.
+     */
+    public int getReceiveBufferSize() throws IOException {
+        return channel.getOption(StandardSocketOptions.SO_RCVBUF);
+    }
+
+    /**
+     * Stop the receiver and close its channel.
+     */
+    public void shutdown() {
+        alive = false;
+        selector.wakeup();
+        interrupt();
+    }
+
+
+    /**
+     * Filter that the <code>UDPPongReceiver</code> runs every received
+     * datagram through, on the receiving thread, before adding it to a batch.
+     */
+    public interface PongFilter {
+
+        /**
+         * Decide if a datagram should be added to a batch. The filter must not
+         * change the position or limit of the datagram.
+         * <p>
+         * @param datagram the received datagram, ready for reading.
+         * @param sender   address the datagram was received from.
+         * <p>
+         * @return true if the datagram should be handled; false if the filter
+         *         has dealt with it.
+         */
+        boolean accept(ByteBuffer datagram, SocketAddress sender);
+    }
+
+
+    /**
+     * Receiver of batches of pongs from the <code>UDPPongReceiver</code>.
+     */
+    public interface BatchListener {
+
+        /**
+         * Called on the receiver thread with a batch holding at least one
+         * datagram. The listener takes over the batch and must eventually
+         * call <code>recycle()</code> on it.
+         * <p>
+         * @param batch the received pongs.
+         */
+        void batchReceived(PongBatch batch);
+    }
+}
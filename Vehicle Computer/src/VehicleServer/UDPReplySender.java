@@ -0,0 +1,173 @@
+package VehicleServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+
+/**
+ * Shared sender of singlecast replies to PDA devices. Keeps a small pool of
+ * <code>DatagramChannel</code>s that are opened once, when the vehicle
+ * computer starts, and borrowed by the pong handler threads for the duration
+ * of a single send. Replying to a pong thus never opens a socket.
+ * <p>
+ * Every channel has its own direct buffer, which small replies given as an
+ * array are copied into, so sending them does not allocate.
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 9, 2014
+ * Contributors:
+ */
+public class UDPReplySender {
+
+    /**Size of the buffer of each channel; larger replies are wrapped*/
+    private final int BUFFER_SIZE = 512;
+
+    private final BlockingQueue<ReplyChannel> channels;
+
+
+    /**
+     * Constructor. Opens the channels of the pool, each bound to an
+     * ephemeral port.
+     * <p>
+     * @param poolSize number of channels in the pool.
+     * <p>
+     * @throws IOException if a channel could not be opened.
+     */
+    public UDPReplySender(int poolSize) throws IOException {
+        channels = new ArrayBlockingQueue<>(poolSize);
+        for (int i = 0; i != poolSize; ++i) {
+            DatagramChannel channel = DatagramChannel.open();
+            channel.bind(new InetSocketAddress(0));
+            channels.add(new ReplyChannel(channel, BUFFER_SIZE));
+        }
+    }
+
+    /**
+     * Send a datagram on one of the pooled channels. Waits for a channel if
+     * all of them are in use by other threads.
+     * <p>
+     * @param payload the remaining bytes of the buffer are sent; its position
+     *                is advanced.
+     * @param target  address to send the datagram to.
+     * <p>
+     * @throws IOException if the datagram could not be sent, or the thread
+     *                     was interrupted while waiting for a channel.
+     */
+    public void send(ByteBuffer payload, SocketAddress target) throws
+            IOException {
+        ReplyChannel reply = take();
+        try {
+            reply.channel.send(payload, target);
+        } finally {
+            channels.offer(reply);
+        }
+    }
+
+    /**
+     * Send a datagram on one of the pooled channels, through the channel's
+     * own buffer. Waits for a channel if all of them are in use by other
+     * threads.
+     * <p>
+     * @param payload the bytes to send; not modified.
+     * @param target  address to send the datagram to.
+     * <p>
+     * @throws IOException if the datagram could not be sent, or the thread
+     *                     was interrupted while waiting for a channel.
+     */
+    public void send(byte[] payload, SocketAddress target) throws IOException {
+        if (payload.length > BUFFER_SIZE) {
+            send(ByteBuffer.wrap(payload), target);
+            return;
+        }
+        ReplyChannel reply = take();
+        try {
+            reply.buffer.clear();
+            reply.buffer.put(payload).flip();
+            reply.channel.send(reply.buffer, target);
+        } finally {
+            channels.offer(reply);
+        }
+    }
+
+    /**
+     * Send a batch of datagrams on one of the pooled channels, which is only
+     * borrowed once for the whole batch. Waits for a channel if all of them
+     * are in use by other threads. A datagram that could not be sent does not
+     * stop the rest of the batch.
+     * <p>
+     * @param payloads the datagrams; the remaining bytes of each are sent,
+     *                 and its position is advanced.
+     * @param targets  address to send each datagram to.
+     * @param count    number of datagrams to send, from the first.
+     * <p>
+     * @return the number of datagrams that could not be sent.
+     * <p>
+     * @throws IOException if the thread was interrupted while waiting for a
+     *                     channel.
+     */
+    public int sendAll(ByteBuffer[] payloads, SocketAddress[] targets,
+                       int count) throws IOException {
+        int failed = 0;
+        ReplyChannel reply = take();
+        try {
+            for (int i = 0; i != count; ++i) {
+                try {
+                    reply.channel.send(payloads[i], targets[i]);
+                } catch (IOException ex) {
+                    ++failed;
+                }
+            }
+        } finally {
+            channels.offer(reply);
+        }
+        return failed;
+    }
+
+    /**
+     * Take a channel from the pool, waiting if none is free.
+     */
+    private ReplyChannel take() throws IOException {
+        try {
+            return channels.take();
+        } catch (InterruptedException ex) {
+            throw new IOException("Interrupted while waiting for a channel.",
+                                  ex);
+        }
+    }
+
+    /**
+     * Close all channels of the pool. Channels that are in use at the time
+     * are not closed.
+     */
+    public void close() {
+        ReplyChannel reply;
+        while ((reply = channels.poll()) != null) {
+            try {
+                reply.channel.close();
+            } catch (IOException ex) {
+                System.err.println("Could not close reply channel.");
+            }
+        }
+    }
+
+
+    /**
+     * A pooled channel together with the buffer that is only used while the
+     * channel is borrowed.
+     */
+    private static class ReplyChannel {
+
+        final DatagramChannel channel;
+        final ByteBuffer buffer;
+
+        ReplyChannel(DatagramChannel channel, int bufferSize) {
+            this.channel = channel;
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+    }
+
+}
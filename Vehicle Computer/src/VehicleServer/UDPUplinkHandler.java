@@ -3,6 +3,11 @@ package VehicleServer;
 
 import ModelClasses.PassengerList;
 import ModelClasses.TicketList;
+import Protocol.ChunkFrame;
+import Protocol.ChunkReassembler;
+import Protocol.PassengerBitmap;
+import Protocol.PassengerDelta;
+import Protocol.WireCodec;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.ByteArrayInputStream;
@@ -13,9 +18,12 @@ import java.io.ObjectOutputStream;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.SocketAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.HashMap;
 import javax.swing.Timer;
 
 
@@ -32,10 +40,6 @@ import javax.swing.Timer;
  */
 public class UDPUplinkHandler {
 
-    /**
-     * Test with serialized <code>TicketList<code> with 800 tickets was 21,833
-     */
-    private final int MAX_IN_BUFFER_SIZE = 21900;
     private final int SEQ_NUM_INDEX = 0;
     private final int TIMEOUT_DELAY_MS = (1000 * 4);
 
@@ -46,11 +50,13 @@ public class UDPUplinkHandler {
     private int handlerPort;                            // Dynamic port
     private InetAddress handlerAddr;                    // Dynamic addr
     private final DatagramSocket socket;
-    private DatagramPacket packetOut;
+    private DatagramPacket[] packetsOut;
     private final Timer timer;
     private byte[] bufferOut;
     private byte[] bufferIn;
     private byte currSeqNum = 1;
+    /**Id of the current request, for chunked transfers*/
+    private int messageId = 0;
 
 
     /**
@@ -88,6 +94,9 @@ public class UDPUplinkHandler {
      * UDP to the <code>UDPTrafficManager</code> and
      * <code>UDPPacketHandler</code>.
      * <p>
+     * The passengers are sent as a <code>WireCodec.TYPE_PASSENGERS</code>
+     * frame if the parent uses the bitmap uplink, and serialized otherwise.
+     * <p>
      * @param passengers list of passengers to get the tickets for.
      * <p>
      * @return a <code>TicketList</code> with all the tickets, or NULL if an
@@ -96,23 +105,69 @@ public class UDPUplinkHandler {
      * @throws IOException if an I/O error occurred in the Streams.
      */
     public TicketList getTicketList(PassengerList passengers) throws IOException {
-        /*Serialize passenger list and send the request to TrafficManager*/
+        /*Encode passenger list and send the request to TrafficManager*/
+        if (parent.isBitmapUplink() && passengers != null) {
+            return request(encodeBitmap(passengers));
+        }
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
         ObjectOutputStream oos = new ObjectOutputStream(bos);
         oos.writeObject(passengers);
-        prepBufferOut(currSeqNum, bos.toByteArray());
-        packetOut = new DatagramPacket(bufferOut, bufferOut.length,
-                                       trafficManAddr, trafficManPort);
+        return request(bos.toByteArray());
+    }
+
+    /**
+     * Get tickets for the passengers who boarded since the last request, as a
+     * <code>PassengerDelta</code> frame. The backend only processes the
+     * boarded passengers; the tickets of the others are kept by the vehicle.
+     * <p>
+     * @param delta the boarded and alighted passengers.
+     * <p>
+     * @return a <code>TicketList</code> with the tickets of the boarded
+     *         passengers, or NULL if an error occurred.
+     * <p>
+     * @throws IOException if an I/O error occurred in the Streams.
+     */
+    public TicketList getTicketDelta(PassengerDelta delta) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(delta.frameSize());
+        delta.encode(frame);
+        return request(frame.array());
+    }
+
+    /**
+     * Send a ticket request to the <code>UDPTrafficManager</code>, receive
+     * the tickets from the handler it assigns, and acknowledge them.
+     * <p>
+     * If <code>VehicleConfig.UPLINK_CHUNK_SIZE</code> is set, the request is
+     * sent as <code>ChunkFrame</code>s of at most that size, and the reply
+     * arrives the same way.
+     * <p>
+     * @param payload the encoded request.
+     * <p>
+     * @return the tickets replied, or NULL if they could not be read.
+     * <p>
+     * @throws IOException if an I/O error occurred in the Streams.
+     */
+    private TicketList request(byte[] payload) throws IOException {
+        messageId = (messageId + 1) & 0xFFFF;
+        byte[][] datagrams = new byte[][]{payload};
+        if (VehicleConfig.UPLINK_CHUNK_SIZE > 0) {
+            /*Leave room for the sequence number*/
+            datagrams = ChunkFrame.split(payload, messageId,
+                                         VehicleConfig.UPLINK_CHUNK_SIZE - 1);
+        }
+        packetsOut = new DatagramPacket[datagrams.length];
+        for (int i = 0; i != datagrams.length; ++i) {
+            prepBufferOut(currSeqNum, datagrams[i]);
+            packetsOut[i] = new DatagramPacket(bufferOut, bufferOut.length,
+                                               trafficManAddr, trafficManPort);
+        }
         sendDatagram();
 
         /*Get reply, store port and addr of Handler and deserialize reply*/
-        bufferIn = new byte[MAX_IN_BUFFER_SIZE];
-        DatagramPacket packetIn = new DatagramPacket(bufferIn, bufferIn.length);
         System.out.println("UplinkHandler: Waiting for Tickets reply.");
-        socket.receive(packetIn);
-        handlerAddr = packetIn.getAddress();
-        handlerPort = packetIn.getPort();
-        ObjectInputStream ois = extractData(packetIn);
+        byte[] reply = receiveReply();
+        ObjectInputStream ois = new ObjectInputStream(
+                new ByteArrayInputStream(reply));
         TicketList tickets = null;
         try {
             tickets = (TicketList) ois.readObject();
@@ -123,12 +178,12 @@ public class UDPUplinkHandler {
         }
 
         /*Send ack, reset seq number, and stop timer*/
-        bos = new ByteArrayOutputStream();
-        oos = new ObjectOutputStream(bos);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
         oos.writeObject("ack");
         prepBufferOut(++currSeqNum, bos.toByteArray());
-        packetOut = new DatagramPacket(bufferOut, bufferOut.length, handlerAddr,
-                                       handlerPort);
+        packetsOut = new DatagramPacket[]{new DatagramPacket(bufferOut,
+                bufferOut.length, handlerAddr, handlerPort)};
         System.out.println("UplinkHandler: sending ack.");
         sendDatagram();
         currSeqNum = 1;
@@ -137,6 +192,70 @@ public class UDPUplinkHandler {
         return tickets;
     }
 
+    /**
+     * Receive the reply to the current request, and store the port and
+     * address of the handler that sent it.
+     * <p>
+     * A chunked reply is collected until complete. If the request was resent,
+     * more than one handler may be replying, so the chunks of each handler
+     * are collected apart, and chunks of an earlier request are ignored.
+     * <p>
+     * @return the payload of the reply.
+     * <p>
+     * @throws IOException if the socket could not receive.
+     */
+    private byte[] receiveReply() throws IOException {
+        HashMap<SocketAddress, ChunkReassembler> replies = new HashMap<>();
+        bufferIn = new byte[VehicleConfig.UPLINK_DATAGRAM_SIZE];
+        DatagramPacket packetIn = new DatagramPacket(bufferIn, bufferIn.length);
+        while (true) {
+            packetIn.setLength(bufferIn.length);
+            socket.receive(packetIn);
+            handlerAddr = packetIn.getAddress();
+            handlerPort = packetIn.getPort();
+            byte[] data = extractData(packetIn);
+            if (!ChunkFrame.isChunk(data, 0, data.length)) {
+                return data;
+            }
+
+            try {
+                ByteBuffer frame = ByteBuffer.wrap(data);
+                if (ChunkFrame.decode(frame.duplicate()).getMessageId()
+                        != messageId) {
+                    continue;
+                }
+                ChunkReassembler reply = replies.get(
+                        packetIn.getSocketAddress());
+                if (reply == null) {
+                    reply = new ChunkReassembler();
+                    replies.put(packetIn.getSocketAddress(), reply);
+                }
+                if (reply.offer(frame)) {
+                    return reply.getMessage();
+                }
+            } catch (IllegalArgumentException ex) {
+                System.err.println("Invalid chunk in reply; dropped.");
+            }
+        }
+    }
+
+    /**
+     * Encode passengers as a <code>WireCodec.TYPE_PASSENGERS</code> frame.
+     * <p>
+     * @param passengers the passengers.
+     * <p>
+     * @return the encoded frame.
+     */
+    private byte[] encodeBitmap(PassengerList passengers) {
+        PassengerBitmap bitmap = (passengers instanceof BitmapPassengerList)
+                ? ((BitmapPassengerList) passengers).getBitmap()
+                : new BitmapPassengerList(passengers).getBitmap();
+        ByteBuffer frame = ByteBuffer.allocate(
+                WireCodec.passengersFrameSize(bitmap));
+        WireCodec.encodePassengers(frame, passengers.getZone(), bitmap);
+        return frame.array();
+    }
+
     /**
      * Fill the output buffer with the supplied sequence number and data.
      * <p>
@@ -154,36 +273,36 @@ public class UDPUplinkHandler {
     }
 
     /**
-     * Extract the data from the current <code>DatagramPacket</code> field by
-     * storing the sequence number in the currSeqNum field, and return an
-     * <code>ObjectInputStream</code> with the data payload.
+     * Extract the data from a received <code>DatagramPacket</code> by
+     * storing the sequence number in the currSeqNum field, and return the
+     * data payload.
      * <p>
      * @param packet the datagram that has been received and from which
      *               data should be extracted.
      * <p>
-     * @return the data payload in an <code>ObjectInputStream</code>.
+     * @return the data payload.
      */
-    private ObjectInputStream extractData(DatagramPacket packet) {
-        bufferIn = packet.getData();
-        currSeqNum = bufferIn[SEQ_NUM_INDEX];
-
-        /*Copy serialized data into new array and load into input streams*/
-        byte[] dataIn = Arrays.copyOfRange(bufferIn, (SEQ_NUM_INDEX + 1),
-                                           bufferIn.length);
-        ByteArrayInputStream bis = new ByteArrayInputStream(dataIn);
-        ObjectInputStream ois = null;
-        try {
-            ois = new ObjectInputStream(bis);
-        } catch (IOException ex) {
-            System.err.println("Could not extract data from datagram.");
-            currSeqNum = -1;
+    private byte[] extractData(DatagramPacket packet) {
+        byte[] data = packet.getData();
+        currSeqNum = data[SEQ_NUM_INDEX];
+        return Arrays.copyOfRange(data, (SEQ_NUM_INDEX + 1),
+                                  packet.getLength());
+    }
+
+    /**
+     * Send the <code>DatagramPacket</code>s of the field, i.e. the request or
+     * all of its chunks, and start the timeout <code>Timer</code> for getting
+     * a reply.
+     */
+    private void sendDatagram() {
+        for (DatagramPacket packet : packetsOut) {
+            send(packet);
         }
-        return ois;
+        timer.start();
     }
 
     /**
-     * Send the <code>DatagramPacket</code> field and start the timeout 
-     * <code>Timer</code> for getting a reply.
+     * Send a <code>DatagramPacket</code>.
      * <p>
      * If the datagram cannot be send the thread sleeps for 10 milliseconds 
      * before trying to resend. If resend is unsuccessful it repeats with a 10 
@@ -191,10 +310,12 @@ public class UDPUplinkHandler {
      * <code>systemRestartWarning</code> method in the 
      * <code>VehicleComputer</code> is called to prompt a restart in the system:
      * Not being able to get tickets is a fatal error.
+     * <p>
+     * @param packet the datagram to send.
      */
-    private void sendDatagram() {
+    private void send(DatagramPacket packet) {
         try {
-            socket.send(packetOut);
+            socket.send(packet);
         } catch (IOException ex) {
             System.err.println("I/O exception in sending Datagram. ");
             ex.printStackTrace();
@@ -204,7 +325,7 @@ public class UDPUplinkHandler {
             }
             /*First retry*/
             try {
-                socket.send(packetOut);
+                socket.send(packet);
             } catch (IOException ex1) {
                 System.err.println("I/O exeption #2 in sending Datagram. ");
                 ex1.printStackTrace();
@@ -214,14 +335,13 @@ public class UDPUplinkHandler {
                 }
                 /*Second retry*/
                 try {
-                    socket.send(packetOut);
+                    socket.send(packet);
                 } catch (IOException ex2) {
                     System.err.println("I/O exeption #3 in sending Datagram. ");
                     parent.systemRestartWarning(ex2);
                 }
             }
         }
-        timer.start();
     }
 
 
@@ -232,7 +352,7 @@ public class UDPUplinkHandler {
     class TimeoutListener implements ActionListener {
 
         /**
-         * Resend the current <code>DatagramPacket</code> stored in the field 
+         * Resend the current <code>DatagramPacket</code>s stored in the field 
          * variable. 
          * <p>
          * @param e not used.
@@ -3,6 +3,8 @@ package VehicleServer;
 
 import ModelClasses.PassengerList;
 import ModelClasses.TicketList;
+import Protocol.PassengerBitmap;
+import Protocol.PassengerDelta;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -11,16 +13,10 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.RandomAccessFile;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.SocketException;
-import java.net.UnknownHostException;
 import java.util.Scanner;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
 
 
 /**
@@ -32,12 +28,15 @@ import java.util.concurrent.TimeUnit;
  * @author Andreas Stensig Jensen, on 01-11-2014
  * Contributors:
  */
-public class VehicleComputer extends Thread implements ExternalVehicleSignals {
+public class VehicleComputer extends Thread implements ExternalVehicleSignals,
+        UDPDownlinkHandler.TicketSource {
 
     private final String BACKUP_FILE_NAME = "vc_backup.txt";
     private final int QUEUE_SIZE = 20;
     private final int CORE_POOL_SIZE = 10;
     private final int MAX_POOL_SIZE = 20;
+    private final int PING_INTERVAL_MS = 1000;
+    private final int PINGS_PER_SESSION = 5;
 
     /**
      * Time for an excessive thread to exist, in seconds, before being closed
@@ -46,13 +45,29 @@ public class VehicleComputer extends Thread implements ExternalVehicleSignals {
 
     private int currentZone = 1;
     private final int pongPort = 2223;
+    private final int downlinkPort = 2225;
     private final int trafficManTargetPort = 2408;
-    private PassengerList pingedPassengers;
-    private PassengerList activePassengers;
-    private TicketList tickets;
+    private EpochPassengerBuffer pingedPassengers;
+    private PresenceTracker presence;
+    /*Passengers and zone of the current tickets, guarded by this*/
+    private PassengerBitmap ticketedPassengers;
+    private int ticketedZone;
+    private volatile PassengerList activePassengers;
+    private volatile TicketStore tickets = TicketStore.EMPTY;
+    /**Replies to the current tickets, for the downlink*/
+    private volatile TicketReplies replies = TicketReplies.EMPTY;
     private UDPUplinkHandler uplinkHandler;
     private UDPDownlinkHandler downlinkHandler;
     private UDPPingSender pingSender;
+    private PingCadence cadence;
+    private UDPReplySender replySender;
+    private PongOverloadPolicy overloadPolicy;
+    private PongDeduplicator pongDeduplicator;
+    private boolean aggregateAcks;
+    private boolean binaryWire;
+    private boolean bitmapUplink;
+    private boolean deltaUplink;
+    private final VehicleMetrics metrics = new VehicleMetrics();
 
 
     /**
@@ -74,15 +89,83 @@ public class VehicleComputer extends Thread implements ExternalVehicleSignals {
             /*Load passengers and tickets from backup, or manual initialize*/
             if (!readBackup()) {
                 activePassengers = null;
-                tickets = new TicketList();
+                setTickets(TicketStore.EMPTY);
             }
-            pingedPassengers = new PassengerList(currentZone);
+            pingedPassengers = new EpochPassengerBuffer(
+                    VehicleConfig.PASSENGER_STRIPES,
+                    VehicleConfig.EXPECTED_PASSENGERS);
+            presence = new PresenceTracker(VehicleConfig.PRESENCE_WINDOW,
+                                           VehicleConfig.PRESENCE_REQUIRED,
+                                           VehicleConfig.EXPECTED_PASSENGERS);
             uplinkHandler = new UDPUplinkHandler(this, uplinkPort,
                                                  trafficManTargetPort,
                                                  trafficManAddr);
-            downlinkHandler = new UDPDownlinkHandler(this);
-        } catch (NumberFormatException | UnknownHostException |
-                 SocketException ex) {
+            downlinkHandler = new UDPDownlinkHandler(this, metrics,
+                    downlinkPort, VehicleConfig.DOWNLINK_RCVBUF,
+                    VehicleConfig.DOWNLINK_EXECUTOR,
+                    VehicleConfig.DOWNLINK_WORKERS,
+                    VehicleConfig.DOWNLINK_BATCH_SIZE);
+            replySender = new UDPReplySender(VehicleConfig.REPLY_CHANNELS);
+            switch (VehicleConfig.ACK_MODE) {
+                case "unicast":
+                    aggregateAcks = false;
+                    break;
+                case "aggregate":
+                    aggregateAcks = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown ack mode: "
+                            + VehicleConfig.ACK_MODE);
+            }
+            switch (VehicleConfig.WIRE_FORMAT) {
+                case "legacy":
+                    binaryWire = false;
+                    break;
+                case "binary":
+                    binaryWire = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown wire format: "
+                            + VehicleConfig.WIRE_FORMAT);
+            }
+            switch (VehicleConfig.UPLINK_FORMAT) {
+                case "legacy":
+                    bitmapUplink = false;
+                    break;
+                case "bitmap":
+                    bitmapUplink = true;
+                    break;
+                case "delta":
+                    bitmapUplink = true;
+                    deltaUplink = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException(
+                            "Unknown uplink format: "
+                            + VehicleConfig.UPLINK_FORMAT);
+            }
+            switch (VehicleConfig.PING_CADENCE) {
+                case "fixed":
+                    cadence = PingCadence.fixed(PING_INTERVAL_MS,
+                                                PINGS_PER_SESSION);
+                    break;
+                case "adaptive":
+                    cadence = new PingCadence(VehicleConfig.PING_INTERVAL_MIN,
+                                              VehicleConfig.PING_INTERVAL_MAX,
+                                              VehicleConfig.PING_STABLE_ROUNDS,
+                                              PINGS_PER_SESSION);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown ping cadence: "
+                            + VehicleConfig.PING_CADENCE);
+            }
+            pingSender = new UDPPingSender(this, cadence,
+                                           VehicleConfig.PING_TTL,
+                                           VehicleConfig.PING_INTERFACE);
+            overloadPolicy = PongOverloadPolicy.forName(
+                    VehicleConfig.PONG_OVERLOAD, this,
+                    VehicleConfig.PONG_COALESCE_SIZE);
+        } catch (IllegalArgumentException | IOException ex) {
             System.err.println("Fatal error in VehicleComputer setup.");
             ex.printStackTrace();
             System.exit(-1);
@@ -90,67 +173,102 @@ public class VehicleComputer extends Thread implements ExternalVehicleSignals {
     }
 
     /**
-     * Non-terminating <code>run()</code> method that maintains a
-     * <code>ThreadPool</code> with worker threads for handling ping replies
-     * from client PDAs on-board the vehicle.
+     * Non-terminating <code>run()</code> method that maintains an executor
+     * for handling ping replies from client PDAs on-board the vehicle; by
+     * default a <code>ThreadPool</code>, or a virtual thread per task if
+     * selected with <code>vc.pong.executor</code>. The pongs themselves are
+     * drained by a <code>UDPPongReceiver</code> thread, which hands them to
+     * the executor in batches; this thread waits for it, and shuts it down
+     * if interrupted.
      */
     @Override
     public void run() {
         downlinkHandler.start();
 
-        /*Create a thead pool with a blocking queue*/
-        BlockingQueue<Runnable> blockQueue
-                = new ArrayBlockingQueue<>(QUEUE_SIZE);
-        ThreadPoolExecutor executor = new ThreadPoolExecutor(CORE_POOL_SIZE,
-                                                             MAX_POOL_SIZE,
-                                                             EXCESS_POOL_TIMEOUT,
-                                                             TimeUnit.SECONDS,
-                                                             blockQueue);
-        executor.setRejectedExecutionHandler(new RejectPongExecuteHandler());
-
-        /*Open socket for pongs and prestart executor threads*/
-        DatagramSocket pongSocket = null;
+        /*Create the executor and open the pong channel*/
+        ExecutorService executor = null;
+        UDPPongReceiver pongReceiver = null;
         try {
-            pongSocket = new DatagramSocket(pongPort);
-        } catch (SocketException ex) {
+            executor = PongExecutors.create(VehicleConfig.PONG_EXECUTOR,
+                                            CORE_POOL_SIZE, MAX_POOL_SIZE,
+                                            EXCESS_POOL_TIMEOUT, QUEUE_SIZE,
+                                            overloadPolicy);
+            pongDeduplicator = new PongDeduplicator(this, getPongAckSender(),
+                    VehicleConfig.EXPECTED_PASSENGERS);
+            overloadPolicy.setDeduplicator(pongDeduplicator);
+            pongReceiver = new UDPPongReceiver(pongPort,
+                                               VehicleConfig.PONG_RCVBUF,
+                                               VehicleConfig.PONG_BATCH_SIZE,
+                                               VehicleConfig.PONG_BATCH_COUNT,
+                                               pongDeduplicator,
+                                               new PongDispatcher(executor));
+        } catch (IllegalArgumentException ex) {
+            System.err.println("Invalid pong executor. Restart required.");
+            ex.printStackTrace();
+            System.exit(-1);
+        } catch (IOException ex) {
             System.err.println("Could not open pong socket. Restart required.");
             ex.printStackTrace();
             System.exit(-1);
         }
-        executor.prestartAllCoreThreads();
+
+        startMetrics(executor);
 
         /*Listen for pongs and distribute them to executor threads*/
-        while (true) {
-            DatagramPacket packetIn = new DatagramPacket(new byte[256], 256);
+        pongReceiver.start();
+        try {
+            pongReceiver.join();
+        } catch (InterruptedException ex) {
+            pongReceiver.shutdown();
+        }
+    }
+
+    /**
+     * Expose the metrics of the pong pipeline over JMX and, unless disabled,
+     * the local <code>MetricsEndpoint</code>. Neither is required for the
+     * vehicle to run, so failures are only reported.
+     * <p>
+     * @param executor the executor running the pong handlers.
+     */
+    private void startMetrics(ExecutorService executor) {
+        metrics.attach(overloadPolicy, pongDeduplicator, executor);
+        try {
+            metrics.register();
+        } catch (JMException ex) {
+            System.err.println("Could not register metrics MBean.");
+            ex.printStackTrace();
+        }
+        if (VehicleConfig.METRICS_PORT != 0) {
             try {
-                pongSocket.receive(packetIn);
-                executor.execute(new UDPPongHandler(this, packetIn));
+                new MetricsEndpoint(VehicleConfig.METRICS_PORT, metrics)
+                        .start();
             } catch (IOException ex) {
-                System.err.println("Could not receive pong packet; dropping.");
+                System.err.println("Could not open metrics endpoint.");
                 ex.printStackTrace();
             }
         }
     }
 
+    /**
+     * Get the metrics of the pong pipeline and ticket requests.
+     * <p>
+     * @return the metrics.
+     */
+    public VehicleMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Interface method implementation to an external signal (or simulation)
      * indicating that the vehicle has left the station/stop. This initiate
      * pinging of <code>PDAApplication</code> clients in the vicinity of the
-     * vehicle.
+     * vehicle. If a ping session is already running, the signal is coalesced
+     * into it.
      */
     @Override
     public void leftStation() {
         System.out.println("VC: Left station");
-        try {
-            pingSender = new UDPPingSender(this);
-            pingSender.start();
-        } catch (SocketException ex) {
-            System.err.println(
-                    "Fatal error in VehicleComputer ping initiation.");
-            ex.printStackTrace();
-            System.exit(-1);
-        }
-
+        pingSender.startSession();
     }
 
     /**
@@ -166,50 +284,157 @@ public class VehicleComputer extends Thread implements ExternalVehicleSignals {
         
         /*
          If pings have been performed, change zone of active list and 
-         request new tickets. Else set zone of pinged list and initate pinging,
-         which terminates in getting tickets. 
+         request new tickets. Else initate pinging, which terminates in getting
+         tickets; the pinged passengers are given the current zone when they
+         are filtered. 
         */
         if (activePassengers != null) {
             activePassengers.setZone(currentZone);
             requestTickets();
         } else {
             System.out.println("VC: missing pings. . . pinging.");
-            pingedPassengers.setZone(currentZone);
             leftStation();
         }
     }
 
     /**
-     * Returns a deep-copy of the <code>TicketList</code> field object.
+     * Returns a deep-copy of the tickets as a <code>TicketList</code>.
      * <p>
      * @return a copy of the ticket list.
      */
     public TicketList getTickets() {
-        return new TicketList(tickets);
+        return tickets.toTicketList();
     }
 
     /**
-     * Compare the list of pinged passengers with the list of active passengers.
-     * The result overrides the list of active passengers, thus keeping that
-     * list updated, while the list of pinged passengers is cleared.
+     * Get the current tickets. The store is immutable and replaced as a
+     * whole when new tickets arrive, so lookups in it take no lock and never
+     * see a ticket list that is being replaced.
      * <p>
-     * Test with 800 passengers show an execution time at around seven to eight
-     * milliseconds, which is acceptable for being used in-between pings going
-     * out with an interval of about a second.
+     * @return the tickets.
      */
-    public void filterPassengers() {
-        if (activePassengers == null) {
-            /*Copy pinged list into active and reset pinged list*/
-            System.out.println("First passenger filter.");
-            activePassengers = new PassengerList(pingedPassengers);
-            pingedPassengers = new PassengerList(currentZone);
-        } else {
-            System.out.println("Subsequent passenger filter.");
-            /*Store duplicates in active, and reset pinged*/
-            activePassengers = pingedPassengers.getDuplicatePassengers(
-                    activePassengers);
-            pingedPassengers = new PassengerList(currentZone);
+    public TicketStore getTicketStore() {
+        return tickets;
+    }
+
+    /**
+     * Get the replies to ticket requests for the current tickets, encoded
+     * when the tickets were replaced.
+     * <p>
+     * @return the replies.
+     */
+    @Override
+    public TicketReplies getTicketReplies() {
+        return replies;
+    }
+
+    /**
+     * Replace the current tickets, and encode the replies to them. Called by
+     * the constructor, and by <code>requestTickets</code> holding the lock.
+     * <p>
+     * @param store the new tickets.
+     */
+    private void setTickets(TicketStore store) {
+        tickets = store;
+        replies = (store == TicketStore.EMPTY) ? TicketReplies.EMPTY
+                : new TicketReplies(store);
+    }
+
+    /**
+     * Close the current ping round: record the pinged passengers in the
+     * <code>PresenceTracker</code>, and replace the list of active passengers
+     * with those it finds on-board, i.e. who replied in enough of the recent
+     * rounds, while the set of pinged passengers is cleared. Passengers
+     * restored from a backup stay active until the first round is closed.
+     * <p>
+     * The round of pinged passengers is closed by flipping the epoch of their
+     * <code>EpochPassengerBuffer</code>, so pongs recorded while filtering
+     * count in the next round, and the pong handlers never wait for it.
+     * Recording takes constant time per pong, and the active passengers are
+     * kept as a <code>BitmapPassengerList</code>.
+     * <p>
+     * @return the customer numbers of the passengers that ponged in the round,
+     *         in no particular order.
+     */
+    public int[] filterPassengers() {
+        /*Record pongs held back by the overload policy in this round*/
+        overloadPolicy.flush();
+
+        /*Close the round of pinged and start the next*/
+        int[] pinged = pingedPassengers.flip();
+        metrics.roundFiltered(pinged.length);
+        for (int customer : pinged) {
+            presence.record(customer);
         }
+        PassengerList onBoard = new BitmapPassengerList(currentZone,
+                                                        presence.closeRound());
+        activePassengers = onBoard;
+        VehicleLog.debug("Passenger filter: " + onBoard.size()
+                + " on-board, " + pinged.length + " heard.");
+        return pinged;
+    }
+
+    /**
+     * Get the passengers found on-board by the last closed ping round.
+     * <p>
+     * @return the passengers, or NULL if no round has been closed since
+     *         startup.
+     */
+    PassengerBitmap getOnBoard() {
+        PassengerList onBoard = activePassengers;
+        return (onBoard instanceof BitmapPassengerList)
+                ? ((BitmapPassengerList) onBoard).getBitmap() : null;
+    }
+
+    /**
+     * Test if pongs are acknowledged with one multicast frame per ping
+     * interval, rather than an "ack" per pong.
+     * <p>
+     * @return true if acks are aggregated; false otherwise.
+     */
+    public boolean isAggregatingAcks() {
+        return aggregateAcks;
+    }
+
+    /**
+     * Test if pings, and the acks of their pongs, are sent in the binary
+     * <code>WireCodec</code> format rather than as serialized strings.
+     * <p>
+     * @return true if the binary format is used; false otherwise.
+     */
+    public boolean isBinaryWire() {
+        return binaryWire;
+    }
+
+    /**
+     * Test if ticket list requests carry the passengers as a
+     * <code>PassengerBitmap</code> frame rather than a serialized
+     * <code>PassengerList</code>.
+     * <p>
+     * @return true if the bitmap frame is used; false otherwise.
+     */
+    public boolean isBitmapUplink() {
+        return bitmapUplink;
+    }
+
+    /**
+     * Get the sender that pongs are acknowledged through one at a time.
+     * <p>
+     * @return the reply sender, or NULL if acks are aggregated.
+     */
+    private UDPReplySender getPongAckSender() {
+        return aggregateAcks ? null : replySender;
+    }
+
+    /**
+     * Get the number of the current ping round, which is incremented every
+     * time the passengers are filtered. It is the epoch of the pinged
+     * passengers, so a pong is recorded in the round this returns.
+     * <p>
+     * @return the round number.
+     */
+    public int getPingRound() {
+        return pingedPassengers.getEpoch();
     }
 
     /**
@@ -218,19 +443,58 @@ public class VehicleComputer extends Thread implements ExternalVehicleSignals {
      * method will retry up to five times before commencing a system-reboot
      * request; being unable to get tickets for its passengers is a fatal error.
      * <p>
-     * The tickets are stored in a field variable.
+     * The tickets are stored in a <code>TicketStore</code>, and the replies
+     * to them encoded in <code>TicketReplies</code>, which replace those used
+     * by the downlink at once. No request is made if the
+     * tickets already are for the same passengers in the same zone, as when
+     * a ping session ends without anyone boarding or leaving.
+     * <p>
+     * With the delta uplink, only the passengers who boarded and alighted
+     * since the last successful request are sent, as a
+     * <code>PassengerDelta</code>; the tickets of the alighted passengers are
+     * dropped, and those of the boarded ones merged into the tickets kept. If
+     * no one boarded, no request is made at all.
+     * <p>
+     * Called by the ping sender when a session ends, and on a zone transit.
+     * The method is synchronized, so one request at a time reads and replaces
+     * the tickets and the passengers they are for; another waits, and then
+     * finds the tickets already requested for the same passengers.
      */
-    public void requestTickets() {
+    public synchronized void requestTickets() {
+        PassengerList passengers = activePassengers;
+        PassengerBitmap requested = (passengers == null) ? null
+                : new BitmapPassengerList(passengers).getBitmap();
+        if (requested != null && currentZone == ticketedZone
+                && requested.equals(ticketedPassengers)) {
+            VehicleLog.info("Passengers unchanged; tickets not requested.");
+            return;
+        }
+
+        PassengerDelta delta = null;
+        if (deltaUplink && requested != null && ticketedPassengers != null) {
+            delta = PassengerDelta.between(currentZone, ticketedPassengers,
+                                           requested);
+            if (delta.getBoarded().isEmpty()) {
+                VehicleLog.info("No passengers boarded; tickets not"
+                        + " requested.");
+                setTickets(mergeTickets(tickets, delta, new TicketList()));
+                ticketedPassengers = requested;
+                ticketedZone = currentZone;
+                return;
+            }
+        }
+
         TicketList newTickets = null;
+        long start = System.currentTimeMillis();
         try {
             /*Try up to five times*/
             for (int i = 0; i != 5 && newTickets == null; ++i) {
-                newTickets = uplinkHandler.getTicketList(activePassengers);
+                newTickets = fetchTickets(passengers, delta);
             }
         } catch (IOException ex) {
             try {
                 /*Retry*/
-                newTickets = uplinkHandler.getTicketList(activePassengers);
+                newTickets = fetchTickets(passengers, delta);
             } catch (IOException ex1) {
                 /*If still not successful, request a restart of the system*/
                 systemRestartWarning(ex1);
@@ -241,8 +505,45 @@ public class VehicleComputer extends Thread implements ExternalVehicleSignals {
         if (newTickets == null) {
             systemRestartWarning(new NullPointerException());
         }
+        metrics.uplinkRequest(System.currentTimeMillis() - start);
+
+        setTickets((delta == null) ? new TicketStore(newTickets)
+                : mergeTickets(tickets, delta, newTickets));
+        ticketedPassengers = requested;
+        ticketedZone = currentZone;
+    }
+
+    /**
+     * Make one ticket request through the <code>UDPUplinkHandler</code>.
+     * <p>
+     * @param passengers the passengers on-board.
+     * @param delta      the change since the last request, or NULL to
+     *                   request tickets for all passengers.
+     * <p>
+     * @return the tickets, or NULL if the reply could not be read.
+     * <p>
+     * @throws IOException if the request failed.
+     */
+    private TicketList fetchTickets(PassengerList passengers,
+                                    PassengerDelta delta) throws IOException {
+        return (delta == null) ? uplinkHandler.getTicketList(passengers)
+                : uplinkHandler.getTicketDelta(delta);
+    }
 
-        tickets = newTickets;
+    /**
+     * Merge the tickets of a delta request into the tickets kept: the
+     * tickets of alighted passengers are dropped, and those of boarded
+     * passengers replace any kept for them.
+     * <p>
+     * @param current        the tickets kept.
+     * @param delta          the passengers who boarded and alighted.
+     * @param boardedTickets the tickets replied for the boarded passengers.
+     * <p>
+     * @return a new store with the merged tickets.
+     */
+    static TicketStore mergeTickets(TicketStore current, PassengerDelta delta,
+                                    TicketList boardedTickets) {
+        return new TicketStore(current, delta, boardedTickets);
     }
 
     /**
@@ -262,7 +563,7 @@ public class VehicleComputer extends Thread implements ExternalVehicleSignals {
             ObjectOutputStream oos = new ObjectOutputStream(bos);
             oos.writeObject(activePassengers);
             oos.flush();
-            oos.writeObject(tickets);
+            oos.writeObject(tickets.toTicketList());
             byte[] data = bos.toByteArray();
 
             /*Write to file*/
@@ -295,15 +596,16 @@ public class VehicleComputer extends Thread implements ExternalVehicleSignals {
         try {
             /*Read backup file*/
             RandomAccessFile raf = new RandomAccessFile(backup, "r");
-            /*Actual size for 800 passengers and tickets: 21900+8300 = 30200*/
-            byte[] buff = new byte[31000];
-            raf.read(buff);
+            /*Read the whole file; its size grows with the passengers*/
+            byte[] buff = new byte[(int) raf.length()];
+            raf.readFully(buff);
+            raf.close();
 
             /*Deserialize objects and load into fields*/
             ByteArrayInputStream bis = new ByteArrayInputStream(buff);
             ObjectInputStream ois = new ObjectInputStream(bis);
             activePassengers = (PassengerList) ois.readObject();
-            tickets = (TicketList) ois.readObject();
+            setTickets(new TicketStore((TicketList) ois.readObject()));
         } catch (FileNotFoundException ex) {
             System.err.println("Could not create file reader.");
             ex.printStackTrace();
@@ -318,33 +620,86 @@ public class VehicleComputer extends Thread implements ExternalVehicleSignals {
     }
 
     /**
-     * Add a customer/passenger to the list of pinged passengers.
+     * Add a customer/passenger to the set of pinged passengers. May be called
+     * by many pong handler threads at once without any global lock, and never
+     * waits for the passengers to be filtered.
      * <p>
      * @param CustomerNumber customer number of the passenger.
      */
-    public synchronized void addToPassengers(int CustomerNumber) {
-        pingedPassengers.addSinglePassenger(CustomerNumber);
+    public void addToPassengers(int CustomerNumber) {
+        if (pingedPassengers.add(CustomerNumber)) {
+            cadence.pongArrived();
+        }
     }
 
+    /**
+     * Add a customer/passenger to the set of pinged passengers of the round
+     * its pong answered. A pong of a round already filtered is stale and
+     * discarded, however late it was handled. Like
+     * <code>addToPassengers(int)</code>, this never takes a global lock.
+     * <p>
+     * @param customerNumber customer number of the passenger.
+     * @param round          round of the ping the pong answered, or -1 if the
+     *                       pong carried none, in which case it is recorded
+     *                       in the current round.
+     */
+    public void addToPassengers(int customerNumber, int round) {
+        if (round == -1) {
+            addToPassengers(customerNumber);
+            return;
+        }
+        switch (pingedPassengers.addInRound(customerNumber, round)) {
+            case EpochPassengerBuffer.ADDED:
+                cadence.pongArrived();
+                break;
+            case EpochPassengerBuffer.STALE:
+                metrics.stalePong();
+                break;
+            default:
+                break;
+        }
+    }
 
     /**
-     * Custom <code>RejectedExecutionHandler</code> for handling rejected
-     * <code>Runnable</code> tasks for a <code>ThreadPool</code>.
+     * Test if a customer has already been recorded in the current ping round.
+     * <p>
+     * @param customerNumber customer number of the passenger.
      * <p>
-     * This implementation pauses the attempt for 10 milliseconds before trying
-     * to execute it again.
+     * @return true if a pong from the customer has been recorded in the round.
+     */
+    public boolean hasPonged(int customerNumber) {
+        return pingedPassengers.contains(customerNumber);
+    }
+
+
+    /**
+     * <code>BatchListener</code> that hands every batch of pongs from the
+     * <code>UDPPongReceiver</code> to a <code>UDPPongHandler</code> in the
+     * executor.
      */
-    class RejectPongExecuteHandler implements RejectedExecutionHandler {
+    class PongDispatcher implements UDPPongReceiver.BatchListener {
+
+        private final ExecutorService executor;
+
+
+        /**
+         * Constructor.
+         * <p>
+         * @param executor the executor that runs the pong handlers.
+         */
+        PongDispatcher(ExecutorService executor) {
+            this.executor = executor;
+        }
 
         @Override
-        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
-            System.err.println("Rejected from queue. 10 ms sleep");
-            try {
-                Thread.sleep(10);
-            } catch (InterruptedException ex) {
+        public void batchReceived(PongBatch batch) {
+            batch.markDispatched();
+            /*Only a bounded pool can be saturated*/
+            if (executor instanceof ThreadPoolExecutor) {
+                overloadPolicy.beforeDispatch((ThreadPoolExecutor) executor);
             }
-            System.err.println("Retrying");
-            executor.execute(r);
+            executor.execute(new UDPPongHandler(VehicleComputer.this,
+                                                getPongAckSender(), batch));
         }
 
     }
@@ -376,6 +731,8 @@ public class VehicleComputer extends Thread implements ExternalVehicleSignals {
         System.out.println("  External signal-interface. Inputs can be:");
         System.out.println("   leftstation");
         System.out.println("   zonetransit <zone number .. 1 through 5>");
+        System.out.println("   pongstats");
+        System.out.println("   metrics");
         System.out.println("   quit");
         while (true) {
             switch (cin.nextLine()) {
@@ -403,6 +760,15 @@ public class VehicleComputer extends Thread implements ExternalVehicleSignals {
                     vc.zoneTransit(5);
                     break;
 
+                case "pongstats":
+                    System.out.println("  " + vc.overloadPolicy);
+                    System.out.println("  " + vc.pongDeduplicator);
+                    break;
+
+                case "metrics":
+                    System.out.print(vc.metrics.report());
+                    break;
+
                 case "quit":
                     System.exit(1);
                     break;
@@ -413,6 +779,8 @@ public class VehicleComputer extends Thread implements ExternalVehicleSignals {
                     System.out.println("   leftstation");
                     System.out.println("   zonetransit <zone number .. 1 "
                             + "through 5>");
+                    System.out.println("   pongstats");
+                    System.out.println("   metrics");
                     System.out.println("   quit");
                     break;
             }
@@ -0,0 +1,254 @@
+package VehicleServer;
+
+
+/**
+ * Launch-time settings for the systems running on the vehicle. Every setting
+ * can be overridden with a system property given to the JVM, e.g.
+ * <code>java -Dvc.pong.rcvbuf=2097152 VehicleServer.VehicleComputer ...</code>,
+ * and falls back to the default stated with it otherwise.
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 8, 2014
+ * Contributors:
+ */
+final class VehicleConfig {
+
+    /**
+     * Requested receive buffer (SO_RCVBUF) of the pong channel, in bytes. The
+     * operating system may cap this value. Property: <code>vc.pong.rcvbuf</code>,
+     * default 1 MiB; enough for a few thousand pongs queued in the kernel.
+     */
+    static final int PONG_RCVBUF = Integer.getInteger("vc.pong.rcvbuf",
+                                                      1024 * 1024);
+
+    /**
+     * Number of datagrams drained into one <code>PongBatch</code> before it is
+     * handed off. Property: <code>vc.pong.batchsize</code>, default 32.
+     */
+    static final int PONG_BATCH_SIZE = Integer.getInteger("vc.pong.batchsize",
+                                                          32);
+
+    /**
+     * Number of <code>PongBatch</code> objects that may be in flight at once.
+     * Property: <code>vc.pong.batches</code>, default 64.
+     */
+    static final int PONG_BATCH_COUNT = Integer.getInteger("vc.pong.batches",
+                                                           64);
+
+    /**
+     * Number of channels shared by the pong handlers for sending acks.
+     * Property: <code>vc.reply.channels</code>, default 4.
+     */
+    static final int REPLY_CHANNELS = Integer.getInteger("vc.reply.channels",
+                                                         4);
+
+    /**
+     * Number of independently locked stripes in the set of pinged passengers.
+     * Property: <code>vc.passenger.stripes</code>, default 1, i.e. a single
+     * lock; see <code>ConcurrentPassengerSet</code>.
+     */
+    static final int PASSENGER_STRIPES = Integer.getInteger(
+            "vc.passenger.stripes", 1);
+
+    /**
+     * Name of the <code>PongOverloadPolicy</code> used when the pong executor
+     * is saturated. Property: <code>vc.pong.overload</code>, one of
+     * <code>dropnewest</code>, <code>dropduplicate</code>,
+     * <code>callerruns</code> (default) or <code>coalesce</code>.
+     */
+    static final String PONG_OVERLOAD = System.getProperty("vc.pong.overload",
+                                                           "callerruns");
+
+    /**
+     * Maximum number of pongs held by the <code>coalesce</code> overload
+     * policy. Property: <code>vc.pong.coalesce</code>, default 256.
+     */
+    static final int PONG_COALESCE_SIZE = Integer.getInteger(
+            "vc.pong.coalesce", 256);
+
+    /**
+     * Executor mode for the pong handlers, see <code>PongExecutors</code>.
+     * Property: <code>vc.pong.executor</code>, either <code>pool</code>
+     * (default) or <code>virtual</code>, which requires Java 21.
+     */
+    static final String PONG_EXECUTOR = System.getProperty("vc.pong.executor",
+                                                           "pool");
+
+    /**
+     * How pongs are acknowledged. Property: <code>vc.ack.mode</code>, either
+     * <code>unicast</code> (default), an "ack" to every pong, or
+     * <code>aggregate</code>, one multicast <code>AckFrame</code> listing the
+     * passengers heard after each ping interval. The latter requires PDAs
+     * that understand the frame.
+     */
+    static final String ACK_MODE = System.getProperty("vc.ack.mode",
+                                                      "unicast");
+
+    /**
+     * Format of the pings sent, and so of the pongs and acks of a round, see
+     * <code>Protocol.WireCodec</code>. Property: <code>vc.wire.format</code>,
+     * either <code>legacy</code> (default), serialized strings understood by
+     * every PDA, or <code>binary</code>. Pongs and ticket requests are
+     * accepted in both formats regardless, during the migration.
+     */
+    static final String WIRE_FORMAT = System.getProperty("vc.wire.format",
+                                                         "legacy");
+
+    /**
+     * Number of most recent ping rounds considered by the
+     * <code>PresenceTracker</code>. Property: <code>vc.presence.window</code>,
+     * default 5, at most 32.
+     */
+    static final int PRESENCE_WINDOW = Integer.getInteger(
+            "vc.presence.window", 5);
+
+    /**
+     * Number of rounds in the presence window a passenger must have replied
+     * in to be on-board. Property: <code>vc.presence.required</code>, default
+     * 4; if equal to the window, only passengers who replied in every round
+     * are on-board.
+     */
+    static final int PRESENCE_REQUIRED = Integer.getInteger(
+            "vc.presence.required", 4);
+
+    /**
+     * Cadence of the pings in a session, see <code>PingCadence</code>.
+     * Property: <code>vc.ping.cadence</code>, either <code>fixed</code>
+     * (default), five pings a second apart, or <code>adaptive</code>, which
+     * sets the interval from how long the pongs take to arrive, and ends a
+     * session early once the passengers on-board are stable.
+     */
+    static final String PING_CADENCE = System.getProperty("vc.ping.cadence",
+                                                          "fixed");
+
+    /**
+     * Shortest interval between the pings of an adaptive cadence, in
+     * milliseconds. Property: <code>vc.ping.interval.min</code>, default 200.
+     */
+    static final int PING_INTERVAL_MIN = Integer.getInteger(
+            "vc.ping.interval.min", 200);
+
+    /**
+     * Longest interval between the pings of an adaptive cadence, in
+     * milliseconds. Property: <code>vc.ping.interval.max</code>, default
+     * 2000.
+     */
+    static final int PING_INTERVAL_MAX = Integer.getInteger(
+            "vc.ping.interval.max", 2000);
+
+    /**
+     * Number of rounds in a row without a change in the passengers on-board
+     * that ends an adaptive session early, or 0 to always ping five times.
+     * Property: <code>vc.ping.stable</code>, default 2.
+     */
+    static final int PING_STABLE_ROUNDS = Integer.getInteger(
+            "vc.ping.stable", 2);
+
+    /**
+     * Time-to-live of the multicast pings and acks. Property:
+     * <code>vc.ping.ttl</code>, default 1, which keeps them within the
+     * vehicle network.
+     */
+    static final int PING_TTL = Integer.getInteger("vc.ping.ttl", 1);
+
+    /**
+     * Name of the network interface the pings are multicast on, e.g.
+     * <code>wlan0</code>. Property: <code>vc.ping.interface</code>, default
+     * empty, the choice of the system.
+     */
+    static final String PING_INTERFACE = System.getProperty(
+            "vc.ping.interface", "");
+
+    /**
+     * Payload of the ticket list requests sent to the
+     * <code>UDPTrafficManager</code>. Property: <code>vc.uplink.format</code>:
+     * <code>legacy</code> (default), a serialized <code>PassengerList</code>;
+     * <code>bitmap</code>, a <code>Protocol.WireCodec.TYPE_PASSENGERS</code>
+     * frame; or <code>delta</code>, which after the first request only sends
+     * the passengers who boarded and alighted since, as a
+     * <code>Protocol.PassengerDelta</code>. The latter two require an updated
+     * backend.
+     */
+    static final String UPLINK_FORMAT = System.getProperty("vc.uplink.format",
+                                                           "legacy");
+
+    /**
+     * Largest datagram of a ticket list request, in bytes; a larger request
+     * is split into <code>Protocol.ChunkFrame</code>s, and the backend then
+     * replies the tickets in chunks too. Property:
+     * <code>vc.uplink.chunk</code>, default 0, never splitting, as the legacy
+     * backend requires. 1400 keeps every datagram within one Wi-Fi MTU.
+     */
+    static final int UPLINK_CHUNK_SIZE = Integer.getInteger("vc.uplink.chunk",
+                                                            0);
+
+    /**
+     * Largest datagram received on the uplink, in bytes. Property:
+     * <code>vc.uplink.datagram</code>, default 65507, the largest UDP payload;
+     * an unchunked reply of 800 tickets is 21,833 bytes.
+     */
+    static final int UPLINK_DATAGRAM_SIZE = Integer.getInteger(
+            "vc.uplink.datagram", 65507);
+
+    /**
+     * Number of passengers the vehicle is sized for. This is not a limit;
+     * the passenger sets grow beyond it. Property: <code>vc.passengers</code>,
+     * default 800, a full bus.
+     */
+    static final int EXPECTED_PASSENGERS = Integer.getInteger("vc.passengers",
+                                                              800);
+
+    /**
+     * Level of the <code>VehicleLog</code>. Property:
+     * <code>vc.log.level</code>, one of <code>error</code>, <code>warn</code>,
+     * <code>info</code> (default) or <code>debug</code>.
+     */
+    static final String LOG_LEVEL = System.getProperty("vc.log.level",
+                                                       "info");
+
+    /**
+     * Loopback port of the <code>MetricsEndpoint</code>, or 0 to not open
+     * it. Property: <code>vc.metrics.port</code>, default 2226.
+     */
+    static final int METRICS_PORT = Integer.getInteger("vc.metrics.port",
+                                                       2226);
+
+    /**
+     * Requested receive buffer (SO_RCVBUF) of the ticket request channel, in
+     * bytes. The operating system may cap this value. Property:
+     * <code>vc.downlink.rcvbuf</code>, default 1 MiB; enough for every
+     * passenger of a full vehicle to request their ticket at once.
+     */
+    static final int DOWNLINK_RCVBUF = Integer.getInteger(
+            "vc.downlink.rcvbuf", 1024 * 1024);
+
+    /**
+     * Executor mode for the workers answering ticket requests in the
+     * <code>UDPDownlinkHandler</code>, see <code>PongExecutors</code>.
+     * Property: <code>vc.downlink.executor</code>, either <code>pool</code>
+     * (default) or <code>virtual</code>, which requires Java 21.
+     */
+    static final String DOWNLINK_EXECUTOR = System.getProperty(
+            "vc.downlink.executor", "pool");
+
+    /**
+     * Number of workers answering ticket requests, and of channels their
+     * replies are sent on. Property: <code>vc.downlink.workers</code>,
+     * default 4.
+     */
+    static final int DOWNLINK_WORKERS = Integer.getInteger(
+            "vc.downlink.workers", 4);
+
+    /**
+     * Maximum number of ticket requests handed to a worker at once.
+     * Property: <code>vc.downlink.batchsize</code>, default 16.
+     */
+    static final int DOWNLINK_BATCH_SIZE = Integer.getInteger(
+            "vc.downlink.batchsize", 16);
+
+
+    /**
+     * Not to be instantiated.
+     */
+    private VehicleConfig() {
+    }
+}
@@ -0,0 +1,142 @@
+package VehicleServer;
+
+import java.io.PrintStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Asynchronous, level-gated logger for the threads on the pong and ticket
+ * paths. A message below the configured level costs one comparison; an
+ * enabled message is put on a bounded queue and printed by a daemon thread,
+ * so the logging thread never waits for the console. If the queue is full
+ * the message is dropped and counted instead.
+ * <p>
+ * The level is set with <code>vc.log.level</code>, see
+ * <code>VehicleConfig</code>. Errors and warnings are printed to
+ * <code>System.err</code>, the rest to <code>System.out</code>.
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 15, 2014
+ * Contributors:
+ */
+final class VehicleLog {
+
+    static final int ERROR = 0;
+    static final int WARN = 1;
+    static final int INFO = 2;
+    static final int DEBUG = 3;
+
+    private static final int QUEUE_SIZE = 1024;
+    private static final int LEVEL = parseLevel(VehicleConfig.LOG_LEVEL);
+    private static final BlockingQueue<Entry> queue =
+            new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private static final AtomicLong dropped = new AtomicLong();
+
+    static {
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        Entry entry = queue.take();
+                        PrintStream out = (entry.level <= WARN) ? System.err
+                                : System.out;
+                        out.println(entry.message);
+                        if (entry.cause != null) {
+                            entry.cause.printStackTrace();
+                        }
+                    } catch (InterruptedException ex) {
+                        /*Daemon thread; keep writing until the JVM exits*/
+                    }
+                }
+            }
+        }, "VehicleLog");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+
+    /**
+     * Not to be instantiated.
+     */
+    private VehicleLog() {
+    }
+
+    /**
+     * Test if messages of a level are logged. Lets callers skip building a
+     * message that would not be logged anyway.
+     * <p>
+     * @param level one of <code>ERROR</code>, <code>WARN</code>,
+     *              <code>INFO</code> or <code>DEBUG</code>.
+     * <p>
+     * @return true if the level is enabled; false otherwise.
+     */
+    static boolean isEnabled(int level) {
+        return level <= LEVEL;
+    }
+
+    static void error(String message, Throwable cause) {
+        log(ERROR, message, cause);
+    }
+
+    static void warn(String message) {
+        log(WARN, message, null);
+    }
+
+    static void info(String message) {
+        log(INFO, message, null);
+    }
+
+    static void debug(String message) {
+        log(DEBUG, message, null);
+    }
+
+    /**
+     * Get the number of messages dropped because the queue was full.
+     * <p>
+     * @return the number of dropped messages.
+     */
+    static long getDropped() {
+        return dropped.get();
+    }
+
+    private static void log(int level, String message, Throwable cause) {
+        if (level <= LEVEL && !queue.offer(new Entry(level, message, cause))) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Translate the name of a level, falling back to <code>INFO</code>.
+     */
+    private static int parseLevel(String name) {
+        switch (name.toLowerCase()) {
+            case "error":
+                return ERROR;
+            case "warn":
+                return WARN;
+            case "debug":
+                return DEBUG;
+            default:
+                return INFO;
+        }
+    }
+
+
+    /**
+     * A message waiting to be printed.
+     */
+    private static class Entry {
+
+        final int level;
+        final String message;
+        final Throwable cause;
+
+        Entry(int level, String message, Throwable cause) {
+            this.level = level;
+            this.message = message;
+            this.cause = cause;
+        }
+    }
+}
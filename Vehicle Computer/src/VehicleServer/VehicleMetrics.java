@@ -0,0 +1,254 @@
+package VehicleServer;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+
+/**
+ * Instrumentation of the pong pipeline and ticket requests of a
+ * <code>VehicleComputer</code>. Counters already kept by the
+ * <code>PongDeduplicator</code> and <code>PongOverloadPolicy</code> are read
+ * from them; what no other class counts is recorded here. Recording is a
+ * single atomic operation, so it is safe on every hot path.
+ * <p>
+ * The metrics are exposed over JMX, see <code>VehicleMetricsMBean</code>,
+ * and as text through <code>report()</code>, which the
+ * <code>MetricsEndpoint</code> and the console serve.
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 15, 2014
+ * Contributors:
+ */
+public class VehicleMetrics implements VehicleMetricsMBean {
+
+    /**Number of ping rounds kept for <code>getRecentRoundPassengers</code>*/
+    private static final int ROUND_HISTORY = 16;
+
+    private final AtomicLong invalidPongs = new AtomicLong();
+    private final AtomicLong stalePongs = new AtomicLong();
+    private final LatencyHistogram handlerLatency = new LatencyHistogram();
+    private final LatencyHistogram ticketRequests = new LatencyHistogram();
+    private final int[] roundPassengers = new int[ROUND_HISTORY];
+    private int rounds = 0;
+    private volatile long lastUplinkMillis = 0;
+
+    private volatile PongOverloadPolicy overloadPolicy;
+    private volatile PongDeduplicator deduplicator;
+    private volatile ExecutorService executor;
+
+
+    /**
+     * Give the metrics the parts of the pong pipeline whose state they
+     * report. Until called, those metrics read as zero, and -1 for the
+     * executor.
+     * <p>
+     * @param overloadPolicy the policy of the pong executor.
+     * @param deduplicator   the ingress filter of the pong receiver.
+     * @param executor       the executor running the pong handlers.
+     */
+    void attach(PongOverloadPolicy overloadPolicy,
+                PongDeduplicator deduplicator, ExecutorService executor) {
+        this.overloadPolicy = overloadPolicy;
+        this.deduplicator = deduplicator;
+        this.executor = executor;
+    }
+
+    /**
+     * Register the metrics on the platform MBean server.
+     * <p>
+     * @throws JMException if the MBean could not be registered.
+     */
+    void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                new ObjectName("VehicleServer:type=VehicleMetrics"));
+    }
+
+    /**
+     * Record a pong that could not be decoded.
+     */
+    void invalidPong() {
+        invalidPongs.incrementAndGet();
+    }
+
+    /**
+     * Record a pong answering a ping round that was already filtered.
+     */
+    void stalePong() {
+        stalePongs.incrementAndGet();
+    }
+
+    /**
+     * Record the time a batch of pongs took from being dispatched by the
+     * receiver until it was handled.
+     * <p>
+     * @param nanos the latency in nanoseconds.
+     */
+    void handlerLatency(long nanos) {
+        handlerLatency.record(nanos);
+    }
+
+    /**
+     * Record the time it took to answer a ticket request from a PDA.
+     * <p>
+     * @param nanos the duration in nanoseconds.
+     */
+    void ticketRequest(long nanos) {
+        ticketRequests.record(nanos);
+    }
+
+    /**
+     * Record the time it took to get the ticket list from the backend.
+     * <p>
+     * @param millis the duration in milliseconds.
+     */
+    void uplinkRequest(long millis) {
+        lastUplinkMillis = millis;
+    }
+
+    /**
+     * Record the number of passengers heard in a ping round.
+     * <p>
+     * @param passengers the number of passengers.
+     */
+    synchronized void roundFiltered(int passengers) {
+        roundPassengers[rounds % ROUND_HISTORY] = passengers;
+        ++rounds;
+    }
+
+    @Override
+    public long getPongsReceived() {
+        PongDeduplicator dedup = deduplicator;
+        return (dedup == null) ? 0 : dedup.getPongs();
+    }
+
+    @Override
+    public long getPongsDropped() {
+        PongOverloadPolicy policy = overloadPolicy;
+        return invalidPongs.get() + ((policy == null) ? 0
+                : policy.getShedPongs());
+    }
+
+    @Override
+    public long getPongsStale() {
+        return stalePongs.get();
+    }
+
+    @Override
+    public long getBatchesRejected() {
+        PongOverloadPolicy policy = overloadPolicy;
+        return (policy == null) ? 0 : policy.getRejectedBatches();
+    }
+
+    @Override
+    public long getPongsDeduplicated() {
+        PongDeduplicator dedup = deduplicator;
+        return (dedup == null) ? 0 : dedup.getDuplicates();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        ExecutorService current = executor;
+        return (current instanceof ThreadPoolExecutor)
+                ? ((ThreadPoolExecutor) current).getQueue().size() : -1;
+    }
+
+    @Override
+    public int getActiveThreads() {
+        ExecutorService current = executor;
+        return (current instanceof ThreadPoolExecutor)
+                ? ((ThreadPoolExecutor) current).getActiveCount() : -1;
+    }
+
+    @Override
+    public long getHandlerLatencyP50() {
+        return handlerLatency.percentile(50);
+    }
+
+    @Override
+    public long getHandlerLatencyP99() {
+        return handlerLatency.percentile(99);
+    }
+
+    @Override
+    public String getHandlerLatencyHistogram() {
+        return handlerLatency.toString();
+    }
+
+    @Override
+    public synchronized int getLastRoundPassengers() {
+        return (rounds == 0) ? 0
+                : roundPassengers[(rounds - 1) % ROUND_HISTORY];
+    }
+
+    @Override
+    public synchronized String getRecentRoundPassengers() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = Math.max(0, rounds - ROUND_HISTORY); i != rounds; ++i) {
+            if (sb.length() != 0) {
+                sb.append(' ');
+            }
+            sb.append(roundPassengers[i % ROUND_HISTORY]);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public long getTicketRequestP50() {
+        return ticketRequests.percentile(50);
+    }
+
+    @Override
+    public long getTicketRequestP99() {
+        return ticketRequests.percentile(99);
+    }
+
+    @Override
+    public String getTicketRequestHistogram() {
+        return ticketRequests.toString();
+    }
+
+    @Override
+    public long getLastUplinkRequestMillis() {
+        return lastUplinkMillis;
+    }
+
+    @Override
+    public long getLogMessagesDropped() {
+        return VehicleLog.getDropped();
+    }
+
+    /**
+     * Get all metrics as text, one <code>name=value</code> per line.
+     * <p>
+     * @return the metrics.
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        line(sb, "pongs.received", getPongsReceived());
+        line(sb, "pongs.dropped", getPongsDropped());
+        line(sb, "pongs.deduplicated", getPongsDeduplicated());
+        line(sb, "pongs.stale", getPongsStale());
+        line(sb, "batches.rejected", getBatchesRejected());
+        line(sb, "executor.queue", getQueueDepth());
+        line(sb, "executor.active", getActiveThreads());
+        line(sb, "handler.latency.p50.us", getHandlerLatencyP50());
+        line(sb, "handler.latency.p99.us", getHandlerLatencyP99());
+        line(sb, "handler.latency", getHandlerLatencyHistogram());
+        line(sb, "round.passengers", getLastRoundPassengers());
+        line(sb, "round.passengers.recent", getRecentRoundPassengers());
+        line(sb, "ticket.request.p50.us", getTicketRequestP50());
+        line(sb, "ticket.request.p99.us", getTicketRequestP99());
+        line(sb, "ticket.request", getTicketRequestHistogram());
+        line(sb, "uplink.request.ms", getLastUplinkRequestMillis());
+        line(sb, "log.dropped", getLogMessagesDropped());
+        return sb.toString();
+    }
+
+    private static void line(StringBuilder sb, String name, Object value) {
+        sb.append(name).append('=').append(value).append('\n');
+    }
+
+}
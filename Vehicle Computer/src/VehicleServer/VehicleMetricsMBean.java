@@ -0,0 +1,64 @@
+package VehicleServer;
+
+
+/**
+ * Management interface of <code>VehicleMetrics</code>, registered on the
+ * platform MBean server as <code>VehicleServer:type=VehicleMetrics</code>.
+ * Every attribute is read-only.
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 15, 2014
+ * Contributors:
+ */
+public interface VehicleMetricsMBean {
+
+    /**@return pongs received on the pong channel since startup*/
+    long getPongsReceived();
+
+    /**@return pongs dropped as invalid or shed by the overload policy*/
+    long getPongsDropped();
+
+    /**@return pongs answering a ping round already filtered; discarded*/
+    long getPongsStale();
+
+    /**@return batches of pongs rejected by the saturated executor*/
+    long getBatchesRejected();
+
+    /**@return repeated pongs answered at ingress by the deduplicator*/
+    long getPongsDeduplicated();
+
+    /**@return batches waiting in the executor queue, or -1 if unbounded*/
+    int getQueueDepth();
+
+    /**@return pong handler threads busy, or -1 if not a thread pool*/
+    int getActiveThreads();
+
+    /**@return median time from dispatch to handled batch, in microseconds*/
+    long getHandlerLatencyP50();
+
+    /**@return 99th percentile of the handler latency, in microseconds*/
+    long getHandlerLatencyP99();
+
+    /**@return the handler latency histogram as text*/
+    String getHandlerLatencyHistogram();
+
+    /**@return passengers heard in the last ping round*/
+    int getLastRoundPassengers();
+
+    /**@return passengers heard in the most recent ping rounds, oldest first*/
+    String getRecentRoundPassengers();
+
+    /**@return median duration of a PDA ticket request, in microseconds*/
+    long getTicketRequestP50();
+
+    /**@return 99th percentile of the PDA ticket requests, in microseconds*/
+    long getTicketRequestP99();
+
+    /**@return the PDA ticket request histogram as text*/
+    String getTicketRequestHistogram();
+
+    /**@return duration of the last ticket list request uplink, in ms*/
+    long getLastUplinkRequestMillis();
+
+    /**@return log messages dropped because the log queue was full*/
+    long getLogMessagesDropped();
+}
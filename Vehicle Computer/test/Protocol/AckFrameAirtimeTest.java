@@ -0,0 +1,108 @@
+package Protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Comparison of the datagrams and bytes a vehicle sends to acknowledge one
+ * ping interval: a serialized "ack" unicast to every PDA, against the
+ * multicast <code>AckFrame</code>s listing them all. Bytes include the 28
+ * bytes of IP and UDP headers per datagram. Every frame is decoded again, and
+ * each customer, as well as customers not heard, is looked up with
+ * <code>AckFrame.contains()</code> to verify the encoding.
+ * <p>
+ * Usage: <code>AckFrameAirtimeTest [passenger counts...]</code>
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 14, 2014
+ * Contributors:
+ */
+public class AckFrameAirtimeTest {
+
+    private static final int HEADERS = 28;
+
+
+    public static void main(String[] args) throws IOException {
+        int[] counts = {50, 200, 800, 5000};
+        if (args.length > 0) {
+            counts = new int[args.length];
+            for (int i = 0; i != args.length; ++i) {
+                counts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        int ackSize = serialize("ack").length;
+        Random random = new Random(42);
+
+        System.out.println(String.format("%10s %18s %18s %8s", "passengers",
+                "unicast dgrams/B", "frame dgrams/B", "saved"));
+        for (int count : counts) {
+            int[] heard = new int[count];
+            for (int i = 0; i != count; ++i) {
+                heard[i] = 100000 + random.nextInt(900000);
+            }
+            Arrays.sort(heard);
+            heard = distinct(heard);
+
+            int frames = 0;
+            long frameBytes = 0;
+            int found = 0;
+            ByteBuffer frame = ByteBuffer.allocate(AckFrame.MAX_SIZE);
+            int from = 0;
+            while (from != heard.length) {
+                frame.clear();
+                int encoded = AckFrame.encode(heard, from, frame);
+                byte[] data = frame.array();
+                int length = frame.position();
+                int[] decoded = AckFrame.decode(data, 0, length);
+                if (!Arrays.equals(decoded, Arrays.copyOfRange(heard, from,
+                        from + encoded))) {
+                    throw new AssertionError("Frame did not round-trip.");
+                }
+                for (int i = from; i != from + encoded; ++i) {
+                    if (AckFrame.contains(data, 0, length, heard[i])) {
+                        ++found;
+                    }
+                    if (AckFrame.contains(data, 0, length, heard[i] + 1)
+                            && Arrays.binarySearch(heard, heard[i] + 1) < 0) {
+                        throw new AssertionError("False ack of customer.");
+                    }
+                }
+                from += encoded;
+                ++frames;
+                frameBytes += length + HEADERS;
+            }
+            if (found != heard.length) {
+                throw new AssertionError("Only " + found + " of "
+                        + heard.length + " customers found.");
+            }
+
+            long unicastBytes = (long) heard.length * (ackSize + HEADERS);
+            System.out.println(String.format("%10d %10d/%-7d %10d/%-7d %7.1f%%",
+                    heard.length, heard.length, unicastBytes, frames,
+                    frameBytes, 100.0 * (unicastBytes - frameBytes)
+                    / unicastBytes));
+        }
+    }
+
+    private static int[] distinct(int[] sorted) {
+        int n = 0;
+        for (int i = 0; i != sorted.length; ++i) {
+            if (n == 0 || sorted[i] != sorted[n - 1]) {
+                sorted[n++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, n);
+    }
+
+    private static byte[] serialize(String s) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(s);
+        oos.flush();
+        return bos.toByteArray();
+    }
+}
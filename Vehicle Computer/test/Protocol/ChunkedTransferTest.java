@@ -0,0 +1,259 @@
+package Protocol;
+
+import ModelClasses.PassengerList;
+import ModelClasses.Ticket;
+import ModelClasses.TicketList;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+
+/**
+ * Test of the chunked transfer of a train set of 10,000 passengers, well
+ * beyond what one datagram of the legacy uplink held. The passenger list,
+ * serialized and as a bitmap frame, and the ticket list replied are split
+ * into <code>ChunkFrame</code>s and reassembled after the chunks were
+ * reordered, duplicated and lost, with the whole message resent until it is
+ * complete, as the uplink protocol does on a timeout. The ticket list is
+ * then also sent over the loopback interface.
+ * <p>
+ * Usage: <code>ChunkedTransferTest [passengers] [chunk size]</code>
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 16, 2014
+ * Contributors:
+ */
+public class ChunkedTransferTest {
+
+    private static final double LOSS = 0.05;
+    private static final double DUPLICATION = 0.10;
+
+
+    public static void main(String[] args) throws IOException,
+                                                  ClassNotFoundException {
+        int passengerCount = (args.length > 0) ? Integer.parseInt(args[0])
+                : 10000;
+        int chunkSize = (args.length > 1) ? Integer.parseInt(args[1]) : 1400;
+        checkInvalidFrames();
+
+        int[] customers = new int[passengerCount];
+        ArrayList<Integer> list = new ArrayList<>(passengerCount);
+        ArrayList<Ticket> ticketList = new ArrayList<>(passengerCount);
+        for (int i = 0; i != passengerCount; ++i) {
+            customers[i] = 245000 + 3 * i;
+            list.add(customers[i]);
+            Ticket ticket = new Ticket();
+            ticket.createTicket(i + 1, "2014-12-16 10:00:00", 24, 1, 2,
+                                customers[i]);
+            ticketList.add(ticket);
+        }
+        PassengerList passengers = new PassengerList(1);
+        passengers.setAllPassengers(list);
+        TicketList tickets = new TicketList();
+        tickets.setAllTickets(ticketList);
+
+        PassengerBitmap bitmap = PassengerBitmap.of(customers);
+        ByteBuffer bitmapFrame = ByteBuffer.allocate(
+                WireCodec.passengersFrameSize(bitmap));
+        WireCodec.encodePassengers(bitmapFrame, 1, bitmap);
+
+        Random random = new Random(16);
+        System.out.println(passengerCount + " passengers, chunks of at most "
+                + chunkSize + " bytes, " + (int) (LOSS * 100) + "% lost, "
+                + (int) (DUPLICATION * 100) + "% duplicated");
+        System.out.println(String.format("%-22s %10s %8s %8s", "message",
+                "bytes", "chunks", "sends"));
+
+        byte[] request = serialize(passengers);
+        byte[] received = transfer("passengers, legacy", request, chunkSize,
+                                   random);
+        PassengerList decoded = (PassengerList) deserialize(received);
+        if (!decoded.getAllPassengers().equals(list)) {
+            throw new AssertionError("Passengers changed in transfer.");
+        }
+
+        received = transfer("passengers, bitmap", bitmapFrame.array(),
+                            chunkSize, random);
+        decoded = WireCodec.decodePassengers(ByteBuffer.wrap(received));
+        if (!decoded.getAllPassengers().equals(list)) {
+            throw new AssertionError("Passengers changed in transfer.");
+        }
+
+        byte[] reply = serialize(tickets);
+        received = transfer("tickets", reply, chunkSize, random);
+        checkTickets((TicketList) deserialize(received), customers);
+
+        sendOverLoopback(reply, chunkSize, customers);
+    }
+
+    /**
+     * Split a message and offer its chunks shuffled, some lost and some
+     * duplicated, resending the message until the reassembler completes it.
+     */
+    private static byte[] transfer(String name, byte[] message, int chunkSize,
+                                   Random random) {
+        byte[][] frames = ChunkFrame.split(message, 4711, chunkSize);
+        for (byte[] frame : frames) {
+            if (frame.length > chunkSize) {
+                throw new AssertionError("Chunk exceeds the chunk size.");
+            }
+        }
+
+        ChunkReassembler reassembler = new ChunkReassembler();
+        int sends = 0;
+        while (!reassembler.isComplete()) {
+            ++sends;
+            ArrayList<byte[]> sent = new ArrayList<>();
+            for (byte[] frame : frames) {
+                if (random.nextDouble() >= LOSS) {
+                    sent.add(frame);
+                }
+                if (random.nextDouble() < DUPLICATION) {
+                    sent.add(frame);
+                }
+            }
+            Collections.shuffle(sent, random);
+            for (byte[] frame : sent) {
+                reassembler.offer(ByteBuffer.wrap(frame));
+            }
+        }
+        System.out.println(String.format("%-22s %10d %8d %8d", name,
+                message.length, frames.length, sends));
+
+        byte[] received = reassembler.getMessage();
+        if (!Arrays.equals(received, message)) {
+            throw new AssertionError("Message changed in reassembly.");
+        }
+        return received;
+    }
+
+    /**
+     * Send the chunks of the ticket reply to a socket on the loopback
+     * interface, resending them until the message is complete.
+     */
+    private static void sendOverLoopback(byte[] reply, int chunkSize,
+                                         int[] customers) throws
+            IOException, ClassNotFoundException {
+        byte[][] frames = ChunkFrame.split(reply, 1, chunkSize);
+        DatagramSocket receiver = new DatagramSocket(0,
+                InetAddress.getLoopbackAddress());
+        receiver.setReceiveBufferSize(1024 * 1024);
+        receiver.setSoTimeout(200);
+        DatagramSocket sender = new DatagramSocket();
+
+        ChunkReassembler reassembler = new ChunkReassembler();
+        DatagramPacket packetIn = new DatagramPacket(new byte[65507], 65507);
+        int sends = 0;
+        long start = System.nanoTime();
+        while (!reassembler.isComplete() && sends != 10) {
+            ++sends;
+            for (byte[] frame : frames) {
+                sender.send(new DatagramPacket(frame, frame.length,
+                        receiver.getLocalSocketAddress()));
+            }
+            try {
+                while (!reassembler.isComplete()) {
+                    packetIn.setLength(packetIn.getData().length);
+                    receiver.receive(packetIn);
+                    reassembler.offer(ByteBuffer.wrap(packetIn.getData(), 0,
+                                                      packetIn.getLength()));
+                }
+            } catch (IOException ex) {
+                /*Timed out with chunks missing; resend*/
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        sender.close();
+        receiver.close();
+        if (!reassembler.isComplete()) {
+            throw new AssertionError("Tickets not received over loopback.");
+        }
+        checkTickets((TicketList) deserialize(reassembler.getMessage()),
+                     customers);
+        System.out.println(String.format(
+                "Loopback: %d ticket chunks received in %.1f ms, %d send(s)",
+                frames.length, nanos / 1e6, sends));
+    }
+
+    /**
+     * Check that frames that are not valid chunks, or do not belong with the
+     * chunks already offered, are rejected or ignored.
+     */
+    private static void checkInvalidFrames() {
+        byte[][] frames = ChunkFrame.split(new byte[100], 7, 50);
+
+        byte[] badIndex = frames[0].clone();
+        badIndex[6] = 0x7F;
+        byte[] badCount = frames[0].clone();
+        badCount[8] = (byte) (badCount[8] + 1);
+        byte[] truncated = Arrays.copyOf(frames[0], 6);
+        byte[] notChunk = WireCodec.encodeEmpty(WireCodec.TYPE_PING);
+        for (byte[] frame : new byte[][]{badIndex, truncated, notChunk}) {
+            try {
+                new ChunkReassembler().offer(ByteBuffer.wrap(frame));
+                throw new AssertionError("Invalid chunk accepted.");
+            } catch (IllegalArgumentException ex) {
+                /*Expected*/
+            }
+        }
+
+        ChunkReassembler reassembler = new ChunkReassembler();
+        reassembler.offer(ByteBuffer.wrap(frames[0]));
+        try {
+            reassembler.offer(ByteBuffer.wrap(badCount));
+            throw new AssertionError("Changed chunk count accepted.");
+        } catch (IllegalArgumentException ex) {
+            /*Expected*/
+        }
+        byte[][] other = ChunkFrame.split(new byte[100], 8, 50);
+        for (byte[] frame : other) {
+            if (reassembler.offer(ByteBuffer.wrap(frame))) {
+                throw new AssertionError("Chunk of another message used.");
+            }
+        }
+        try {
+            ChunkFrame.split(new byte[1], 1, ChunkFrame.HEADER_SIZE);
+            throw new AssertionError("Empty chunks allowed.");
+        } catch (IllegalArgumentException ex) {
+            /*Expected*/
+        }
+        if (ChunkFrame.split(new byte[0], 1, 50).length != 1) {
+            throw new AssertionError("Empty message not sent as one chunk.");
+        }
+    }
+
+    private static void checkTickets(TicketList tickets, int[] customers) {
+        if (tickets.size() != customers.length) {
+            throw new AssertionError("Tickets lost in transfer.");
+        }
+        for (int i = 0; i != customers.length; ++i) {
+            if (tickets.getAllTickets().get(i).getCustomerNumber()
+                    != customers[i]) {
+                throw new AssertionError("Tickets changed in transfer.");
+            }
+        }
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(object);
+        oos.flush();
+        return bos.toByteArray();
+    }
+
+    private static Object deserialize(byte[] data) throws IOException,
+            ClassNotFoundException {
+        return new ObjectInputStream(new ByteArrayInputStream(data))
+                .readObject();
+    }
+}
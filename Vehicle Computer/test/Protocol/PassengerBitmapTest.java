@@ -0,0 +1,141 @@
+package Protocol;
+
+import ModelClasses.PassengerList;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+
+/**
+ * Check of <code>PassengerBitmap</code> against a <code>TreeSet</code> on
+ * random sparse and dense sets of customer numbers, so that both kinds of
+ * container and the conversions between them are exercised: adding,
+ * removing, intersecting, subtracting, iterating and the serialized form.
+ * Finally the size of a ticket list request is compared between a serialized
+ * <code>PassengerList</code> and a <code>WireCodec.TYPE_PASSENGERS</code>
+ * frame.
+ * <p>
+ * Usage: <code>PassengerBitmapTest [rounds]</code>
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 16, 2014
+ * Contributors:
+ */
+public class PassengerBitmapTest {
+
+    public static void main(String[] args) throws Exception {
+        int rounds = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+        Random random = new Random(12);
+
+        for (int round = 0; round != rounds; ++round) {
+            /*Alternate sparse, dense and mixed ranges of customers*/
+            int range = (round % 3 == 0) ? Integer.MAX_VALUE - 1
+                    : (round % 3 == 1) ? 20000 : 200000;
+            int count = random.nextInt(15000);
+            TreeSet<Integer> setA = new TreeSet<>();
+            TreeSet<Integer> setB = new TreeSet<>();
+            PassengerBitmap a = new PassengerBitmap();
+            for (int i = 0; i != count; ++i) {
+                int customer = 1 + random.nextInt(range);
+                check(a.add(customer) == setA.add(customer), "add");
+                if (random.nextBoolean()) {
+                    setB.add(customer);
+                }
+            }
+            for (int i = 0; i != count / 4; ++i) {
+                int customer = 1 + random.nextInt(range);
+                check(a.remove(customer) == setA.remove(customer), "remove");
+            }
+            PassengerBitmap b = PassengerBitmap.of(toArray(setB));
+
+            checkEqual(a, setA);
+            checkEqual(b, setB);
+            TreeSet<Integer> common = new TreeSet<>(setA);
+            common.retainAll(setB);
+            checkEqual(a.and(b), common);
+            checkEqual(b.and(a), common);
+            TreeSet<Integer> difference = new TreeSet<>(setA);
+            difference.removeAll(setB);
+            checkEqual(a.andNot(b), difference);
+
+            ByteBuffer buffer = ByteBuffer.allocate(a.serializedSize());
+            a.writeTo(buffer);
+            check(!buffer.hasRemaining(), "serialized size");
+            buffer.flip();
+            checkEqual(PassengerBitmap.readFrom(buffer), setA);
+        }
+        checkInvalid();
+        System.out.println(rounds + " random rounds passed.");
+
+        /*Ticket list request for a full vehicle*/
+        int[] customers = new int[800];
+        for (int i = 0; i != customers.length; ++i) {
+            customers[i] = 245000 + i * 3;
+        }
+        PassengerBitmap bitmap = PassengerBitmap.of(customers);
+        ByteBuffer frame = ByteBuffer.allocate(
+                WireCodec.passengersFrameSize(bitmap));
+        WireCodec.encodePassengers(frame, 4, bitmap);
+        frame.flip();
+        PassengerList decoded = WireCodec.decodePassengers(frame);
+        check(decoded.getZone() == 4 && decoded.size() == 800, "frame");
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        new ObjectOutputStream(bos).writeObject(decoded);
+        System.out.println(String.format(
+                "800 passengers: serialized PassengerList %d B,"
+                + " bitmap frame %d B", bos.size(), frame.limit()));
+    }
+
+    /**
+     * Check that corrupt serialized bitmaps are rejected.
+     */
+    private static void checkInvalid() {
+        byte[][] corrupt = {
+            {},
+            {0, 1, 0, 0},
+            {0, 1, 0, 0, 0, 0, 0, 0},
+            {0, 1, 0, 1, 0, 1, 0, 9, 0, 8},
+            {0, 2, 0, 1, 0, 0, 0, 9, 0, 1, 0, 0, 0, 9},
+            {0, 1, (byte) 0x80, 0, 0, 0, 0, 9},};
+        for (byte[] data : corrupt) {
+            try {
+                PassengerBitmap.readFrom(ByteBuffer.wrap(data));
+                throw new AssertionError("Accepted corrupt bitmap.");
+            } catch (IllegalArgumentException ex) {
+                /*Expected*/
+            }
+        }
+    }
+
+    private static void checkEqual(PassengerBitmap bitmap, TreeSet<Integer> set) {
+        check(bitmap.cardinality() == set.size(), "cardinality");
+        int[] expected = toArray(set);
+        int[] values = bitmap.toArray();
+        check(Arrays.equals(values, expected), "toArray");
+        PassengerBitmap.Cursor cursor = bitmap.cursor();
+        for (int value : expected) {
+            check(cursor.hasNext() && cursor.next() == value, "cursor");
+            check(bitmap.contains(value), "contains");
+        }
+        check(!cursor.hasNext(), "cursor end");
+    }
+
+    private static int[] toArray(TreeSet<Integer> set) {
+        ArrayList<Integer> list = new ArrayList<>(set);
+        int[] array = new int[list.size()];
+        for (int i = 0; i != array.length; ++i) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError("Mismatch in " + what + ".");
+        }
+    }
+}
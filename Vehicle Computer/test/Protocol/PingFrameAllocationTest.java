@@ -0,0 +1,137 @@
+package Protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+
+
+/**
+ * Test of the pre-encoded <code>PingFrame</code>. The round of a binary ping
+ * must decode as written, and the legacy ping must be the serialized "ping".
+ * Then pings are sent to a socket on the loopback interface, the way
+ * <code>UDPPingSender</code> used to, serializing the ping, resolving the
+ * group address and creating a packet for each, and the way it does now,
+ * through a <code>DatagramChannel</code>. The heap allocated per ping is
+ * reported for both, where the JVM can measure it.
+ * <p>
+ * Usage: <code>PingFrameAllocationTest [pings]</code>
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 16, 2014
+ * Contributors:
+ */
+public class PingFrameAllocationTest {
+
+    public static void main(String[] args) throws IOException {
+        int pings = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+        checkFrames();
+
+        DatagramSocket receiver = new DatagramSocket(0,
+                InetAddress.getLoopbackAddress());
+        InetSocketAddress target = new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), receiver.getLocalPort());
+
+        /*As before: serialize, resolve and create a packet every time*/
+        DatagramSocket socket = new DatagramSocket();
+        long before = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i != pings; ++i) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+            oos.writeObject("ping");
+            byte[] buffer = bos.toByteArray();
+            InetAddress addr = InetAddress.getByName(
+                    target.getAddress().getHostAddress());
+            socket.send(new DatagramPacket(buffer, buffer.length, addr,
+                                           target.getPort()));
+        }
+        report("serialized per ping", pings, start, before);
+        socket.close();
+
+        /*Now: a pre-encoded frame through a channel*/
+        for (boolean binary : new boolean[]{false, true}) {
+            PingFrame frame = new PingFrame(binary);
+            DatagramChannel channel = DatagramChannel.open();
+            for (int i = 0; i != pings / 10; ++i) {
+                channel.send(frame.forRound(i), target);
+            }
+            before = allocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i != pings; ++i) {
+                channel.send(frame.forRound(i), target);
+            }
+            report(binary ? "pre-encoded, binary" : "pre-encoded, legacy",
+                   pings, start, before);
+            channel.close();
+        }
+        receiver.close();
+    }
+
+    /**
+     * Check the encoding of both kinds of ping, and that the frame is reset
+     * for every round.
+     */
+    private static void checkFrames() throws IOException {
+        PingFrame binary = new PingFrame(true);
+        for (int round : new int[]{0, 1, 77, Integer.MAX_VALUE, -5}) {
+            ByteBuffer frame = binary.forRound(round);
+            if (WireCodec.typeOf(frame) != WireCodec.TYPE_PING
+                    || frame.remaining() != WireCodec.PING_FRAME_SIZE) {
+                throw new AssertionError("Not a ping frame.");
+            }
+            int decoded = WireCodec.decodePingRound(frame);
+            if (decoded != (round & Integer.MAX_VALUE)) {
+                throw new AssertionError("Round " + round + " decoded as "
+                        + decoded);
+            }
+        }
+        ByteBuffer truncated = ByteBuffer.wrap(WireCodec.encodeEmpty(
+                WireCodec.TYPE_PING));
+        if (WireCodec.decodePingRound(truncated) != -1) {
+            throw new AssertionError("Truncated ping decoded a round.");
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject("ping");
+        oos.flush();
+        ByteBuffer legacy = new PingFrame(false).forRound(3);
+        byte[] bytes = new byte[legacy.remaining()];
+        legacy.get(bytes);
+        if (!Arrays.equals(bytes, bos.toByteArray())) {
+            throw new AssertionError("Legacy ping is not the serialized ping.");
+        }
+    }
+
+    private static void report(String name, int pings, long start,
+                               long before) {
+        double micros = (System.nanoTime() - start) / 1000.0 / pings;
+        long after = allocatedBytes();
+        String allocated = (before < 0 || after < 0) ? "n/a"
+                : String.format("%.1f B", (after - before) / (double) pings);
+        System.out.println(String.format("%-22s %6.2f us per ping, %s"
+                + " allocated per ping", name, micros, allocated));
+    }
+
+    /**
+     * Get the heap allocated by this thread so far.
+     * <p>
+     * @return the bytes allocated, or -1 if the JVM cannot tell.
+     */
+    private static long allocatedBytes() {
+        try {
+            return ((com.sun.management.ThreadMXBean) ManagementFactory
+                    .getThreadMXBean()).getThreadAllocatedBytes(
+                            Thread.currentThread().getId());
+        } catch (ClassCastException | UnsupportedOperationException ex) {
+            return -1;
+        }
+    }
+}
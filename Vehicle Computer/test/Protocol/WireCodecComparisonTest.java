@@ -0,0 +1,164 @@
+package Protocol;
+
+import ModelClasses.Ticket;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Comparison of the legacy serialized datagrams with the binary
+ * <code>WireCodec</code> frames: the size of every message, and the time to
+ * encode and decode a pong and a ticket. The decoded binary ticket is checked
+ * to equal the original.
+ * <p>
+ * Usage: <code>WireCodecComparisonTest [iterations]</code>
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 14, 2014
+ * Contributors:
+ */
+public class WireCodecComparisonTest {
+
+    private static final int WARMUP = 50000;
+
+    /**Keeps the results alive, so the JIT cannot drop the work*/
+    private static long sink;
+
+
+    public static void main(String[] args) throws Exception {
+        int iterations = 200000;
+        if (args.length > 0) {
+            iterations = Integer.parseInt(args[0]);
+        }
+        final Ticket ticket = new Ticket();
+        ticket.createTicket(774154, "2014-10-31 10:06:24", 2400, 4, 2, 245013);
+        final String customer = "245013";
+
+        ByteBuffer frame = ByteBuffer.allocate(WireCodec.TICKET_FRAME_SIZE);
+        WireCodec.encodeTicket(frame, ticket);
+        frame.flip();
+        if (!ticket.equals(WireCodec.decodeTicket(frame))) {
+            throw new AssertionError("Ticket did not round-trip.");
+        }
+
+        System.out.println(String.format("%-16s %8s %8s", "message",
+                "legacy B", "binary B"));
+        print("ping", serialize("ping").length, WireCodec.PING_FRAME_SIZE);
+        print("pong", serialize(customer).length, WireCodec.PONG_FRAME_SIZE);
+        print("ack", serialize("ack").length, WireCodec.HEADER_SIZE);
+        print("ticket request", serialize(customer).length,
+              WireCodec.CUSTOMER_FRAME_SIZE);
+        print("ticket", serialize(ticket).length, WireCodec.TICKET_FRAME_SIZE);
+        print("no ticket", 1, WireCodec.HEADER_SIZE);
+        System.out.println();
+
+        final byte[] legacyPong = serialize(customer);
+        final byte[] legacyTicket = serialize(ticket);
+        final ByteBuffer pongFrame = ByteBuffer.allocate(
+                WireCodec.PONG_FRAME_SIZE);
+        final ByteBuffer ticketFrame = ByteBuffer.allocate(
+                WireCodec.TICKET_FRAME_SIZE);
+        WireCodec.encodePong(pongFrame, 245013, 77);
+        WireCodec.encodeTicket(ticketFrame, ticket);
+
+        System.out.println(String.format("%-16s %12s %12s", "operation",
+                "legacy ns", "binary ns"));
+        time("encode pong", iterations, new Op() {
+            @Override
+            public void run() throws Exception {
+                sink += serialize(customer).length;
+            }
+        }, new Op() {
+            @Override
+            public void run() {
+                pongFrame.clear();
+                WireCodec.encodePong(pongFrame, 245013, 77);
+                sink += pongFrame.position();
+            }
+        });
+        time("decode pong", iterations, new Op() {
+            @Override
+            public void run() throws Exception {
+                sink += Integer.parseInt((String) deserialize(legacyPong));
+            }
+        }, new Op() {
+            @Override
+            public void run() {
+                pongFrame.rewind();
+                sink += WireCodec.decodeCustomer(pongFrame);
+            }
+        });
+        time("encode ticket", iterations, new Op() {
+            @Override
+            public void run() throws Exception {
+                sink += serialize(ticket).length;
+            }
+        }, new Op() {
+            @Override
+            public void run() {
+                ticketFrame.clear();
+                WireCodec.encodeTicket(ticketFrame, ticket);
+                sink += ticketFrame.position();
+            }
+        });
+        time("decode ticket", iterations, new Op() {
+            @Override
+            public void run() throws Exception {
+                sink += ((Ticket) deserialize(legacyTicket)).getNumber();
+            }
+        }, new Op() {
+            @Override
+            public void run() {
+                ticketFrame.rewind();
+                sink += WireCodec.decodeTicket(ticketFrame).getNumber();
+            }
+        });
+        System.out.println("(checksum " + sink + ")");
+    }
+
+    private static void print(String message, int legacy, int binary) {
+        System.out.println(String.format("%-16s %8d %8d", message, legacy,
+                                         binary));
+    }
+
+    private static void time(String operation, int iterations, Op legacy,
+                             Op binary) throws Exception {
+        System.out.println(String.format("%-16s %12.1f %12.1f", operation,
+                nanosPerOp(legacy, iterations), nanosPerOp(binary,
+                                                           iterations)));
+    }
+
+    private static double nanosPerOp(Op op, int iterations) throws Exception {
+        for (int i = 0; i != WARMUP; ++i) {
+            op.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i != iterations; ++i) {
+            op.run();
+        }
+        return (double) (System.nanoTime() - start) / iterations;
+    }
+
+    private static byte[] serialize(Object o) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(o);
+        oos.flush();
+        return bos.toByteArray();
+    }
+
+    private static Object deserialize(byte[] data) throws Exception {
+        ObjectInputStream ois = new ObjectInputStream(
+                new ByteArrayInputStream(data));
+        return ois.readObject();
+    }
+
+
+    private interface Op {
+
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,175 @@
+package VehicleServer;
+
+import ModelClasses.PassengerList;
+import ModelClasses.Ticket;
+import ModelClasses.TicketList;
+import Protocol.PassengerBitmap;
+import Protocol.PassengerDelta;
+import Protocol.WireCodec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.TreeSet;
+
+
+/**
+ * Simulation of the ticket requests of a five-zone ride with 800 passengers,
+ * where a share of the passengers alights and is replaced at every zone
+ * transit. For each share, the uplink payload and the passengers the backend
+ * has to process over the ride are summed for full requests, serialized or as
+ * a bitmap, and for delta requests.
+ * <p>
+ * Along the way, the tickets kept by the vehicle are merged with
+ * <code>VehicleComputer.mergeTickets</code>, and must end up as exactly one
+ * ticket per passenger on-board.
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 16, 2014
+ * Contributors:
+ */
+public class DeltaRequestTest {
+
+    private static final int PASSENGERS = 800;
+    private static final int ZONES = 5;
+    private static final double[] CHURN = {0.0, 0.02, 0.05, 0.10, 0.25};
+
+
+    public static void main(String[] args) throws IOException {
+        System.out.println("Five-zone ride of " + PASSENGERS
+                + " passengers; sums over all ticket requests");
+        System.out.println(String.format("%6s %14s %14s %14s %12s %12s",
+                "churn", "legacy (B)", "bitmap (B)", "delta (B)",
+                "full (pax)", "delta (pax)"));
+        for (double churn : CHURN) {
+            Random random = new Random(3);
+            TreeSet<Integer> onBoard = new TreeSet<>();
+            int nextCustomer = 245000;
+            while (onBoard.size() != PASSENGERS) {
+                onBoard.add(nextCustomer);
+                nextCustomer += 1 + random.nextInt(4);
+            }
+
+            long legacyBytes = 0;
+            long bitmapBytes = 0;
+            long deltaBytes = 0;
+            long fullPassengers = 0;
+            long deltaPassengers = 0;
+            PassengerBitmap previous = null;
+            TicketStore tickets = null;
+            for (int zone = 1; zone <= ZONES; ++zone) {
+                if (zone != 1) {
+                    /*Replace a share of the passengers*/
+                    ArrayList<Integer> current = new ArrayList<>(onBoard);
+                    int changed = (int) (PASSENGERS * churn);
+                    for (int i = 0; i != changed; ++i) {
+                        onBoard.remove(current.get(
+                                random.nextInt(current.size())));
+                        current = new ArrayList<>(onBoard);
+                    }
+                    while (onBoard.size() != PASSENGERS) {
+                        onBoard.add(nextCustomer);
+                        nextCustomer += 1 + random.nextInt(4);
+                    }
+                }
+                PassengerBitmap bitmap = PassengerBitmap.of(toArray(onBoard));
+                legacyBytes += serializedSize(toList(onBoard, zone));
+                bitmapBytes += WireCodec.passengersFrameSize(bitmap);
+                fullPassengers += onBoard.size();
+
+                if (previous == null) {
+                    /*The first request of a ride is always full*/
+                    deltaBytes += WireCodec.passengersFrameSize(bitmap);
+                    deltaPassengers += onBoard.size();
+                    tickets = new TicketStore(ticketsFor(bitmap.toArray(),
+                                                         zone));
+                } else {
+                    PassengerDelta delta = PassengerDelta.between(zone,
+                            previous, bitmap);
+                    if (!delta.getBoarded().isEmpty()) {
+                        deltaBytes += delta.frameSize();
+                        deltaPassengers += delta.getBoarded().cardinality();
+                    }
+                    checkRoundTrip(delta);
+                    tickets = VehicleComputer.mergeTickets(tickets, delta,
+                            ticketsFor(delta.getBoarded().toArray(), zone));
+                }
+                previous = bitmap;
+                checkTickets(tickets.toTicketList(), onBoard);
+            }
+            System.out.println(String.format(
+                    "%5.0f%% %14d %14d %14d %12d %12d", churn * 100,
+                    legacyBytes, bitmapBytes, deltaBytes, fullPassengers,
+                    deltaPassengers));
+        }
+    }
+
+    /**
+     * Check that a delta decodes to the same passengers.
+     */
+    private static void checkRoundTrip(PassengerDelta delta) {
+        ByteBuffer frame = ByteBuffer.allocate(delta.frameSize());
+        delta.encode(frame);
+        frame.flip();
+        PassengerDelta decoded = PassengerDelta.decode(frame);
+        if (decoded.getZone() != delta.getZone()
+                || !decoded.getBoarded().equals(delta.getBoarded())
+                || !decoded.getAlighted().equals(delta.getAlighted())) {
+            throw new AssertionError("Delta changed in encoding.");
+        }
+    }
+
+    /**
+     * Check that the tickets are exactly one for each passenger on-board.
+     */
+    private static void checkTickets(TicketList tickets,
+                                     TreeSet<Integer> onBoard) {
+        TreeSet<Integer> ticketed = new TreeSet<>();
+        for (Ticket ticket : tickets.getAllTickets()) {
+            if (!ticketed.add(ticket.getCustomerNumber())) {
+                throw new AssertionError("Two tickets for one passenger.");
+            }
+        }
+        if (!ticketed.equals(onBoard)) {
+            throw new AssertionError("Tickets do not match passengers.");
+        }
+    }
+
+    private static TicketList ticketsFor(int[] customers, int zone) {
+        ArrayList<Ticket> list = new ArrayList<>(customers.length);
+        for (int customer : customers) {
+            Ticket ticket = new Ticket();
+            ticket.createTicket(customer, "2014-12-16 10:00:00", 24, zone, 2,
+                                customer);
+            list.add(ticket);
+        }
+        TicketList tickets = new TicketList();
+        tickets.setAllTickets(list);
+        return tickets;
+    }
+
+    private static int serializedSize(PassengerList passengers) throws
+            IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(passengers);
+        oos.flush();
+        return bos.size();
+    }
+
+    private static PassengerList toList(TreeSet<Integer> customers, int zone) {
+        PassengerList passengers = new PassengerList(zone);
+        passengers.setAllPassengers(new ArrayList<>(customers));
+        return passengers;
+    }
+
+    private static int[] toArray(TreeSet<Integer> customers) {
+        int[] array = new int[customers.size()];
+        int i = 0;
+        for (int customer : customers) {
+            array[i++] = customer;
+        }
+        return array;
+    }
+}
@@ -0,0 +1,219 @@
+package VehicleServer;
+
+import ModelClasses.Ticket;
+import ModelClasses.TicketList;
+import Protocol.WireCodec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+
+/**
+ * Load test of the <code>UDPDownlinkHandler</code>, as when an inspector
+ * boards and every passenger opens their ticket at once. One thread opens a
+ * channel per simulated PDA, sends a ticket request from each of them in one
+ * burst, and waits up to 5 seconds, the timeout of the PDA, for the replies.
+ * Every reply is checked against the tickets; a quarter of the PDAs have
+ * none.
+ * <p>
+ * The bursts are repeated for 10, 100 and 1000 PDAs, with legacy and binary
+ * requests, against a handler with a single worker, which answers one
+ * request after another as the handler used to, a pool of 4 workers, and
+ * virtual threads where the JVM has them. The median and 99th percentile
+ * time to the reply, and the requests left unanswered, are reported.
+ * <p>
+ * Usage: <code>DownlinkLoadTest [bursts]</code>
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 17, 2014
+ * Contributors:
+ */
+public class DownlinkLoadTest {
+
+    private static final int FIRST_CUSTOMER = 245000;
+    private static final int TICKETS = 800;
+    private static final long TIMEOUT_NS = 5000000000L;
+
+
+    public static void main(String[] args) throws Exception {
+        int bursts = (args.length > 0) ? Integer.parseInt(args[0]) : 20;
+        final TicketReplies replies = new TicketReplies(new TicketStore(
+                tickets()));
+        TicketStore store = replies.getStore();
+        UDPDownlinkHandler.TicketSource source
+                = new UDPDownlinkHandler.TicketSource() {
+                    @Override
+                    public TicketReplies getTicketReplies() {
+                        return replies;
+                    }
+                };
+
+        System.out.println(String.format("%-12s %-7s %6s %10s %10s %9s",
+                "workers", "format", "PDAs", "p50 (us)", "p99 (us)",
+                "timeouts"));
+        String[][] setups = {{"pool", "1"}, {"pool", "4"}, {"virtual", "4"}};
+        for (String[] setup : setups) {
+            UDPDownlinkHandler handler;
+            try {
+                handler = new UDPDownlinkHandler(source, new VehicleMetrics(),
+                        0, 1024 * 1024, setup[0], Integer.parseInt(setup[1]),
+                        16);
+            } catch (IllegalArgumentException ex) {
+                System.out.println(setup[0] + " skipped: " + ex.getMessage());
+                continue;
+            }
+            handler.start();
+            InetSocketAddress target = new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(), handler.getLocalPort());
+            for (boolean binary : new boolean[]{false, true}) {
+                for (int pdas : new int[]{10, 100, 1000}) {
+                    long[] result = run(target, store, binary, pdas, bursts);
+                    System.out.println(String.format(
+                            "%-12s %-7s %6d %10.1f %10.1f %9d",
+                            setup[0] + " " + setup[1],
+                            binary ? "binary" : "legacy", pdas,
+                            result[0] / 1000.0, result[1] / 1000.0,
+                            result[2]));
+                }
+            }
+            handler.shutdown();
+            handler.join();
+        }
+    }
+
+    /**
+     * Send bursts of requests from a number of PDAs and wait for the replies.
+     * <p>
+     * @return the median and 99th percentile time to a reply, in nanoseconds,
+     *         and the number of requests left unanswered.
+     */
+    private static long[] run(InetSocketAddress target, TicketStore store,
+                              boolean binary, int pdas, int bursts)
+            throws IOException, ClassNotFoundException {
+        Selector selector = Selector.open();
+        DatagramChannel[] channels = new DatagramChannel[pdas];
+        int[] customers = new int[pdas];
+        for (int i = 0; i != pdas; ++i) {
+            channels[i] = DatagramChannel.open();
+            channels[i].configureBlocking(false);
+            channels[i].register(selector, SelectionKey.OP_READ, i);
+            /*One in four has no ticket*/
+            customers[i] = FIRST_CUSTOMER + (i * 3) % (TICKETS * 4 / 3);
+        }
+
+        long[] latencies = new long[pdas * bursts];
+        int answered = 0;
+        long timeouts = 0;
+        long[] sentAt = new long[pdas];
+        boolean[] done = new boolean[pdas];
+        ByteBuffer in = ByteBuffer.allocate(1024);
+        for (int burst = 0; burst != bursts; ++burst) {
+            for (int i = 0; i != pdas; ++i) {
+                done[i] = false;
+                sentAt[i] = System.nanoTime();
+                channels[i].send(request(customers[i], binary), target);
+            }
+            int pending = pdas;
+            long deadline = System.nanoTime() + TIMEOUT_NS;
+            while (pending != 0 && System.nanoTime() < deadline) {
+                long left = (deadline - System.nanoTime()) / 1000000;
+                if (selector.select(Math.max(1, left)) == 0) {
+                    continue;
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    int i = (Integer) key.attachment();
+                    in.clear();
+                    if (channels[i].receive(in) == null) {
+                        continue;
+                    }
+                    long now = System.nanoTime();
+                    in.flip();
+                    check(in, store, customers[i], binary);
+                    if (!done[i]) {
+                        done[i] = true;
+                        --pending;
+                        latencies[answered++] = now - sentAt[i];
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+            timeouts += pending;
+        }
+
+        for (DatagramChannel channel : channels) {
+            channel.close();
+        }
+        selector.close();
+        long[] sorted = Arrays.copyOf(latencies, answered);
+        Arrays.sort(sorted);
+        if (sorted.length == 0) {
+            return new long[]{-1, -1, timeouts};
+        }
+        return new long[]{sorted[sorted.length / 2],
+            sorted[(int) (sorted.length * 0.99)], timeouts};
+    }
+
+    private static ByteBuffer request(int customer, boolean binary)
+            throws IOException {
+        if (binary) {
+            ByteBuffer frame = ByteBuffer.allocate(
+                    WireCodec.CUSTOMER_FRAME_SIZE);
+            WireCodec.encodeCustomer(frame, WireCodec.TYPE_TICKET_REQUEST,
+                                     customer);
+            frame.flip();
+            return frame;
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(Integer.toString(customer));
+        oos.flush();
+        return ByteBuffer.wrap(bos.toByteArray());
+    }
+
+    /**
+     * Check that a reply holds the ticket of the customer, or tells that the
+     * customer has none, in the format of the request.
+     */
+    private static void check(ByteBuffer reply, TicketStore store,
+                              int customer, boolean binary)
+            throws IOException, ClassNotFoundException {
+        boolean hasTicket = store.find(customer) != -1;
+        Ticket ticket;
+        if (binary) {
+            ticket = WireCodec.decodeTicket(reply);
+        } else if (reply.remaining() == 1) {
+            ticket = null;
+        } else {
+            ObjectInputStream ois = new ObjectInputStream(
+                    new ByteArrayInputStream(reply.array(), 0,
+                                             reply.remaining()));
+            ticket = (Ticket) ois.readObject();
+        }
+        if (hasTicket != (ticket != null) || (ticket != null
+                && ticket.getCustomerNumber() != customer)) {
+            throw new AssertionError("Wrong reply for customer " + customer);
+        }
+    }
+
+    private static TicketList tickets() {
+        ArrayList<Ticket> all = new ArrayList<>(TICKETS);
+        for (int i = 0; i != TICKETS; ++i) {
+            Ticket ticket = new Ticket();
+            ticket.createTicket(i + 1, "2014-12-17 08:30:00", 24, 1 + i % 5,
+                                2 + i % 8, FIRST_CUSTOMER + i);
+            all.add(ticket);
+        }
+        TicketList list = new TicketList();
+        list.setAllTickets(all);
+        return list;
+    }
+}
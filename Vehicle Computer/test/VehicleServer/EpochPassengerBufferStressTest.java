@@ -0,0 +1,147 @@
+package VehicleServer;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Stress test of <code>EpochPassengerBuffer</code>. Writer threads record
+ * pongs continuously, each of a customer number used only once, while the
+ * filter thread flips the epoch thousands of times. Afterwards every
+ * customer must have been drained exactly once: none vanished in a swap, and
+ * none was counted in two rounds.
+ * <p>
+ * Also reported is the longest time a single <code>add</code> took, to show
+ * that writers are not held up by the flips. On a machine with fewer cores
+ * than threads, this includes the time a writer was descheduled.
+ * <p>
+ * Usage: <code>EpochPassengerBufferStressTest [flips] [writers]</code>
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 16, 2014
+ * Contributors:
+ */
+public class EpochPassengerBufferStressTest {
+
+    /**Customer numbers of one writer start at its index times this*/
+    private static final int WRITER_RANGE = 100000000;
+
+    /**Number of pongs a writer records between yielding; a power of two*/
+    private static final int YIELD_EVERY = 64;
+
+    private static volatile boolean stopped = false;
+
+
+    public static void main(String[] args) throws InterruptedException {
+        int flips = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+        int writerCount = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+        if (writerCount > Integer.MAX_VALUE / WRITER_RANGE - 1) {
+            throw new IllegalArgumentException("Too many writers.");
+        }
+
+        final EpochPassengerBuffer buffer = new EpochPassengerBuffer(16, 800);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicLong maxAddNanos = new AtomicLong();
+        final int[] written = new int[writerCount];
+        Thread[] writers = new Thread[writerCount];
+        for (int w = 0; w != writerCount; ++w) {
+            final int index = w;
+            writers[w] = new Thread() {
+                @Override
+                public void run() {
+                    int base = (index + 1) * WRITER_RANGE;
+                    int count = 0;
+                    long max = 0;
+                    try {
+                        start.await();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    while (!stopped && count != WRITER_RANGE - 1) {
+                        long before = System.nanoTime();
+                        buffer.add(base + count);
+                        max = Math.max(max, System.nanoTime() - before);
+                        if ((++count & (YIELD_EVERY - 1)) == 0) {
+                            /*Keep rounds small on machines with few cores*/
+                            Thread.yield();
+                        }
+                    }
+                    written[index] = count;
+                    long current;
+                    do {
+                        current = maxAddNanos.get();
+                    } while (max > current
+                            && !maxAddNanos.compareAndSet(current, max));
+                }
+            };
+            writers[w].start();
+        }
+
+        /*Flip continuously while the writers record*/
+        boolean[][] seen = new boolean[writerCount][];
+        int duplicates = 0;
+        long drained = 0;
+        long flipNanos = 0;
+        start.countDown();
+        for (int f = 0; f != flips; ++f) {
+            long before = System.nanoTime();
+            int[] round = buffer.flip();
+            flipNanos += System.nanoTime() - before;
+            duplicates += record(round, seen);
+            drained += round.length;
+        }
+        stopped = true;
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        int[] rest = buffer.flip();
+        duplicates += record(rest, seen);
+        drained += rest.length;
+
+        long total = 0;
+        long missing = 0;
+        for (int w = 0; w != writerCount; ++w) {
+            total += written[w];
+            for (int i = 0; i != written[w]; ++i) {
+                if (seen[w] == null || i >= seen[w].length || !seen[w][i]) {
+                    ++missing;
+                }
+            }
+        }
+        System.out.println(String.format(
+                "%d writers, %d flips: %d pongs recorded, %d drained,"
+                + " %d missing, %d duplicated", writerCount, flips, total,
+                drained, missing, duplicates));
+        System.out.println(String.format(
+                "Mean flip %.1f us, longest add %.1f us",
+                flipNanos / 1000.0 / flips, maxAddNanos.get() / 1000.0));
+        if (missing != 0 || duplicates != 0 || drained != total) {
+            throw new AssertionError("Pongs were lost or duplicated.");
+        }
+    }
+
+    /**
+     * Mark the customers of a drained round as seen.
+     * <p>
+     * @return the number of customers that were already seen.
+     */
+    private static int record(int[] round, boolean[][] seen) {
+        int duplicates = 0;
+        for (int customer : round) {
+            int writer = customer / WRITER_RANGE - 1;
+            int index = customer % WRITER_RANGE;
+            if (seen[writer] == null) {
+                seen[writer] = new boolean[1 << 16];
+            }
+            while (index >= seen[writer].length) {
+                seen[writer] = Arrays.copyOf(seen[writer],
+                        seen[writer].length * 2);
+            }
+            if (seen[writer][index]) {
+                ++duplicates;
+            }
+            seen[writer][index] = true;
+        }
+        return duplicates;
+    }
+}
@@ -0,0 +1,239 @@
+package VehicleServer;
+
+import ModelClasses.PassengerList;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Random;
+
+
+/**
+ * Comparison of <code>PassengerList</code>,
+ * <code>PrimitivePassengerList</code> and <code>BitmapPassengerList</code> on
+ * the work of one filter round in
+ * <code>VehicleComputer.filterPassengers()</code>: building the list of
+ * the round from the drained customer numbers, and intersecting it with the
+ * active passengers, of whom 90 % are still on board. Also timed is removing
+ * a tenth of the passengers one at a time.
+ * <p>
+ * Each operation is repeated until it has run for a while, after a warmup,
+ * and the mean is reported. The results of both lists are checked to hold the
+ * same passengers, and a serialized <code>PrimitivePassengerList</code> and
+ * <code>BitmapPassengerList</code> to be read back as a plain
+ * <code>PassengerList</code>.
+ * <p>
+ * Usage: <code>PassengerListComparisonTest [passenger counts...]</code>
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 16, 2014
+ * Contributors:
+ */
+public class PassengerListComparisonTest {
+
+    private static final long MIN_RUN_NANOS = 500000000L;
+
+    private static int sink;
+
+
+    public static void main(String[] args) throws Exception {
+        int[] counts = {800, 5000, 50000};
+        if (args.length > 0) {
+            counts = new int[args.length];
+            for (int i = 0; i != args.length; ++i) {
+                counts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        checkSerialization();
+
+        System.out.println(String.format("%8s %-10s %14s %14s %14s",
+                "size", "list", "build (us)", "filter (us)", "remove (us)"));
+        for (int count : counts) {
+            Random random = new Random(count);
+            final int[] round = new int[count];
+            final int[] active = new int[count];
+            for (int i = 0; i != count; ++i) {
+                round[i] = 100000 + i * 7;
+                active[i] = (random.nextInt(10) == 0) ? 10000000 + i : round[i];
+            }
+            final ArrayList<Integer> roundBoxed = boxed(round);
+            final PassengerList activeList = new PassengerList(1);
+            activeList.setAllPassengers(boxed(active));
+            final PrimitivePassengerList activePrimitive =
+                    new PrimitivePassengerList(1, active);
+            final BitmapPassengerList activeBitmap =
+                    new BitmapPassengerList(1, active);
+
+            PassengerList plain = new PassengerList(1);
+            plain.setAllPassengers(roundBoxed);
+            PassengerList primitive = new PrimitivePassengerList(1, round);
+            if (!new PrimitivePassengerList(plain.getDuplicatePassengers(
+                    activeList)).equals(primitive.getDuplicatePassengers(
+                                    activePrimitive))) {
+                throw new AssertionError("Lists disagree on duplicates.");
+            }
+            if (!new PrimitivePassengerList(new BitmapPassengerList(1, round)
+                    .getDuplicatePassengers(activeBitmap)).equals(
+                            primitive.getDuplicatePassengers(activePrimitive))) {
+                throw new AssertionError("Bitmap disagrees on duplicates.");
+            }
+
+            double build = time(new Op() {
+                @Override
+                public void run() {
+                    PassengerList list = new PassengerList(1);
+                    list.setAllPassengers(boxed(round));
+                    sink += list.size();
+                }
+            });
+            double filter = time(new Op() {
+                @Override
+                public void run() {
+                    PassengerList list = new PassengerList(1);
+                    list.setAllPassengers(roundBoxed);
+                    sink += list.getDuplicatePassengers(activeList).size();
+                }
+            });
+            double remove = time(new Op() {
+                @Override
+                public void run() {
+                    PassengerList list = new PassengerList(1);
+                    list.setAllPassengers(boxed(round));
+                    for (int i = 0; i < round.length; i += 10) {
+                        list.removeSinglePassenger(round[i]);
+                    }
+                    sink += list.size();
+                }
+            });
+            print(count, "ArrayList", build, filter, remove);
+
+            build = time(new Op() {
+                @Override
+                public void run() {
+                    sink += new PrimitivePassengerList(1, round).size();
+                }
+            });
+            filter = time(new Op() {
+                @Override
+                public void run() {
+                    PassengerList list = new PrimitivePassengerList(1, round);
+                    sink += list.getDuplicatePassengers(activePrimitive).size();
+                }
+            });
+            remove = time(new Op() {
+                @Override
+                public void run() {
+                    PrimitivePassengerList list =
+                            new PrimitivePassengerList(1, round);
+                    for (int i = 0; i < round.length; i += 10) {
+                        list.removePassenger(round[i]);
+                    }
+                    sink += list.size();
+                }
+            });
+            print(count, "IntHashSet", build, filter, remove);
+
+            build = time(new Op() {
+                @Override
+                public void run() {
+                    sink += new BitmapPassengerList(1, round).size();
+                }
+            });
+            filter = time(new Op() {
+                @Override
+                public void run() {
+                    PassengerList list = new BitmapPassengerList(1, round);
+                    sink += list.getDuplicatePassengers(activeBitmap).size();
+                }
+            });
+            final BitmapPassengerList roundBitmap =
+                    new BitmapPassengerList(1, round);
+            double and = time(new Op() {
+                @Override
+                public void run() {
+                    sink += roundBitmap.getDuplicatePassengers(activeBitmap)
+                            .size();
+                }
+            });
+            remove = time(new Op() {
+                @Override
+                public void run() {
+                    BitmapPassengerList list =
+                            new BitmapPassengerList(1, round);
+                    for (int i = 0; i < round.length; i += 10) {
+                        list.removePassenger(round[i]);
+                    }
+                    sink += list.size();
+                }
+            });
+            print(count, "Bitmap", build, filter, remove);
+            System.out.println(String.format("%8d %-10s %14s %14.1f",
+                    count, "Bitmap AND", "", and));
+        }
+        System.out.println("(checksum " + sink + ")");
+    }
+
+    /**
+     * Serialize a <code>PrimitivePassengerList</code> and a
+     * <code>BitmapPassengerList</code>, and check that each is read back as an
+     * equal, plain <code>PassengerList</code>.
+     */
+    private static void checkSerialization() throws Exception {
+        int[] customers = {245013, 245014, 900001};
+        checkSerialization(new PrimitivePassengerList(3, customers));
+        checkSerialization(new BitmapPassengerList(3, customers));
+    }
+
+    private static void checkSerialization(PassengerList list) throws
+            Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        new ObjectOutputStream(bos).writeObject(list);
+        Object read = new ObjectInputStream(new ByteArrayInputStream(
+                bos.toByteArray())).readObject();
+        if (read.getClass() != PassengerList.class
+                || ((PassengerList) read).getZone() != 3
+                || !new PrimitivePassengerList((PassengerList) read).equals(
+                        new PrimitivePassengerList(list))) {
+            throw new AssertionError("Not read back as a PassengerList.");
+        }
+    }
+
+    private static ArrayList<Integer> boxed(int[] values) {
+        ArrayList<Integer> list = new ArrayList<>(values.length);
+        for (int value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    /**
+     * Run an operation once as warmup, then repeatedly for at least
+     * <code>MIN_RUN_NANOS</code>.
+     * <p>
+     * @return the mean time per run in microseconds.
+     */
+    private static double time(Op op) {
+        op.run();
+        int runs = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            op.run();
+            ++runs;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < MIN_RUN_NANOS);
+        return elapsed / 1000.0 / runs;
+    }
+
+    private static void print(int count, String list, double build,
+                              double filter, double remove) {
+        System.out.println(String.format("%8d %-10s %14.1f %14.1f %14.1f",
+                count, list, build, filter, remove));
+    }
+
+
+    private interface Op {
+
+        void run();
+    }
+}
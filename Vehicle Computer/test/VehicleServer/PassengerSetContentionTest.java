@@ -0,0 +1,123 @@
+package VehicleServer;
+
+import ModelClasses.PassengerList;
+import java.util.concurrent.CountDownLatch;
+
+
+/**
+ * Contention benchmark for recording pinged passengers. Compares the former
+ * <code>synchronized addToPassengers</code> appending to a
+ * <code>PassengerList</code> with the <code>ConcurrentPassengerSet</code>, of
+ * a single stripe, the default, and of 16 stripes, with 1, 4, 16 and 64
+ * writer threads sharing the same number of pongs.
+ * <p>
+ * Every configuration is run a few times to warm up, and the best run is
+ * reported.
+ * <p>
+ * Usage: <code>PassengerSetContentionTest [pongs per run]</code>
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 10, 2014
+ * Contributors:
+ */
+public class PassengerSetContentionTest {
+
+    private static final int[] WRITERS = {1, 4, 16, 64};
+    private static final int STRIPES = 16;
+    private static final int RUNS = 5;
+
+
+    public static void main(String[] args) throws InterruptedException {
+        int pongs = (args.length > 0) ? Integer.parseInt(args[0]) : 256000;
+
+        System.out.println("Recording " + pongs + " pongs per run.");
+        System.out.println(String.format("%8s %22s %18s %18s", "writers",
+                "synchronized (ns/op)", "1 stripe (ns/op)",
+                STRIPES + " stripes (ns/op)"));
+        for (int writers : WRITERS) {
+            long locked = Long.MAX_VALUE;
+            long single = Long.MAX_VALUE;
+            long striped = Long.MAX_VALUE;
+            for (int run = 0; run != RUNS; ++run) {
+                locked = Math.min(locked, run(writers, pongs, new Locked()));
+                single = Math.min(single, run(writers, pongs,
+                                              new Striped(1)));
+                striped = Math.min(striped, run(writers, pongs,
+                                                new Striped(STRIPES)));
+            }
+            System.out.println(String.format("%8d %22.1f %18.1f %18.1f",
+                    writers, (double) locked / pongs, (double) single / pongs,
+                    (double) striped / pongs));
+        }
+    }
+
+    /**
+     * Let the writers record their share of pongs at the same time.
+     * <p>
+     * @return the wall time in nanoseconds.
+     */
+    private static long run(int writers, final int pongs, final Recorder rec)
+            throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final int share = pongs / writers;
+        Thread[] threads = new Thread[writers];
+        for (int t = 0; t != writers; ++t) {
+            final int first = 1 + t * share;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    for (int i = first; i != first + share; ++i) {
+                        rec.add(i);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        long time1 = System.nanoTime();
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        return System.nanoTime() - time1;
+    }
+
+
+    private interface Recorder {
+
+        void add(int customerNumber);
+    }
+
+
+    /**
+     * The recording as done before: one monitor for all writers.
+     */
+    private static class Locked implements Recorder {
+
+        private final PassengerList passengers = new PassengerList(1);
+
+        @Override
+        public synchronized void add(int customerNumber) {
+            passengers.addSinglePassenger(customerNumber);
+        }
+    }
+
+
+    private static class Striped implements Recorder {
+
+        private final ConcurrentPassengerSet passengers;
+
+
+        Striped(int stripeCount) {
+            passengers = new ConcurrentPassengerSet(stripeCount, 800);
+        }
+
+        @Override
+        public void add(int customerNumber) {
+            passengers.add(customerNumber);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package VehicleServer;
+
+import Protocol.PassengerBitmap;
+import java.util.ArrayList;
+import java.util.Random;
+
+
+/**
+ * Simulation of ping sessions on a vehicle with 50 to 800 PDAs on-board,
+ * comparing the fixed cadence of five pings a second apart with the adaptive
+ * <code>PingCadence</code>. Time is simulated, so the test runs in well under
+ * a second.
+ * <p>
+ * The pong of each PDA is lost with a probability growing with the number of
+ * PDAs, and otherwise arrives after a network delay plus a share of the
+ * contention of the Wi-Fi, up to 0.5 ms per PDA on-board; a few pongs
+ * straggle for up to 300 ms more. A pong arriving after its round is closed
+ * is counted in the next, as in <code>EpochPassengerBuffer</code>. Passengers
+ * are found on-board by a <code>PresenceTracker</code> of 4 of 5 rounds,
+ * kept over the sessions of the ride as in <code>VehicleComputer</code>.
+ * Every other stop, a tenth of the passengers alight; at the stops between,
+ * as many new passengers board, whom the tracker has not heard yet, and no
+ * one alights.
+ * <p>
+ * For each cadence is reported the mean time from the first ping to the
+ * ticket request, the mean number of pings, and the mean number of
+ * passengers, and of those who just boarded, not found on-board at the end
+ * of a session, i.e. left out of its ticket request.
+ * <p>
+ * Usage: <code>PingCadenceSimulation [sessions]</code>
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 16, 2014
+ * Contributors:
+ */
+public class PingCadenceSimulation {
+
+    private static final int[] PDAS = {50, 100, 200, 400, 800};
+    private static final double CONTENTION_MS_PER_PDA = 0.5;
+    private static final double STRAGGLER_SHARE = 0.01;
+    private static final double BOARDING_SHARE = 0.1;
+
+
+    public static void main(String[] args) {
+        int sessions = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+        System.out.println("Mean of " + sessions + " sessions; fixed is 5 pings"
+                + " 1000 ms apart, adaptive 200-2000 ms, 2 stable rounds");
+        System.out.println(String.format("%6s %7s | %10s %6s %8s %8s | %10s"
+                + " %6s %8s %8s", "PDAs", "loss", "fixed (ms)", "pings",
+                "missing", "boarders", "adapt (ms)", "pings", "missing",
+                "boarders"));
+        for (int pdas : PDAS) {
+            double loss = 0.005 + 0.04 * pdas / 800;
+            double[] fixed = run(PingCadence.fixed(1000, 5), pdas, loss,
+                                 sessions);
+            double[] adaptive = run(new PingCadence(200, 2000, 2, 5), pdas,
+                                    loss, sessions);
+            System.out.println(String.format("%6d %6.1f%% | %10.0f %6.2f"
+                    + " %8.2f %8.2f | %10.0f %6.2f %8.2f %8.2f", pdas,
+                    loss * 100, fixed[0], fixed[1], fixed[2], fixed[3],
+                    adaptive[0], adaptive[1], adaptive[2], adaptive[3]));
+        }
+    }
+
+    /**
+     * Run the sessions of a ride with the given cadence, after one session
+     * to warm up.
+     * <p>
+     * @return the mean session time in ms, pings, missing passengers and
+     *         missing passengers who just boarded.
+     */
+    private static double[] run(PingCadence cadence, int pdas, double loss,
+                                int sessions) {
+        Random random = new Random(pdas);
+        PresenceTracker presence = new PresenceTracker(5, 4, pdas);
+        /*Customer on each seat, 0 if empty*/
+        int[] riders = new int[pdas];
+        boolean[] boarded = new boolean[pdas];
+        int nextCustomer = 1;
+        for (int p = 0; p != pdas; ++p) {
+            riders[p] = nextCustomer++;
+        }
+        double[] sums = new double[4];
+        for (int s = 0; s <= sessions; ++s) {
+            for (int p = 0; p != pdas && s != 0; ++p) {
+                boarded[p] = false;
+                if (s % 2 == 1 && random.nextDouble() < BOARDING_SHARE) {
+                    riders[p] = 0;
+                } else if (s % 2 == 0 && riders[p] == 0) {
+                    riders[p] = nextCustomer++;
+                    boarded[p] = true;
+                }
+            }
+            ArrayList<Double> late = new ArrayList<>();
+            long sessionMs = 0;
+            PassengerBitmap onBoard = null;
+            boolean more = true;
+            cadence.startSession();
+            while (more) {
+                int interval = cadence.getIntervalMs();
+                cadence.pingSent();
+                sessionMs += interval;
+
+                /*Pongs of the last round arriving in this one, then this*/
+                PassengerBitmap heard = new PassengerBitmap();
+                ArrayList<Double> nextLate = new ArrayList<>();
+                for (int i = 0; i != late.size(); i += 2) {
+                    arrive(cadence, presence, heard, late.get(i).intValue(),
+                           late.get(i + 1), interval, null);
+                }
+                for (int p = 0; p != pdas; ++p) {
+                    if (riders[p] != 0 && random.nextDouble() >= loss) {
+                        arrive(cadence, presence, heard, riders[p],
+                               delay(random, pdas), interval, nextLate);
+                    }
+                }
+                late = nextLate;
+
+                onBoard = PassengerBitmap.of(presence.closeRound());
+                more = cadence.closeRound(onBoard, heard.toArray());
+            }
+            if (s != 0) {
+                sums[0] += sessionMs;
+                sums[1] += cadence.getRounds();
+                for (int p = 0; p != pdas; ++p) {
+                    if (riders[p] != 0 && !onBoard.contains(riders[p])) {
+                        ++sums[2];
+                        sums[3] += boarded[p] ? 1 : 0;
+                    }
+                }
+            }
+        }
+        return new double[]{sums[0] / sessions, sums[1] / sessions,
+                            sums[2] / sessions, sums[3] / sessions};
+    }
+
+    /**
+     * Deliver the pong of a customer the given time after the ping of the
+     * round, or hold it for the next round if it arrives after this one is
+     * closed.
+     */
+    private static void arrive(PingCadence cadence, PresenceTracker presence,
+                               PassengerBitmap heard, int customer,
+                               double delayMs, int interval,
+                               ArrayList<Double> late) {
+        if (delayMs > interval) {
+            if (late != null) {
+                late.add((double) customer);
+                late.add(delayMs - interval);
+            }
+            return;
+        }
+        cadence.recordArrival((long) (delayMs * 1000000));
+        if (heard.add(customer)) {
+            presence.record(customer);
+        }
+    }
+
+    private static double delay(Random random, int pdas) {
+        double delay = 2 + 8 * random.nextDouble()
+                + CONTENTION_MS_PER_PDA * pdas * random.nextDouble();
+        if (random.nextDouble() < STRAGGLER_SHARE) {
+            delay += 300 * random.nextDouble();
+        }
+        return delay;
+    }
+}
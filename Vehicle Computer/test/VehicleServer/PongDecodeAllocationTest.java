@@ -0,0 +1,143 @@
+package VehicleServer;
+
+import Protocol.WireCodec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+
+/**
+ * Measures the heap allocated per pong on the handler path, with the
+ * per-thread allocation counter of the HotSpot <code>ThreadMXBean</code>
+ * (the same counter JMH's <code>-prof gc</code> reports as B/op). Compared
+ * are:
+ * <ul>
+ * <li>the old decode: copy to an array, <code>ObjectInputStream</code>,
+ * <code>Integer.parseInt</code>;
+ * <li><code>PongDecoder</code> on a legacy and on a binary pong, from a
+ * reused direct buffer;
+ * <li>the whole handler path: decode, record in a
+ * <code>ConcurrentPassengerSet</code> and send the ack through a
+ * <code>UDPReplySender</code>.
+ * </ul>
+ * Every variant is warmed up before it is measured, so the JIT has compiled
+ * it.
+ * <p>
+ * Usage: <code>PongDecodeAllocationTest [iterations]</code>
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 15, 2014
+ * Contributors:
+ */
+public class PongDecodeAllocationTest {
+
+    private static final int WARMUP = 200000;
+
+    private static long sink;
+
+
+    public static void main(String[] args) throws Exception {
+        int iterations = 1000000;
+        if (args.length > 0) {
+            iterations = Integer.parseInt(args[0]);
+        }
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+
+        final ByteBuffer legacy = ByteBuffer.allocateDirect(256);
+        legacy.put(serialize("245013")).flip();
+        final ByteBuffer binary = ByteBuffer.allocateDirect(256);
+        WireCodec.encodePong(binary, 245013, 77);
+        binary.flip();
+        final byte[] data = new byte[256];
+
+        DatagramChannel sinkChannel = DatagramChannel.open();
+        sinkChannel.bind(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), 0));
+        final InetSocketAddress sink = (InetSocketAddress) sinkChannel
+                .getLocalAddress();
+        final UDPReplySender replySender = new UDPReplySender(1);
+        final ConcurrentPassengerSet passengers = new ConcurrentPassengerSet(
+                VehicleConfig.PASSENGER_STRIPES, 1024);
+        final byte[] ack = UDPPongHandler.ackFor(false);
+
+        System.out.println(String.format("%-28s %10s %10s", "path", "B/op",
+                                         "ns/op"));
+        measure(threads, "ObjectInputStream decode", iterations, new Op() {
+            @Override
+            public void run() throws Exception {
+                ByteBuffer datagram = legacy.duplicate();
+                int length = datagram.remaining();
+                datagram.get(data, 0, length);
+                ObjectInputStream ois = new ObjectInputStream(
+                        new ByteArrayInputStream(data, 0, length));
+                PongDecodeAllocationTest.sink += Integer.parseInt(
+                        (String) ois.readObject());
+            }
+        });
+        measure(threads, "PongDecoder, legacy pong", iterations, new Op() {
+            @Override
+            public void run() {
+                PongDecodeAllocationTest.sink += PongDecoder.customerNumber(
+                        legacy);
+            }
+        });
+        measure(threads, "PongDecoder, binary pong", iterations, new Op() {
+            @Override
+            public void run() {
+                PongDecodeAllocationTest.sink += PongDecoder.customerNumber(
+                        binary);
+            }
+        });
+        measure(threads, "decode + record + ack", iterations / 10, new Op() {
+            @Override
+            public void run() throws Exception {
+                int customer = PongDecoder.customerNumber(legacy);
+                passengers.add(customer);
+                replySender.send(ack, sink);
+            }
+        });
+        System.out.println("(checksum " + PongDecodeAllocationTest.sink + ")");
+        replySender.close();
+        sinkChannel.close();
+    }
+
+    private static void measure(com.sun.management.ThreadMXBean threads,
+                                String path, int iterations, Op op) throws
+            Exception {
+        for (int i = 0; i != WARMUP; ++i) {
+            op.run();
+        }
+        long id = Thread.currentThread().getId();
+        long bytes = threads.getThreadAllocatedBytes(id);
+        long start = System.nanoTime();
+        for (int i = 0; i != iterations; ++i) {
+            op.run();
+        }
+        long nanos = System.nanoTime() - start;
+        bytes = threads.getThreadAllocatedBytes(id) - bytes;
+        System.out.println(String.format("%-28s %10.1f %10.1f", path,
+                (double) bytes / iterations, (double) nanos / iterations));
+    }
+
+    private static byte[] serialize(String s) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(s);
+        oos.flush();
+        return bos.toByteArray();
+    }
+
+
+    private interface Op {
+
+        void run() throws Exception;
+    }
+}
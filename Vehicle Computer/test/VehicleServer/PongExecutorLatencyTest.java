@@ -0,0 +1,145 @@
+package VehicleServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Benchmark of the pong executor modes. A burst of pongs is submitted at once,
+ * one task per pong, to the pool as configured in <code>VehicleComputer</code>
+ * (10 to 20 threads, a queue of 20, and the caller-runs overload policy) and
+ * to a virtual thread per task. Each task deserializes the customer number,
+ * records it in a <code>ConcurrentPassengerSet</code> and sends an ack
+ * through a <code>UDPReplySender</code>. Reported is the latency from the pong
+ * being received (submitted) to the passenger being recorded.
+ * <p>
+ * The virtual mode is skipped when not run on Java 21 or later.
+ * <p>
+ * Usage: <code>PongExecutorLatencyTest [burst sizes...]</code>
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 12, 2014
+ * Contributors:
+ */
+public class PongExecutorLatencyTest {
+
+    private static final int RUNS = 5;
+
+    private static byte[][] pongs;
+    private static byte[] ack;
+    private static InetSocketAddress sink;
+    private static UDPReplySender replySender;
+
+
+    public static void main(String[] args) throws Exception {
+        int[] bursts = {800, 2000, 5000};
+        if (args.length > 0) {
+            bursts = new int[args.length];
+            for (int i = 0; i != args.length; ++i) {
+                bursts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        ack = serialize("ack");
+        pongs = new byte[bursts[bursts.length - 1]][];
+        for (int i = 0; i != pongs.length; ++i) {
+            pongs[i] = serialize(String.valueOf(100000 + i));
+        }
+        DatagramChannel sinkChannel = DatagramChannel.open();
+        sinkChannel.bind(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), 0));
+        sink = (InetSocketAddress) sinkChannel.getLocalAddress();
+        replySender = new UDPReplySender(VehicleConfig.REPLY_CHANNELS);
+
+        System.out.println(String.format("%6s %8s %10s %10s %10s", "burst",
+                "mode", "p50 (us)", "p99 (us)", "max (us)"));
+        for (int burst : bursts) {
+            report(burst, "pool");
+            if (PongExecutors.newVirtualThreadPerTaskExecutor() != null) {
+                report(burst, "virtual");
+            }
+        }
+        replySender.close();
+        sinkChannel.close();
+    }
+
+    /**
+     * Run a burst a number of times in the mode and print the run with the
+     * lowest p99.
+     */
+    private static void report(int burst, String mode) throws Exception {
+        long[] best = null;
+        for (int run = 0; run != RUNS; ++run) {
+            long[] latencies = run(burst, mode);
+            if (best == null || latencies[latencies.length * 99 / 100]
+                    < best[best.length * 99 / 100]) {
+                best = latencies;
+            }
+        }
+        System.out.println(String.format("%6d %8s %10.1f %10.1f %10.1f",
+                burst, mode, best[best.length / 2] / 1000.0,
+                best[best.length * 99 / 100] / 1000.0,
+                best[best.length - 1] / 1000.0));
+    }
+
+    /**
+     * Submit one burst of pongs.
+     * <p>
+     * @return the sorted latencies in nanoseconds.
+     */
+    private static long[] run(int burst, String mode) throws Exception {
+        RejectedExecutionHandler policy =
+                PongOverloadPolicy.forName("callerruns", null, 0);
+        ExecutorService executor = PongExecutors.create(mode, 10, 20, 30, 20,
+                                                        policy);
+        final ConcurrentPassengerSet passengers = new ConcurrentPassengerSet(
+                VehicleConfig.PASSENGER_STRIPES, burst);
+        final long[] latencies = new long[burst];
+
+        for (int i = 0; i != burst; ++i) {
+            final int index = i;
+            final long received = System.nanoTime();
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ObjectInputStream ois = new ObjectInputStream(
+                                new ByteArrayInputStream(pongs[index]));
+                        passengers.add(Integer.parseInt(
+                                (String) ois.readObject()));
+                        latencies[index] = System.nanoTime() - received;
+                        replySender.send(ByteBuffer.wrap(ack), sink);
+                    } catch (IOException | ClassNotFoundException ex) {
+                        ex.printStackTrace();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+        if (executor instanceof ThreadPoolExecutor) {
+            /*Nothing to release for the virtual executor*/
+            executor.shutdownNow();
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static byte[] serialize(String s) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(s);
+        oos.flush();
+        return bos.toByteArray();
+    }
+}
@@ -0,0 +1,251 @@
+package VehicleServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Load test of the pong path. Replays 800 pongs, as sent by
+ * <code>PingHandler</code>, at the same instant against both the old blocking
+ * <code>DatagramSocket</code> receive loop and the
+ * <code>UDPPongReceiver</code>, and reports how many pongs each one lost.
+ * <p>
+ * Both are run with the same receive buffer: first the default of the
+ * operating system, then the 1 MiB the vehicle requests. With a buffer that
+ * holds the whole burst, few pongs are lost by either, so the drops mostly
+ * tell how many pongs fit in the buffer while the receiving thread is busy.
+ * <p>
+ * Both receivers hand their pongs to a pool set up like the one in
+ * <code>VehicleComputer.run()</code>, with workers that deserialize the
+ * customer number.
+ * <p>
+ * Usage: <code>PongReceiverLoadTest [pongs] [port]</code>
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 8, 2014
+ * Contributors:
+ */
+public class PongReceiverLoadTest {
+
+    private static final int SENDER_THREADS = 8;
+    private static final int SETTLE_MS = 1000;
+
+    private static final AtomicInteger received = new AtomicInteger();
+    private static final AtomicInteger handled = new AtomicInteger();
+
+
+    public static void main(String[] args) throws Exception {
+        int pongs = (args.length > 0) ? Integer.parseInt(args[0]) : 800;
+        int port = (args.length > 1) ? Integer.parseInt(args[1]) : 2323;
+        byte[][] payloads = createPongs(pongs);
+
+        System.out.println("Replaying " + pongs + " simultaneous pongs.");
+        for (int rcvBuf : new int[]{0, VehicleConfig.PONG_RCVBUF}) {
+            String size = (rcvBuf == 0) ? "default" : rcvBuf + " bytes";
+            System.out.println("Blocking receive loop, SO_RCVBUF " + size
+                    + ":");
+            report(pongs, runLegacy(payloads, port, rcvBuf));
+            System.out.println("UDPPongReceiver, SO_RCVBUF " + size + ":");
+            report(pongs, runReceiver(payloads, port + 1, rcvBuf));
+        }
+    }
+
+    /**
+     * Run the receive loop as it was before batching: a new packet per
+     * datagram, and a rejection handler that sleeps on the receiving thread.
+     * <p>
+     * @param rcvBuf requested receive buffer, or 0 for the default.
+     */
+    private static int runLegacy(byte[][] payloads, int port, int rcvBuf)
+            throws Exception {
+        received.set(0);
+        handled.set(0);
+        final ThreadPoolExecutor executor = createPool(
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r,
+                                                  ThreadPoolExecutor e) {
+                        try {
+                            Thread.sleep(10);
+                        } catch (InterruptedException ex) {
+                        }
+                        e.execute(r);
+                    }
+                });
+        final DatagramSocket socket = new DatagramSocket(port);
+        if (rcvBuf != 0) {
+            socket.setReceiveBufferSize(rcvBuf);
+        }
+        System.out.println("  granted SO_RCVBUF: "
+                + socket.getReceiveBufferSize() + " bytes");
+        Thread receiver = new Thread() {
+            @Override
+            public void run() {
+                while (!socket.isClosed()) {
+                    final DatagramPacket packet =
+                            new DatagramPacket(new byte[256], 256);
+                    try {
+                        socket.receive(packet);
+                        received.incrementAndGet();
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                decode(packet.getData(), packet.getLength());
+                            }
+                        });
+                    } catch (IOException ex) {
+                        /*Socket closed at the end of the test*/
+                    }
+                }
+            }
+        };
+        receiver.start();
+
+        replay(payloads, port);
+        awaitSettled();
+        socket.close();
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        return received.get();
+    }
+
+    /**
+     * Run the <code>UDPPongReceiver</code> with its default batches.
+     * <p>
+     * @param rcvBuf requested receive buffer, or 0 for the default.
+     */
+    private static int runReceiver(byte[][] payloads, int port, int rcvBuf)
+            throws Exception {
+        received.set(0);
+        handled.set(0);
+        final ThreadPoolExecutor executor = createPool(
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        UDPPongReceiver receiver = new UDPPongReceiver(port, rcvBuf,
+                VehicleConfig.PONG_BATCH_SIZE,
+                VehicleConfig.PONG_BATCH_COUNT, null,
+                new UDPPongReceiver.BatchListener() {
+                    @Override
+                    public void batchReceived(final PongBatch batch) {
+                        received.addAndGet(batch.size());
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                byte[] data = new byte[256];
+                                for (int i = 0; i != batch.size(); ++i) {
+                                    ByteBuffer d = batch.getDatagram(i);
+                                    int length = d.remaining();
+                                    d.get(data, 0, length);
+                                    decode(data, length);
+                                }
+                                batch.recycle();
+                            }
+                        });
+                    }
+                });
+        System.out.println("  granted SO_RCVBUF: "
+                + receiver.getReceiveBufferSize() + " bytes");
+        receiver.start();
+
+        replay(payloads, port);
+        awaitSettled();
+        receiver.shutdown();
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        return received.get();
+    }
+
+    /**
+     * Send all pongs from a number of threads released at the same time.
+     */
+    private static void replay(final byte[][] payloads, final int port) throws
+            Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] senders = new Thread[SENDER_THREADS];
+        for (int t = 0; t != SENDER_THREADS; ++t) {
+            final int first = t;
+            senders[t] = new Thread() {
+                @Override
+                public void run() {
+                    try (DatagramChannel channel = DatagramChannel.open()) {
+                        InetSocketAddress target = new InetSocketAddress(
+                                InetAddress.getLoopbackAddress(), port);
+                        start.await();
+                        for (int i = first; i < payloads.length;
+                                i += SENDER_THREADS) {
+                            channel.send(ByteBuffer.wrap(payloads[i]), target);
+                        }
+                    } catch (IOException | InterruptedException ex) {
+                        ex.printStackTrace();
+                    }
+                }
+            };
+            senders[t].start();
+        }
+        Thread.sleep(100);
+        start.countDown();
+        for (Thread t : senders) {
+            t.join();
+        }
+    }
+
+    /**
+     * Wait until no pongs have arrived for <code>SETTLE_MS</code>.
+     */
+    private static void awaitSettled() throws InterruptedException {
+        int last = -1;
+        while (last != received.get()) {
+            last = received.get();
+            Thread.sleep(SETTLE_MS);
+        }
+    }
+
+    private static ThreadPoolExecutor createPool(RejectedExecutionHandler rh) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(10, 20, 30,
+                TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(20));
+        executor.setRejectedExecutionHandler(rh);
+        executor.prestartAllCoreThreads();
+        return executor;
+    }
+
+    private static void decode(byte[] data, int length) {
+        try {
+            ObjectInputStream ois = new ObjectInputStream(
+                    new ByteArrayInputStream(data, 0, length));
+            Integer.parseInt((String) ois.readObject());
+            handled.incrementAndGet();
+        } catch (IOException | ClassNotFoundException ex) {
+            System.err.println("Invalid pong in load test.");
+        }
+    }
+
+    private static byte[][] createPongs(int count) throws IOException {
+        byte[][] payloads = new byte[count][];
+        for (int i = 0; i != count; ++i) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+            oos.writeObject(String.valueOf(100000 + i));
+            oos.flush();
+            payloads[i] = bos.toByteArray();
+        }
+        return payloads;
+    }
+
+    private static void report(int sent, int got) {
+        System.out.println("  sent: " + sent + ", received: " + got
+                + ", dropped: " + (sent - got) + ", handled: " + handled.get());
+    }
+}
@@ -0,0 +1,170 @@
+package VehicleServer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+
+/**
+ * Simulation of the <code>PresenceTracker</code> on a full vehicle with lost
+ * pongs. For each loss rate, a five-ping session of 800 passengers is run
+ * many times, and the passengers missing after the session are counted for
+ * the strict filter, i.e. 5 of 5 rounds as the intersection of every round
+ * gave, and for 4 and 3 of 5. A passenger missing after a session is one
+ * whose ticket is not requested, and whose PDA would need another session.
+ * <p>
+ * Also measured is how many rounds it takes for 100 passengers leaving the
+ * vehicle to be dropped, and the time of recording a pong and closing a
+ * round. The tracker is first checked against a naive computation over the
+ * rounds kept in lists.
+ * <p>
+ * Usage: <code>PresenceTrackerLossTest [sessions]</code>
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 16, 2014
+ * Contributors:
+ */
+public class PresenceTrackerLossTest {
+
+    private static final int PASSENGERS = 800;
+    private static final int ROUNDS = 5;
+    private static final double[] LOSS_RATES = {0.0, 0.01, 0.05, 0.10};
+    private static final int[] REQUIRED = {5, 4, 3};
+
+
+    public static void main(String[] args) {
+        int sessions = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+        checkAgainstNaive();
+
+        Random random = new Random(5);
+        System.out.println("Passengers missing after a five-ping session of "
+                + PASSENGERS + " (mean of " + sessions + " sessions)");
+        System.out.println(String.format("%8s %12s %12s %12s", "loss",
+                "5 of 5", "4 of 5", "3 of 5"));
+        for (double loss : LOSS_RATES) {
+            double[] missing = new double[REQUIRED.length];
+            for (int s = 0; s != sessions; ++s) {
+                boolean[][] heard = new boolean[ROUNDS][PASSENGERS];
+                for (int r = 0; r != ROUNDS; ++r) {
+                    for (int p = 0; p != PASSENGERS; ++p) {
+                        heard[r][p] = random.nextDouble() >= loss;
+                    }
+                }
+                for (int k = 0; k != REQUIRED.length; ++k) {
+                    PresenceTracker tracker = new PresenceTracker(ROUNDS,
+                            REQUIRED[k], PASSENGERS);
+                    int[] onBoard = null;
+                    for (int r = 0; r != ROUNDS; ++r) {
+                        for (int p = 0; p != PASSENGERS; ++p) {
+                            if (heard[r][p]) {
+                                tracker.record(1 + p);
+                            }
+                        }
+                        onBoard = tracker.closeRound();
+                    }
+                    missing[k] += PASSENGERS - onBoard.length;
+                }
+            }
+            System.out.println(String.format("%7.0f%% %12.2f %12.2f %12.2f",
+                    loss * 100, missing[0] / sessions, missing[1] / sessions,
+                    missing[2] / sessions));
+        }
+
+        /*Rounds until passengers that left are dropped*/
+        System.out.println();
+        for (int required : REQUIRED) {
+            PresenceTracker tracker = new PresenceTracker(ROUNDS, required,
+                                                          PASSENGERS);
+            int rounds = 0;
+            int onBoard = PASSENGERS;
+            for (int r = 0; onBoard != PASSENGERS - 100; ++r) {
+                int heard = (r < ROUNDS) ? PASSENGERS : PASSENGERS - 100;
+                for (int p = 0; p != heard; ++p) {
+                    tracker.record(1 + p);
+                }
+                onBoard = tracker.closeRound().length;
+                rounds = (r < ROUNDS) ? 0 : rounds + 1;
+            }
+            System.out.println(String.format(
+                    "%d of 5: 100 leaving passengers dropped after %d rounds",
+                    required, rounds));
+        }
+
+        /*Cost of recording pongs and closing rounds*/
+        PresenceTracker tracker = new PresenceTracker(ROUNDS, 4, PASSENGERS);
+        int runs = 20000;
+        long recordNanos = 0;
+        long closeNanos = 0;
+        int sink = 0;
+        for (int run = 0; run != runs; ++run) {
+            long start = System.nanoTime();
+            for (int p = 0; p != PASSENGERS; ++p) {
+                tracker.record(1 + p);
+            }
+            long recorded = System.nanoTime();
+            sink += tracker.closeRound().length;
+            long closed = System.nanoTime();
+            if (run >= runs / 2) {
+                recordNanos += recorded - start;
+                closeNanos += closed - recorded;
+            }
+        }
+        System.out.println();
+        System.out.println(String.format(
+                "record: %.1f ns per pong, closeRound: %.1f us for %d"
+                + " passengers (checksum %d)",
+                recordNanos / (double) (runs / 2 * PASSENGERS),
+                closeNanos / 1000.0 / (runs / 2), PASSENGERS, sink));
+    }
+
+    /**
+     * Compare the tracker with the rounds kept as sets, on random rounds of
+     * random window sizes.
+     */
+    private static void checkAgainstNaive() {
+        Random random = new Random(13);
+        for (int test = 0; test != 200; ++test) {
+            int window = 1 + random.nextInt(PresenceTracker.MAX_WINDOW);
+            int required = 1 + random.nextInt(window);
+            PresenceTracker tracker = new PresenceTracker(window, required, 4);
+            ArrayList<HashSet<Integer>> history = new ArrayList<>();
+            for (int round = 0; round != 60; ++round) {
+                HashSet<Integer> heard = new HashSet<>();
+                for (int i = random.nextInt(300); i != 0; --i) {
+                    int customer = 1 + random.nextInt(400);
+                    heard.add(customer);
+                    tracker.record(customer);
+                }
+                history.add(heard);
+                int[] onBoard = tracker.closeRound();
+                Arrays.sort(onBoard);
+
+                int closed = history.size();
+                int needed = Math.min(required, closed);
+                ArrayList<Integer> expected = new ArrayList<>();
+                for (int customer = 1; customer <= 400; ++customer) {
+                    int count = 0;
+                    for (int r = Math.max(0, closed - window); r != closed;
+                         ++r) {
+                        if (history.get(r).contains(customer)) {
+                            ++count;
+                        }
+                    }
+                    if (count >= needed) {
+                        expected.add(customer);
+                    }
+                }
+                if (expected.size() != onBoard.length) {
+                    throw new AssertionError("Tracker disagrees in round "
+                            + round + " of " + required + " of " + window);
+                }
+                for (int i = 0; i != onBoard.length; ++i) {
+                    if (onBoard[i] != expected.get(i)) {
+                        throw new AssertionError("Tracker disagrees in round "
+                                + round + " of " + required + " of " + window);
+                    }
+                }
+            }
+        }
+    }
+}
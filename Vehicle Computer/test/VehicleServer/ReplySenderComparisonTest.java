@@ -0,0 +1,114 @@
+package VehicleServer;
+
+import com.sun.management.UnixOperatingSystemMXBean;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+
+/**
+ * Compares acking pongs with a new <code>DatagramSocket</code> per ack, as
+ * <code>UDPPongHandler</code> used to, against the shared
+ * <code>UDPReplySender</code>. Sends the acks of one ping session (800
+ * passengers times five pings) from ten threads, and reports the wall time
+ * and the number of open file descriptors afterwards.
+ * <p>
+ * Usage: <code>ReplySenderComparisonTest [acks]</code>
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 9, 2014
+ * Contributors:
+ */
+public class ReplySenderComparisonTest {
+
+    private static final int THREADS = 10;
+
+    private static byte[] ack;
+    private static InetSocketAddress target;
+
+
+    public static void main(String[] args) throws Exception {
+        int acks = (args.length > 0) ? Integer.parseInt(args[0]) : 4000;
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject("ack");
+        oos.flush();
+        ack = bos.toByteArray();
+
+        /*Sink that the acks are sent to; never read*/
+        DatagramChannel sink = DatagramChannel.open();
+        sink.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        target = (InetSocketAddress) sink.getLocalAddress();
+
+        System.out.println("Sending " + acks + " acks from " + THREADS
+                + " threads.");
+        long fdBefore = openFileDescriptors();
+        long time = run(acks, null);
+        System.out.println("Socket per ack:  " + (time / 1000000) + " ms, "
+                + (openFileDescriptors() - fdBefore) + " fds left open");
+
+        /*Let the leaked sockets be collected before the second run*/
+        System.gc();
+        System.runFinalization();
+        Thread.sleep(500);
+
+        fdBefore = openFileDescriptors();
+        UDPReplySender sender = new UDPReplySender(
+                VehicleConfig.REPLY_CHANNELS);
+        time = run(acks, sender);
+        System.out.println("UDPReplySender:  " + (time / 1000000) + " ms, "
+                + (openFileDescriptors() - fdBefore) + " fds left open");
+        sender.close();
+        sink.close();
+    }
+
+    /**
+     * Send the acks, either with a new socket per ack or through a shared
+     * sender.
+     * <p>
+     * @return the wall time in nanoseconds.
+     */
+    private static long run(final int acks, final UDPReplySender sender)
+            throws InterruptedException {
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t != THREADS; ++t) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i != acks / THREADS; ++i) {
+                            if (sender == null) {
+                                DatagramSocket socket = new DatagramSocket();
+                                socket.send(new DatagramPacket(ack, ack.length,
+                                                               target));
+                            } else {
+                                sender.send(ByteBuffer.wrap(ack), target);
+                            }
+                        }
+                    } catch (IOException ex) {
+                        ex.printStackTrace();
+                    }
+                }
+            };
+        }
+        long time1 = System.nanoTime();
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        return System.nanoTime() - time1;
+    }
+
+    private static long openFileDescriptors() {
+        return ((UnixOperatingSystemMXBean) ManagementFactory.
+                getOperatingSystemMXBean()).getOpenFileDescriptorCount();
+    }
+}
@@ -0,0 +1,162 @@
+package VehicleServer;
+
+import Protocol.WireCodec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Test of round-tagged pongs. First the round is checked to decode from a
+ * binary pong, and to be absent from a legacy pong; a binary pong without
+ * its round is invalid.
+ * <p>
+ * Then writer threads answer the pings of an <code>EpochPassengerBuffer</code>
+ * while the filter thread flips it continuously. Each writer reads the round
+ * of the ping, and records the pong after a lag, as a pong handler does
+ * behind a backlog in the executor. The round is part of the customer
+ * number, so every drained round can be checked for pongs answering another
+ * round. Recorded untagged, with <code>add</code>, late pongs are counted in
+ * the wrong round; recorded with <code>addInRound</code>, none may be, and
+ * the late pongs are reported as stale instead.
+ * <p>
+ * Usage: <code>RoundTaggedPongTest [flips] [writers]</code>
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 16, 2014
+ * Contributors:
+ */
+public class RoundTaggedPongTest {
+
+    /**Number of rounds told apart by the customer numbers*/
+    private static final int ROUND_RANGE = 20000;
+    /**Customer numbers of one round start at the round plus one times this*/
+    private static final int CUSTOMER_RANGE = 100000;
+    /**One in this many pongs is recorded late*/
+    private static final int LATE_EVERY = 8;
+
+    private static volatile boolean stopped;
+
+
+    public static void main(String[] args) throws Exception {
+        int flips = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        int writerCount = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+        checkFrames();
+
+        long[] untagged = run(false, flips, writerCount);
+        long[] tagged = run(true, flips, writerCount);
+        System.out.println(String.format("%d writers, %d flips, one in %d"
+                + " pongs late", writerCount, flips, LATE_EVERY));
+        System.out.println(String.format("%-9s %10s %12s %8s", "", "recorded",
+                "wrong round", "stale"));
+        System.out.println(String.format("%-9s %10d %12d %8s", "untagged",
+                untagged[0], untagged[1], "-"));
+        System.out.println(String.format("%-9s %10d %12d %8d", "tagged",
+                tagged[0], tagged[1], tagged[2]));
+        if (tagged[1] != 0) {
+            throw new AssertionError("Tagged pongs counted in the wrong round.");
+        }
+    }
+
+    /**
+     * Check that the round is decoded from binary pongs only.
+     */
+    private static void checkFrames() throws IOException {
+        ByteBuffer tagged = ByteBuffer.allocate(WireCodec.PONG_FRAME_SIZE);
+        WireCodec.encodePong(tagged, 245013, 77);
+        tagged.flip();
+        if (PongDecoder.customerNumber(tagged) != 245013
+                || PongDecoder.round(tagged) != 77
+                || WireCodec.decodePongRound(tagged.duplicate()) != 77) {
+            throw new AssertionError("Tagged pong decoded wrong.");
+        }
+
+        ByteBuffer plain = ByteBuffer.allocate(WireCodec.CUSTOMER_FRAME_SIZE);
+        WireCodec.encodeCustomer(plain, WireCodec.TYPE_PONG, 245013);
+        plain.flip();
+        if (PongDecoder.customerNumber(plain) != -1
+                || PongDecoder.round(plain) != -1) {
+            throw new AssertionError("Pong without round accepted.");
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject("245013");
+        oos.flush();
+        ByteBuffer legacy = ByteBuffer.wrap(bos.toByteArray());
+        if (PongDecoder.customerNumber(legacy) != 245013
+                || PongDecoder.round(legacy) != -1) {
+            throw new AssertionError("Legacy pong decoded a round.");
+        }
+    }
+
+    /**
+     * Record pongs from the writers while flipping the buffer.
+     * <p>
+     * @return the pongs recorded, those recorded in the wrong round, and the
+     *         stale pongs discarded.
+     */
+    private static long[] run(final boolean tagged, int flips, int writerCount)
+            throws InterruptedException {
+        final EpochPassengerBuffer buffer = new EpochPassengerBuffer(16, 800);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicLong stale = new AtomicLong();
+        stopped = false;
+        Thread[] writers = new Thread[writerCount];
+        for (int w = 0; w != writerCount; ++w) {
+            final int index = w;
+            writers[w] = new Thread() {
+                @Override
+                public void run() {
+                    Random random = new Random(index);
+                    int count = 0;
+                    try {
+                        start.await();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    while (!stopped) {
+                        int round = buffer.getEpoch() & Integer.MAX_VALUE;
+                        int customer = (round % ROUND_RANGE + 1)
+                                * CUSTOMER_RANGE + index * (CUSTOMER_RANGE
+                                / 10) + count++ % (CUSTOMER_RANGE / 10);
+                        if (random.nextInt(LATE_EVERY) == 0) {
+                            /*Held up behind a backlog of batches*/
+                            Thread.yield();
+                        }
+                        if (!tagged) {
+                            buffer.add(customer);
+                        } else if (buffer.addInRound(customer, round)
+                                == EpochPassengerBuffer.STALE) {
+                            stale.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            writers[w].start();
+        }
+
+        long recorded = 0;
+        long wrongRound = 0;
+        start.countDown();
+        for (int f = 0; f <= flips; ++f) {
+            if (f == flips) {
+                stopped = true;
+                for (Thread writer : writers) {
+                    writer.join();
+                }
+            }
+            int round = buffer.getEpoch() % ROUND_RANGE;
+            for (int customer : buffer.flip()) {
+                ++recorded;
+                if (customer / CUSTOMER_RANGE - 1 != round) {
+                    ++wrongRound;
+                }
+            }
+        }
+        return new long[]{recorded, wrongRound, stale.get()};
+    }
+}
@@ -0,0 +1,153 @@
+package VehicleServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+
+/**
+ * Test that a PDA whose pong is shed under overload is recorded when it
+ * retries. Pongs are sent to a <code>UDPPongReceiver</code> filtered by a
+ * <code>PongDeduplicator</code>, as in <code>VehicleComputer.run()</code>;
+ * the batches of the first pongs are rejected to the overload policy, as by
+ * a saturated executor, and those of the retries are handled. The retry of
+ * the shed customer must then pass the filter and be recorded in the round.
+ * <p>
+ * This is checked for <code>dropnewest</code>, which sheds the whole batch,
+ * and <code>coalesce</code> with room for one pong, which sheds the second
+ * customer of the batch and records the first when flushed.
+ * <p>
+ * The test opens a <code>VehicleComputer</code>, and so its ports, but does
+ * not start it. Since its threads keep running, the test exits with -1 on
+ * a failure.
+ * <p>
+ * Usage: <code>ShedPongRetryTest [port]</code>
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 18, 2014
+ * Contributors:
+ */
+public class ShedPongRetryTest {
+
+    private static final int WAIT_MS = 2000;
+
+    private static volatile boolean overloaded;
+
+
+    public static void main(String[] args) {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : 2333;
+        try {
+            test(port);
+        } catch (Exception | AssertionError ex) {
+            ex.printStackTrace();
+            System.exit(-1);
+        }
+        System.exit(0);
+    }
+
+    private static void test(int port) throws Exception {
+        VehicleComputer vc = new VehicleComputer("1", String.valueOf(port + 2),
+                                                 "127.0.0.1");
+
+        /*dropnewest: the whole first batch is shed*/
+        PongOverloadPolicy policy = PongOverloadPolicy.forName("dropnewest",
+                                                               vc, 0);
+        run(vc, policy, port, new int[]{301}, new int[]{301});
+        check(vc, 301, true, "dropnewest retry");
+        System.out.println("dropnewest: retry recorded, " + policy);
+
+        /*coalesce: the second customer does not fit and is shed*/
+        vc.filterPassengers();
+        policy = PongOverloadPolicy.forName("coalesce", vc, 1);
+        run(vc, policy, port + 1, new int[]{401, 402}, new int[]{402});
+        check(vc, 402, true, "coalesce retry");
+        check(vc, 401, false, "coalesced pong before flush");
+        policy.flush();
+        check(vc, 401, true, "coalesced pong after flush");
+        System.out.println("coalesce: retry recorded, " + policy);
+    }
+
+    /**
+     * Send a first batch of pongs, which is rejected, and then the retries,
+     * which are handled.
+     */
+    private static void run(final VehicleComputer vc,
+                            final PongOverloadPolicy policy, int port,
+                            int[] first, int[] retries) throws Exception {
+        PongDeduplicator deduplicator = new PongDeduplicator(vc, null, 16);
+        policy.setDeduplicator(deduplicator);
+        UDPPongReceiver receiver = new UDPPongReceiver(port, 0, 16, 4,
+                deduplicator, new UDPPongReceiver.BatchListener() {
+                    @Override
+                    public void batchReceived(PongBatch batch) {
+                        UDPPongHandler handler = new UDPPongHandler(vc, null,
+                                                                    batch);
+                        if (overloaded) {
+                            policy.rejectedExecution(handler, null);
+                        } else {
+                            handler.run();
+                        }
+                    }
+                });
+        receiver.start();
+
+        DatagramChannel channel = DatagramChannel.open();
+        InetSocketAddress target = new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), port);
+        overloaded = true;
+        send(channel, target, first);
+        awaitPongs(deduplicator, first.length);
+        for (int customer : first) {
+            check(vc, customer, false, "shed pong");
+        }
+        overloaded = false;
+        send(channel, target, retries);
+        awaitPongs(deduplicator, first.length + retries.length);
+        if (deduplicator.getDuplicates() != 0) {
+            throw new AssertionError("Retry taken for a duplicate.");
+        }
+        channel.close();
+        receiver.shutdown();
+        receiver.join();
+    }
+
+    private static void send(DatagramChannel channel,
+                             InetSocketAddress target, int[] customers)
+            throws IOException {
+        for (int customer : customers) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+            oos.writeObject(String.valueOf(customer));
+            oos.flush();
+            channel.send(ByteBuffer.wrap(bos.toByteArray()), target);
+        }
+    }
+
+    /**
+     * Wait until the receiver has filtered a number of pongs, and given
+     * those it let through to the listener.
+     */
+    private static void awaitPongs(PongDeduplicator deduplicator, int count)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (deduplicator.getPongs() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Pongs not received.");
+            }
+            Thread.sleep(10);
+        }
+        /*The last pong is counted before its batch is handed over*/
+        Thread.sleep(100);
+    }
+
+    private static void check(VehicleComputer vc, int customer,
+                              boolean recorded, String what) {
+        if (vc.hasPonged(customer) != recorded) {
+            throw new AssertionError(what + ": customer " + customer
+                    + (recorded ? " not recorded." : " recorded."));
+        }
+    }
+}
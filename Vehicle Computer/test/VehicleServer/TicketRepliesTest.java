@@ -0,0 +1,187 @@
+package VehicleServer;
+
+import ModelClasses.Ticket;
+import ModelClasses.TicketList;
+import Protocol.WireCodec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+
+/**
+ * Test of <code>TicketReplies</code>. For every ticket of a store, and for
+ * customers without one, the selected reply must be byte for byte the reply
+ * the downlink used to encode per request: the binary frame of the ticket,
+ * or the "no ticket" frame, and the serialized <code>Ticket</code>, or a
+ * single empty byte.
+ * <p>
+ * Then the cost of a reply is compared, encoding it per request as before,
+ * and selecting it in the slab, reporting the time and heap allocated per
+ * legacy and binary reply, where the JVM can measure it. Last, the time to
+ * encode the replies of 800 tickets, paid once per refresh, and the size of
+ * the slab are reported.
+ * <p>
+ * Usage: <code>TicketRepliesTest [replies]</code>
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 17, 2014
+ * Contributors:
+ */
+public class TicketRepliesTest {
+
+    private static final int FIRST_CUSTOMER = 245000;
+    private static final int TICKETS = 800;
+
+
+    public static void main(String[] args) throws IOException {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+        TicketStore store = new TicketStore(tickets());
+        TicketReplies replies = new TicketReplies(store);
+        check(replies);
+
+        int[] customers = new int[count];
+        for (int i = 0; i != count; ++i) {
+            /*One in five has no ticket*/
+            customers[i] = FIRST_CUSTOMER + (i * 7) % (TICKETS * 5 / 4);
+        }
+        for (boolean binary : new boolean[]{false, true}) {
+            /*Warm up both, then measure*/
+            for (int round = 0; round != 2; ++round) {
+                long before = allocatedBytes();
+                long start = System.nanoTime();
+                long bytes = 0;
+                for (int customer : customers) {
+                    bytes += encode(store, customer, binary).remaining();
+                }
+                if (round == 1) {
+                    report("encoded per request", binary, count, start,
+                           before);
+                }
+
+                ByteBuffer view = replies.newView();
+                before = allocatedBytes();
+                start = System.nanoTime();
+                for (int customer : customers) {
+                    replies.select(view, customer, binary);
+                    bytes -= view.remaining();
+                }
+                if (round == 1) {
+                    report("selected in slab", binary, count, start, before);
+                }
+                if (bytes != 0) {
+                    throw new AssertionError("Replies differ in size.");
+                }
+            }
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i != 20; ++i) {
+            replies = new TicketReplies(store);
+        }
+        System.out.println(String.format("%d tickets: %.2f ms to encode,"
+                + " %d B slab", TICKETS, (System.nanoTime() - start) / 20e6,
+                replies.getSlabSize()));
+    }
+
+    /**
+     * Check every reply against the reply encoded per request.
+     */
+    private static void check(TicketReplies replies) throws IOException {
+        TicketStore store = replies.getStore();
+        ByteBuffer view = replies.newView();
+        for (int customer = FIRST_CUSTOMER - 10;
+             customer != FIRST_CUSTOMER + TICKETS + 10; ++customer) {
+            for (boolean binary : new boolean[]{false, true}) {
+                boolean found = replies.select(view, customer, binary);
+                if (found != (store.find(customer) != -1)) {
+                    throw new AssertionError("Customer " + customer
+                            + " found wrong.");
+                }
+                if (!view.equals(encode(store, customer, binary))) {
+                    throw new AssertionError("Wrong reply for customer "
+                            + customer);
+                }
+            }
+        }
+
+        TicketReplies empty = TicketReplies.EMPTY;
+        ByteBuffer emptyView = empty.newView();
+        if (empty.select(emptyView, FIRST_CUSTOMER, true)
+                || WireCodec.decodeTicket(emptyView) != null) {
+            throw new AssertionError("Empty replies found a ticket.");
+        }
+    }
+
+    /**
+     * Encode a reply as the downlink did for every request, before the
+     * replies were cached.
+     */
+    private static ByteBuffer encode(TicketStore store, int customer,
+                                     boolean binary) throws IOException {
+        TicketStore.View view = store.view();
+        boolean found = view.moveTo(customer);
+        if (binary) {
+            ByteBuffer reply = ByteBuffer.allocate(
+                    WireCodec.TICKET_FRAME_SIZE);
+            if (found) {
+                view.encode(reply);
+            } else {
+                WireCodec.encodeTicket(reply, null);
+            }
+            reply.flip();
+            return reply;
+        }
+        if (!found) {
+            return ByteBuffer.wrap(new byte[1]);
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(view.toTicket());
+        oos.flush();
+        return ByteBuffer.wrap(bos.toByteArray());
+    }
+
+    private static void report(String name, boolean binary, int count,
+                               long start, long before) {
+        double nanos = (System.nanoTime() - start) / (double) count;
+        long after = allocatedBytes();
+        String allocated = (before < 0 || after < 0) ? "n/a"
+                : String.format("%.1f B", (after - before) / (double) count);
+        System.out.println(String.format("%-20s %-7s %8.1f ns per reply,"
+                + " %s allocated per reply", name,
+                binary ? "binary" : "legacy", nanos, allocated));
+    }
+
+    /**
+     * Get the heap allocated by this thread so far.
+     * <p>
+     * @return the bytes allocated, or -1 if the JVM cannot tell.
+     */
+    private static long allocatedBytes() {
+        try {
+            return ((com.sun.management.ThreadMXBean) ManagementFactory
+                    .getThreadMXBean()).getThreadAllocatedBytes(
+                            Thread.currentThread().getId());
+        } catch (ClassCastException | UnsupportedOperationException ex) {
+            return -1;
+        }
+    }
+
+    private static TicketList tickets() {
+        ArrayList<Ticket> all = new ArrayList<>(TICKETS);
+        for (int i = 0; i != TICKETS; ++i) {
+            Ticket ticket = new Ticket();
+            ticket.createTicket(i + 1, String.format(
+                    "2014-%02d-%02d %02d:%02d:%02d", 1 + i % 12, 1 + i % 28,
+                    i % 24, i % 60, (i * 7) % 60), 24, 1 + i % 5, 2 + i % 8,
+                    FIRST_CUSTOMER + i);
+            all.add(ticket);
+        }
+        TicketList list = new TicketList();
+        list.setAllTickets(all);
+        return list;
+    }
+}
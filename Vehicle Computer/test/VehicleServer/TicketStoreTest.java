@@ -0,0 +1,216 @@
+package VehicleServer;
+
+import ModelClasses.Ticket;
+import ModelClasses.TicketList;
+import Protocol.PassengerBitmap;
+import Protocol.PassengerDelta;
+import Protocol.WireCodec;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Test of <code>TicketStore</code>. For vehicles of 800 and 10,000 tickets,
+ * every customer, and as many customers without a ticket, must be found as
+ * by <code>TicketList.getTicket</code>, also with a customer holding two
+ * tickets; every ticket must come back equal from the store, and encode to
+ * the same binary reply. A merge with a <code>PassengerDelta</code> must drop
+ * the alighted passengers and replace the tickets of the boarded ones.
+ * <p>
+ * Then the time of a downlink lookup is compared: a copy of the
+ * <code>TicketList</code> and a linear scan, as before the tickets were
+ * indexed, and a lookup in the store. Last, the heap held by 10,000 tickets
+ * is measured as a <code>TicketList</code> and as a store.
+ * <p>
+ * Usage: <code>TicketStoreTest [lookups]</code>
+ * <p>
+ * @author Andreas Stensig Jensen, on Dec 17, 2014
+ * Contributors:
+ */
+public class TicketStoreTest {
+
+    private static final int STORES = 20;
+
+
+    public static void main(String[] args) {
+        int lookups = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+        for (int count : new int[]{800, 10000}) {
+            TicketList list = tickets(count, 245000);
+            TicketStore store = new TicketStore(list);
+            check(list, store);
+            checkMerge(store);
+
+            Random random = new Random(count);
+            int[] customers = new int[lookups];
+            for (int i = 0; i != lookups; ++i) {
+                customers[i] = 245000 + random.nextInt(4 * count);
+            }
+            /*Warm up both, then measure*/
+            long found = 0;
+            TicketStore.View view = store.view();
+            for (int round = 0; round != 2; ++round) {
+                long start = System.nanoTime();
+                for (int i = 0; i != lookups / 10; ++i) {
+                    found += (new TicketList(list).getTicket(customers[i])
+                            != null) ? 1 : 0;
+                }
+                double copied = (System.nanoTime() - start) / 1000.0
+                        / (lookups / 10);
+                start = System.nanoTime();
+                for (int customer : customers) {
+                    found += view.moveTo(customer) ? 1 : 0;
+                }
+                double stored = (System.nanoTime() - start) / 1000.0
+                        / lookups;
+                if (round == 1) {
+                    System.out.println(String.format("%5d tickets: copy and"
+                            + " scan %8.3f us, store %6.3f us per lookup",
+                            count, copied, stored));
+                }
+            }
+            if (found == 0) {
+                throw new AssertionError("No tickets found.");
+            }
+        }
+        measureHeap(10000);
+    }
+
+    /**
+     * Check every lookup of the store against the list.
+     */
+    private static void check(TicketList list, TicketStore store) {
+        if (store.size() != list.size() - 1) {
+            throw new AssertionError("Store holds " + store.size()
+                    + " tickets.");
+        }
+        TicketStore.View view = store.view();
+        byte[] expected = new byte[WireCodec.TICKET_FRAME_SIZE];
+        byte[] actual = new byte[WireCodec.TICKET_FRAME_SIZE];
+        for (int customer = 245000; customer != 245000 + 4 * list.size();
+                ++customer) {
+            Ticket ticket = list.getTicket(customer);
+            if (view.moveTo(customer) != (ticket != null)) {
+                throw new AssertionError("Wrong lookup of customer "
+                        + customer);
+            }
+            if (ticket == null) {
+                continue;
+            }
+            if (!ticket.equals(view.toTicket())) {
+                throw new AssertionError("Ticket of customer " + customer
+                        + " changed in the store.");
+            }
+            WireCodec.encodeTicket(ByteBuffer.wrap(expected), ticket);
+            view.encode(ByteBuffer.wrap(actual));
+            if (!Arrays.equals(expected, actual)) {
+                throw new AssertionError("Reply of customer " + customer
+                        + " encoded differently.");
+            }
+        }
+        if (view.moveTo(0) || view.moveTo(-1)
+                || TicketStore.EMPTY.view().moveTo(245000)) {
+            throw new AssertionError("Found a ticket of no customer.");
+        }
+        if (!store.toTicketList().getAllTickets().equals(
+                list.getAllTickets().subList(0, list.size() - 1))) {
+            throw new AssertionError("Tickets changed in the store.");
+        }
+    }
+
+    /**
+     * Merge a delta where the first half of the customers alight, a new
+     * customer boards, and a customer of the second half boards again with a
+     * new ticket.
+     */
+    private static void checkMerge(TicketStore store) {
+        int[] all = new int[store.size()];
+        TicketStore.View view = store.view();
+        for (int row = 0; row != all.length; ++row) {
+            all[row] = view.at(row).getCustomerNumber();
+        }
+        Arrays.sort(all);
+        int half = all.length / 2;
+        int renewed = all[all.length - 1];
+        int newcomer = all[all.length - 1] + 1;
+        PassengerDelta delta = new PassengerDelta(1,
+                PassengerBitmap.of(new int[]{renewed, newcomer}),
+                PassengerBitmap.of(Arrays.copyOf(all, half)));
+        ArrayList<Ticket> boarded = new ArrayList<>();
+        boarded.add(ticket(1, renewed, 3));
+        boarded.add(ticket(2, newcomer, 3));
+        TicketList boardedList = new TicketList();
+        boardedList.setAllTickets(boarded);
+
+        TicketStore merged = VehicleComputer.mergeTickets(store, delta,
+                                                          boardedList);
+        TicketStore.View mergedView = merged.view();
+        if (merged.size() != all.length - half + 1
+                || mergedView.moveTo(all[0])
+                || !mergedView.moveTo(all[half])
+                || !mergedView.moveTo(newcomer)
+                || !mergedView.moveTo(renewed)
+                || mergedView.getZoneCount() != 3) {
+            throw new AssertionError("Delta merged wrong.");
+        }
+    }
+
+    /**
+     * Report the heap held by tickets as lists and as stores.
+     */
+    private static void measureHeap(int count) {
+        long base = usedHeap();
+        TicketList[] lists = new TicketList[STORES];
+        for (int i = 0; i != STORES; ++i) {
+            lists[i] = tickets(count, 245000 + i);
+        }
+        long listHeap = usedHeap() - base;
+        TicketStore[] stores = new TicketStore[STORES];
+        for (int i = 0; i != STORES; ++i) {
+            stores[i] = new TicketStore(lists[i]);
+        }
+        Arrays.fill(lists, null);
+        long storeHeap = usedHeap() - base;
+        System.out.println(String.format("%d tickets: %.1f B per ticket as a"
+                + " TicketList, %.1f B as a TicketStore", count,
+                listHeap / (double) (STORES * count),
+                storeHeap / (double) (STORES * count)));
+        if (stores[STORES - 1].size() == 0) {
+            throw new AssertionError("Empty store.");
+        }
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i != 3; ++i) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Create tickets for every third customer from the first, where the
+     * first customer has a second ticket last in the list.
+     */
+    private static TicketList tickets(int count, int first) {
+        ArrayList<Ticket> all = new ArrayList<>(count);
+        for (int i = 0; i != count; ++i) {
+            int customer = (i == count - 1) ? first : first + 3 * i;
+            all.add(ticket(i + 1, customer, 2 + i % 8));
+        }
+        TicketList list = new TicketList();
+        list.setAllTickets(all);
+        return list;
+    }
+
+    private static Ticket ticket(int number, int customer, int zoneCount) {
+        Ticket ticket = new Ticket();
+        ticket.createTicket(number, String.format("2014-%02d-%02d %02d:%02d:%02d",
+                1 + number % 12, 1 + number % 28, number % 24, number % 60,
+                (number * 7) % 60), 24, 1 + number % 5, zoneCount, customer);
+        return ticket;
+    }
+}